@@ -0,0 +1,73 @@
+package com.example;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * Tabella alias di Walker (costruzione di Vose) per una distribuzione discreta
+ * fissa: costruzione O(n), estrazione O(1) con un solo numero casuale
+ * (colonna = parte intera di u*n, moneta = parte frazionaria).
+ *
+ * Pesi tutti nulli: si estrae sempre l'ultimo indice, come la scelta a soglie
+ * cumulative che sostituisce.
+ */
+public final class AliasTable {
+
+  private final double[] prob;  // soglia della colonna
+  private final int[]    alias; // indice alternativo della colonna
+  private final double[] p;     // probabilità normalizzate (lettura)
+
+  public AliasTable(double... weights) {
+    int n = weights.length;
+    if (n == 0) throw new IllegalArgumentException("Tabella alias vuota");
+    prob  = new double[n];
+    alias = new int[n];
+    p     = new double[n];
+
+    double sum = 0.0;
+    for (double w : weights) {
+      if (!(w >= 0.0)) throw new IllegalArgumentException("Peso negativo o NaN: " + w);
+      sum += w;
+    }
+    if (sum <= 0.0) {
+      p[n - 1] = 1.0;
+      for (int i = 0; i < n; i++) { prob[i] = 0.0; alias[i] = n - 1; }
+      prob[n - 1] = 1.0;
+      return;
+    }
+
+    double[] scaled = new double[n];
+    int[] small = new int[n], large = new int[n];
+    int ns = 0, nl = 0;
+    for (int i = 0; i < n; i++) {
+      p[i] = weights[i] / sum;
+      scaled[i] = p[i] * n;
+      if (scaled[i] < 1.0) small[ns++] = i; else large[nl++] = i;
+    }
+    while (ns > 0 && nl > 0) {
+      int s = small[--ns], l = large[--nl];
+      prob[s]  = scaled[s];
+      alias[s] = l;
+      scaled[l] = (scaled[l] + scaled[s]) - 1.0;
+      if (scaled[l] < 1.0) small[ns++] = l; else large[nl++] = l;
+    }
+    // residui dovuti all'arrotondamento: colonne piene
+    while (nl > 0) { int l = large[--nl]; prob[l] = 1.0; alias[l] = l; }
+    while (ns > 0) { int s = small[--ns]; prob[s] = 1.0; alias[s] = s; }
+  }
+
+  public int size() { return prob.length; }
+
+  public double probability(int i) { return p[i]; }
+
+  public int sample(RandomGenerator rng) {
+    return sample(rng.nextDouble());
+  }
+
+  /** Estrazione da u in [0,1). */
+  public int sample(double u) {
+    double x = u * prob.length;
+    int col = (int) x;
+    if (col >= prob.length) col = prob.length - 1;
+    return (x - col < prob[col]) ? col : alias[col];
+  }
+}
@@ -1,19 +1,37 @@
 package com.example;
 
-import java.io.FileWriter;
-import java.io.PrintWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
 import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.random.RandomGenerator;
 
 /**
  * Genera una time-series di arrivi “a risacca” guidata dal workload:
  *   UP -> STABLE_UP -> DOWN -> STABLE_DOWN -> (loop)
  *
- * - Le variazioni del mix (up12/up23 e down21/down32) sono attive solo in UP/DOWN.
- * - I gettoni tra Rate1/Rate2/Rate3 (mixR1,mixR2,mixR3) si spostano di ±1, mantenendo la somma costante.
- * - Gli arrivi sono Poisson con lambda = (mixR1+mixR2+mixR3)/ARRIVAL_RATE_DIV.
+ * - Le variazioni del mix (up12/up23 e down21/down32; con N classi up_c,c+1 e
+ *   down_c+1,c) sono attive solo in UP/DOWN.
+ * - I gettoni tra Rate1..RateN si spostano di ±1, mantenendo la somma costante.
+ * - Gli arrivi sono Poisson con lambda = (r1+...+rN)/arrivalRateDiv.
  *
- * Output: "arrivals.csv" con colonne: t,cls
+ * Nessuno stato statico: ogni Scenario (immutabile) apre un Process con il
+ * proprio mix e i propri generatori, quindi più scenari girano in parallelo.
+ *
+ * Uso:
+ *   ArrivalGenerator                              -> "arrivals.csv" (t,cls), scenario di default
+ *   ArrivalGenerator bench [n] [T] [csv|bin] [seed] -> n scenari in parallelo, arrivals_<nome>.<ext>
  */
 public class ArrivalGenerator {
 
@@ -26,104 +44,277 @@ public class ArrivalGenerator {
   static final int    ARRIVAL_RATE_DIV    = 10;    // lambda arrivi = sum/ARRIVAL_RATE_DIV
 
   // Stato iniziale del mix (esempio: 5-3-2)
-  static int mixR1 = 5, mixR2 = 3, mixR3 = 2;
-  static final int MIX_TOKENS_TOTAL = mixR1 + mixR2 + mixR3;
+  static final int[] MIX_INITIAL = { 5, 3, 2 };
 
   // Seed per riproducibilità
   static final long SEED_ARRIVALS = 12345L;
   static final long SEED_MODEL    = 424242L;
 
+  // Formato binario: header (magic, versione) + record (t double, cls byte)
+  static final int BIN_MAGIC        = 0x41525231; // "ARR1"
+  static final int BIN_VERSION      = 1;
+  static final int BIN_HEADER_BYTES = 8;
+  static final int BIN_RECORD_BYTES = 9;
+
+  static final int IO_BUFFER_BYTES  = 1 << 20;
+
   enum WorkloadState { UP, STABLE_UP, DOWN, STABLE_DOWN }
 
-  public static void main(String[] args) throws Exception {
-    try (PrintWriter out = new PrintWriter(new FileWriter("arrivals.csv"))) {
-      out.println("t,cls");
+  enum Format { CSV, BIN }
 
-      Random rngArrivals = new Random(SEED_ARRIVALS);
-      Random rngModel    = new Random(SEED_MODEL);
+  // ---------- Scenario (configurazione immutabile) ----------
 
-      double now = 0.0;
-      WorkloadState wl = WorkloadState.UP; // parte in UP
+  static final class Scenario {
+    final String name;
+    final double duration;
+    final double workloadRateDiv;
+    final double mixStepRateDiv;
+    final int    arrivalRateDiv;
+    final int[]  mix0;
+    final long   seed;     // seme dei flussi SplittableRandom
+    final boolean legacy;  // Random(SEED_ARRIVALS)/Random(SEED_MODEL) come arrivals.csv storico
 
-      // Arrivi Poisson omogenei (somma del mix è costante)
-      final double arrivalLambda = (mixR1 + mixR2 + mixR3) / (double) ARRIVAL_RATE_DIV;
-      double nextArrivalAt   = now + sampleExp(arrivalLambda, rngArrivals);
+    private Scenario(String name, double duration, double workloadRateDiv, double mixStepRateDiv,
+                     int arrivalRateDiv, int[] mix0, long seed, boolean legacy) {
+      this.name = name;
+      this.duration = duration;
+      this.workloadRateDiv = workloadRateDiv;
+      this.mixStepRateDiv = mixStepRateDiv;
+      this.arrivalRateDiv = arrivalRateDiv;
+      this.mix0 = mix0.clone();
+      this.seed = seed;
+      this.legacy = legacy;
+    }
 
-      // Workload: prossimo cambio di stato
-      double nextWorkloadSwitchAt = now + sampleExp(workloadStateRate(wl), rngModel);
+    // Scenario di default (stessi parametri e stessi semi dell'arrivals.csv storico)
+    static Scenario defaults() {
+      return new Scenario("default", T, WORKLOAD_RATE_DIV, MIX_STEP_RATE_DIV,
+                          ARRIVAL_RATE_DIV, MIX_INITIAL, SEED_ARRIVALS, true);
+    }
+
+    Scenario named(String n)             { return new Scenario(n, duration, workloadRateDiv, mixStepRateDiv, arrivalRateDiv, mix0, seed, legacy); }
+    Scenario duration(double d)          { return new Scenario(name, d, workloadRateDiv, mixStepRateDiv, arrivalRateDiv, mix0, seed, legacy); }
+    Scenario workloadRateDiv(double d)   { return new Scenario(name, duration, d, mixStepRateDiv, arrivalRateDiv, mix0, seed, legacy); }
+    Scenario mixStepRateDiv(double d)    { return new Scenario(name, duration, workloadRateDiv, d, arrivalRateDiv, mix0, seed, legacy); }
+    Scenario arrivalRateDiv(int d)       { return new Scenario(name, duration, workloadRateDiv, mixStepRateDiv, d, mix0, seed, legacy); }
+    Scenario mix(int... r)               { return new Scenario(name, duration, workloadRateDiv, mixStepRateDiv, arrivalRateDiv, r, seed, legacy); }
+    // Mix iniziale di N classi con i rate di default del modello generico (5-3-2 a rotazione)
+    Scenario classes(int n) {
+      int[] r = new int[n];
+      for (int c = 1; c <= n; c++) r[c - 1] = ModelOris2_fase4.defaultRate(c);
+      return mix(r);
+    }
+    // Semi indipendenti: arrivi e modello da due split dello stesso SplittableRandom
+    Scenario seed(long s)                { return new Scenario(name, duration, workloadRateDiv, mixStepRateDiv, arrivalRateDiv, mix0, s, false); }
+
+    Process open() {
+      if (legacy) return new Process(this, new Random(SEED_ARRIVALS), new Random(SEED_MODEL));
+      SplittableRandom root = new SplittableRandom(seed);
+      return new Process(this, root.split(), root.split());
+    }
+  }
+
+  // ---------- Processo (stato di uno scenario, cursore sugli arrivi) ----------
 
+  static final class Process {
+    final Scenario sc;
+    final RandomGenerator rngArrivals, rngModel;
+    final int mixTotal;
+    final double arrivalLambda;
+
+    final int[] r; // mix corrente, classe c -> r[c-1]
+    WorkloadState wl = WorkloadState.UP; // parte in UP
+    double now = 0.0;
+    double nextArrivalAt, nextWorkloadSwitchAt, nextMixChangeAt;
+
+    // ultimo arrivo prodotto da advance()
+    double time;
+    int    cls;
+
+    Process(Scenario sc, RandomGenerator rngArrivals, RandomGenerator rngModel) {
+      this.sc = sc;
+      this.rngArrivals = rngArrivals;
+      this.rngModel = rngModel;
+      this.r = sc.mix0.clone();
+      this.mixTotal = sum(r);
+
+      // Arrivi Poisson omogenei (somma del mix è costante)
+      this.arrivalLambda   = mixTotal / (double) sc.arrivalRateDiv;
+      nextArrivalAt        = now + sampleExp(arrivalLambda, rngArrivals);
+      // Workload: prossimo cambio di stato
+      nextWorkloadSwitchAt = now + sampleExp(workloadStateRate(wl, sc.workloadRateDiv), rngModel);
       // Mix variation: attiva solo in UP/DOWN
-      double enabledMixRate  = mixEnabledRate(wl, mixR1, mixR2, mixR3);
-      double nextMixChangeAt = (enabledMixRate > 0.0)
-          ? now + sampleExp(enabledMixRate, rngModel)
-          : Double.POSITIVE_INFINITY;
+      scheduleMix();
+    }
 
-      while (now < T) {
+    /** Avanza fino al prossimo arrivo entro la durata: false a fine scenario. */
+    boolean advance() {
+      while (now < sc.duration) {
         double nextEventAt = Math.min(nextArrivalAt, Math.min(nextWorkloadSwitchAt, nextMixChangeAt));
-        if (nextEventAt > T) break;
+        if (nextEventAt > sc.duration) { now = sc.duration; return false; }
         now = nextEventAt;
 
         if (nextEventAt == nextArrivalAt) {
           // Estrae classe proporzionale al mix corrente
-          int cls = pickArrivalClass(mixR1, mixR2, mixR3, rngArrivals);
-          out.printf(Locale.US, "%.6f,%d%n", now, cls);
+          time = now;
+          cls  = pickArrivalClass(r, rngArrivals);
           nextArrivalAt = now + sampleExp(arrivalLambda, rngArrivals);
+          return true;
 
         } else if (nextEventAt == nextWorkloadSwitchAt) {
           // Cambio di “modalità” del workload
           wl = nextWorkloadState(wl);
-          nextWorkloadSwitchAt = now + sampleExp(workloadStateRate(wl), rngModel);
-
+          nextWorkloadSwitchAt = now + sampleExp(workloadStateRate(wl, sc.workloadRateDiv), rngModel);
           // Accendi/spegni la possibilità di variare il mix
-          enabledMixRate  = mixEnabledRate(wl, mixR1, mixR2, mixR3);
-          nextMixChangeAt = (enabledMixRate > 0.0)
-              ? now + sampleExp(enabledMixRate, rngModel)
-              : Double.POSITIVE_INFINITY;
+          scheduleMix();
 
         } else {
           // Variazione del mix (abilitata solo in UP/DOWN)
+          double perToken = 1.0 / sc.mixStepRateDiv;
           if (wl == WorkloadState.UP) {
-            // up12 (r1->r2) e up23 (r2->r3)
-            double rateUp12 = mixR1 * (1.0 / MIX_STEP_RATE_DIV);
-            double rateUp23 = mixR2 * (1.0 / MIX_STEP_RATE_DIV);
-            int choice = sampleWeightedIndex(new double[]{rateUp12, rateUp23}, rngModel);
-            if (choice == 0 && mixR1 > 0) { mixR1--; mixR2++; }
-            else if (choice == 1 && mixR2 > 0) { mixR2--; mixR3++; }
+            // up_c,c+1 (r_c -> r_c+1)
+            int c = sampleWeightedIndex(r, 0, perToken, rngModel);
+            if (r[c] > 0) { r[c]--; r[c + 1]++; }
 
           } else if (wl == WorkloadState.DOWN) {
-            // down21 (r2->r1) e down32 (r3->r2)
-            double rateDown21 = mixR2 * (1.0 / MIX_STEP_RATE_DIV);
-            double rateDown32 = mixR3 * (1.0 / MIX_STEP_RATE_DIV);
-            int choice = sampleWeightedIndex(new double[]{rateDown21, rateDown32}, rngModel);
-            if (choice == 0 && mixR2 > 0) { mixR2--; mixR1++; }
-            else if (choice == 1 && mixR3 > 0) { mixR3--; mixR2++; }
+            // down_c+1,c (r_c+1 -> r_c)
+            int c = sampleWeightedIndex(r, 1, perToken, rngModel);
+            if (r[c + 1] > 0) { r[c + 1]--; r[c]++; }
           }
 
           // Conservazione della somma (sanity check)
-          if (mixR1 + mixR2 + mixR3 != MIX_TOKENS_TOTAL)
+          if (sum(r) != mixTotal)
             throw new IllegalStateException("Somma del mix non conservata!");
 
           // Ripianifica il prossimo evento di mix
-          enabledMixRate  = mixEnabledRate(wl, mixR1, mixR2, mixR3);
-          nextMixChangeAt = (enabledMixRate > 0.0)
-              ? now + sampleExp(enabledMixRate, rngModel)
-              : Double.POSITIVE_INFINITY;
+          scheduleMix();
         }
       }
+      return false;
     }
 
-  System.out.println("[ok] arrivals.csv generato (T= " + T + "s)");
+    private void scheduleMix() {
+      double enabledMixRate = mixEnabledRate(wl, r, sc.mixStepRateDiv);
+      nextMixChangeAt = (enabledMixRate > 0.0)
+          ? now + sampleExp(enabledMixRate, rngModel)
+          : Double.POSITIVE_INFINITY;
+    }
+  }
+
+  // ---------- Scrittura (CSV o binario, NIO a blocchi grandi) ----------
+
+  /** Scrive tutti gli arrivi dello scenario; ritorna il numero di arrivi. */
+  static long write(Scenario sc, String file, Format fmt) throws IOException {
+    Process p = sc.open();
+    long n = 0;
+    if (fmt == Format.CSV) {
+      try (AsyncCsvWriter out = new AsyncCsvWriter(file, '.', IO_BUFFER_BYTES, 4)) {
+        out.line("t,cls");
+        while (p.advance()) {
+          out.num(p.time, 6).ch(',').num(p.cls).endRow();
+          n++;
+        }
+      }
+      return n;
+    }
+
+    try (FileChannel ch = FileChannel.open(Path.of(file),
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      ByteBuffer buf = ByteBuffer.allocateDirect(IO_BUFFER_BYTES);
+      buf.putInt(BIN_MAGIC).putInt(BIN_VERSION);
+      while (p.advance()) {
+        if (buf.remaining() < BIN_RECORD_BYTES) drain(ch, buf);
+        buf.putDouble(p.time).put((byte) p.cls);
+        n++;
+      }
+      drain(ch, buf);
+    }
+    return n;
+  }
+
+  private static void drain(FileChannel ch, ByteBuffer buf) throws IOException {
+    buf.flip();
+    while (buf.hasRemaining()) ch.write(buf);
+    buf.clear();
+  }
+
+  /**
+   * Genera gli scenari in parallelo (un file ciascuno) e stampa il throughput.
+   * @return arrivi totali
+   */
+  static long runAll(List<Scenario> scenarios, Format fmt, int parallelism) throws IOException {
+    String ext = (fmt == Format.CSV) ? ".csv" : ".bin";
+    ExecutorService exec = Executors.newFixedThreadPool(Math.max(1, parallelism));
+    long t0 = System.nanoTime();
+    long total = 0;
+    try {
+      List<Callable<long[]>> tasks = new ArrayList<>();
+      for (Scenario sc : scenarios) {
+        tasks.add(() -> {
+          long s = System.nanoTime();
+          long n = write(sc, "arrivals_" + sc.name + ext, fmt);
+          return new long[]{ n, System.nanoTime() - s };
+        });
+      }
+      List<Future<long[]>> res = exec.invokeAll(tasks);
+      for (int i = 0; i < res.size(); i++) {
+        long[] r = res.get(i).get();
+        total += r[0];
+        System.out.printf(Locale.US, "[ok] %-12s %,d arrivi in %.3f s (%,.0f arrivi/s)%n",
+            scenarios.get(i).name, r[0], r[1] / 1e9, r[0] / (r[1] / 1e9));
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException io) throw io;
+      throw new IllegalStateException(e.getCause());
+    } finally {
+      exec.shutdown();
+    }
+    double sec = (System.nanoTime() - t0) / 1e9;
+    System.out.printf(Locale.US, "[ok] totale %,d arrivi, %d scenari, %.3f s (%,.0f arrivi/s)%n",
+        total, scenarios.size(), sec, total / sec);
+    return total;
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length > 0 && args[0].equals("bench")) {
+      int    n    = (args.length > 1) ? Integer.parseInt(args[1]) : 16;
+      double dur  = (args.length > 2) ? Double.parseDouble(args[2]) : 100_000.0;
+      Format fmt  = (args.length > 3) ? Format.valueOf(args[3].toUpperCase(Locale.ROOT)) : Format.BIN;
+      long   seed = (args.length > 4) ? Long.parseLong(args[4]) : SEED_ARRIVALS;
+
+      // semi indipendenti per scenario, divisori variati a rotazione
+      int[]    arrDivs = { 10, 5, 2, 1 };
+      double[] mixDivs = { 10.0, 5.0, 20.0 };
+      SplittableRandom master = new SplittableRandom(seed);
+      List<Scenario> scenarios = new ArrayList<>();
+      for (int k = 0; k < n; k++) {
+        scenarios.add(Scenario.defaults()
+            .named("s" + k)
+            .duration(dur)
+            .arrivalRateDiv(arrDivs[k % arrDivs.length])
+            .mixStepRateDiv(mixDivs[k % mixDivs.length])
+            .seed(master.split().nextLong()));
+      }
+      runAll(scenarios, fmt, Runtime.getRuntime().availableProcessors());
+      return;
+    }
+
+    write(Scenario.defaults(), "arrivals.csv", Format.CSV);
+    System.out.println("[ok] arrivals.csv generato (T= " + T + "s)");
   }
 
   // Utility
 
   // Quanto spesso cambia “modalità” di workload
-  static double workloadStateRate(WorkloadState s) {
+  static double workloadStateRate(WorkloadState s, double workloadRateDiv) {
     switch (s) {
-      case UP:           return 5.0 / WORKLOAD_RATE_DIV;
-      case STABLE_UP:    return 1.0 / WORKLOAD_RATE_DIV;
-      case DOWN:         return 5.0 / WORKLOAD_RATE_DIV;
-      case STABLE_DOWN:  return 1.0 / WORKLOAD_RATE_DIV;
+      case UP:           return 5.0 / workloadRateDiv;
+      case STABLE_UP:    return 1.0 / workloadRateDiv;
+      case DOWN:         return 5.0 / workloadRateDiv;
+      case STABLE_DOWN:  return 1.0 / workloadRateDiv;
       default: throw new IllegalArgumentException();
     }
   }
@@ -139,37 +330,52 @@ public class ArrivalGenerator {
   }
 
   // Rate totale delle variazioni possibili sul mix nello stato attuale
-  static double mixEnabledRate(WorkloadState s, int r1, int r2, int r3) {
-    double perToken = 1.0 / MIX_STEP_RATE_DIV;
-    if (s == WorkloadState.UP)   return r1 * perToken + r2 * perToken; // up12 + up23
-    if (s == WorkloadState.DOWN) return r2 * perToken + r3 * perToken; // down21 + down32
-    return 0.0; // in STABLE_* non si muove nulla
+  static double mixEnabledRate(WorkloadState s, int[] r, double mixStepRateDiv) {
+    double perToken = 1.0 / mixStepRateDiv;
+    int from;
+    if (s == WorkloadState.UP)        from = 0; // up12 + up23 + ...
+    else if (s == WorkloadState.DOWN) from = 1; // down21 + down32 + ...
+    else return 0.0; // in STABLE_* non si muove nulla
+    double rate = 0.0;
+    for (int c = from; c < from + r.length - 1; c++) rate += r[c] * perToken;
+    return rate;
   }
 
   // Estrazione esponenziale con rate dato
-  static double sampleExp(double rate, Random rng) {
+  static double sampleExp(double rate, RandomGenerator rng) {
     double u = Math.max(1e-12, 1.0 - rng.nextDouble()); // evita log(0)
     return -Math.log(u) / rate;
   }
 
   // Classe dell’arrivo in base al mix corrente
-  static int pickArrivalClass(int r1, int r2, int r3, Random rng) {
-    int sum = Math.max(1, r1 + r2 + r3);
+  static int pickArrivalClass(int[] r, RandomGenerator rng) {
+    int sum = Math.max(1, sum(r));
     double u = rng.nextDouble();
-    double p1 = r1 / (double) sum;
-    double p2 = p1 + r2 / (double) sum;
-    return (u < p1) ? 1 : (u < p2) ? 2 : 3;
+    double p = 0.0;
+    for (int c = 1; c < r.length; c++) {
+      p += r[c - 1] / (double) sum;
+      if (u < p) return c;
+    }
+    return r.length;
   }
 
-  // Estrae un indice proporzionalmente ai pesi (rate)
-  static int sampleWeightedIndex(double[] weights, Random rng) {
-    double sum = 0.0; for (double w : weights) sum += w;
-    double u = rng.nextDouble() * sum;
+  // Estrae c in [0, N-2] con peso r[c+from]*perToken (le N-1 mosse up o down), senza array
+  static int sampleWeightedIndex(int[] r, int from, double perToken, RandomGenerator rng) {
+    int last = r.length - 2;
+    double total = 0.0;
+    for (int c = 0; c <= last; c++) total += r[c + from] * perToken;
+    double u = rng.nextDouble() * total;
     double acc = 0.0;
-    for (int i = 0; i < weights.length; i++) {
-      acc += weights[i];
-      if (u <= acc) return i;
+    for (int c = 0; c < last; c++) {
+      acc += r[c + from] * perToken;
+      if (u <= acc) return c;
     }
-    return weights.length - 1;
+    return last;
+  }
+
+  static int sum(int[] r) {
+    int s = 0;
+    for (int x : r) s += x;
+    return s;
   }
 }
@@ -0,0 +1,146 @@
+package com.example;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import com.example.TimeseriesSimulator.Arrival;
+
+/**
+ * Sorgente di arrivi ordinati per tempo, consumata dal simulatore un arrivo
+ * alla volta: lista in memoria (arrivals.csv), file binario di
+ * ArrivalGenerator o direttamente il processo UP/STABLE_UP/DOWN/STABLE_DOWN
+ * di uno Scenario, senza passare dal disco.
+ */
+public interface ArrivalSource extends AutoCloseable {
+
+  /** Prossimo arrivo, null a fine sorgente. */
+  Arrival next() throws IOException;
+
+  /** Numero totale di arrivi se noto, altrimenti -1. */
+  default long sizeHint() { return -1; }
+
+  @Override
+  default void close() throws IOException { }
+
+  // ---------- Implementazioni ----------
+
+  static ArrivalSource of(List<Arrival> arrivals) {
+    Iterator<Arrival> it = arrivals.iterator();
+    long size = arrivals.size();
+    return new ArrivalSource() {
+      public Arrival next()    { return it.hasNext() ? it.next() : null; }
+      public long sizeHint()   { return size; }
+    };
+  }
+
+  // Generazione al volo: nessun file, stato solo nel Process
+  static ArrivalSource generator(ArrivalGenerator.Scenario sc) {
+    ArrivalGenerator.Process p = sc.open();
+    return () -> p.advance() ? new Arrival(p.time, p.cls) : null;
+  }
+
+  // File binario di ArrivalGenerator (bench ... bin), letto a blocchi
+  static ArrivalSource binary(String file) throws IOException {
+    FileChannel ch = FileChannel.open(Path.of(file), StandardOpenOption.READ);
+    ByteBuffer buf = ByteBuffer.allocateDirect(ArrivalGenerator.IO_BUFFER_BYTES);
+    buf.limit(ArrivalGenerator.BIN_HEADER_BYTES);
+    while (buf.hasRemaining() && ch.read(buf) >= 0) { }
+    buf.flip();
+    if (buf.remaining() < ArrivalGenerator.BIN_HEADER_BYTES
+        || buf.getInt() != ArrivalGenerator.BIN_MAGIC
+        || buf.getInt() != ArrivalGenerator.BIN_VERSION) {
+      ch.close();
+      throw new IOException("File arrivi binario non valido: " + file);
+    }
+    long size = (ch.size() - ArrivalGenerator.BIN_HEADER_BYTES) / ArrivalGenerator.BIN_RECORD_BYTES;
+    buf.clear().flip();
+
+    return new ArrivalSource() {
+      public Arrival next() throws IOException {
+        if (buf.remaining() < ArrivalGenerator.BIN_RECORD_BYTES) {
+          buf.compact();
+          while (buf.hasRemaining() && ch.read(buf) > 0) { }
+          buf.flip();
+          if (buf.remaining() < ArrivalGenerator.BIN_RECORD_BYTES) return null;
+        }
+        double t = buf.getDouble();
+        return new Arrival(t, buf.get());
+      }
+      public long sizeHint()                { return size; }
+      public void close() throws IOException { ch.close(); }
+    };
+  }
+
+  /**
+   * Da argomento del simulatore:
+   *   gen[:durata[:seed[:classi]]] -> scenario di ArrivalGenerator in memoria (N classi)
+   *   *.bin                -> file binario di ArrivalGenerator
+   *   altro                -> CSV "t,cls" (letto e ordinato come prima)
+   */
+  static ArrivalSource open(String spec) throws Exception {
+    if (spec.equals("gen") || spec.startsWith("gen:")) {
+      String[] p = spec.split(":");
+      ArrivalGenerator.Scenario sc = ArrivalGenerator.Scenario.defaults();
+      if (p.length > 1) sc = sc.duration(Double.parseDouble(p[1]));
+      if (p.length > 2) sc = sc.seed(Long.parseLong(p[2]));
+      if (p.length > 3) sc = sc.classes(Integer.parseInt(p[3]));
+      return generator(sc);
+    }
+    if (spec.endsWith(".bin")) return binary(spec);
+    return of(TimeseriesSimulator.readArrivalsCsv(spec));
+  }
+
+  // ---------- Look-ahead per il controller ----------
+
+  /**
+   * Buffer degli arrivi non ancora consumati: il simulatore legge peek()/poll(),
+   * il controller chiede window(now, now+orizzonte) e viene letto dalla sorgente
+   * solo quanto serve per coprire l'orizzonte.
+   */
+  final class LookAhead {
+    private final ArrivalSource src;
+    private final ArrayDeque<Arrival> buf = new ArrayDeque<>();
+    private boolean exhausted;
+
+    public LookAhead(ArrivalSource src) { this.src = src; }
+
+    private boolean fill() throws IOException {
+      if (exhausted) return false;
+      Arrival a = src.next();
+      if (a == null) { exhausted = true; return false; }
+      buf.addLast(a);
+      return true;
+    }
+
+    public Arrival peek() throws IOException {
+      if (buf.isEmpty()) fill();
+      return buf.peekFirst();
+    }
+
+    public Arrival poll() throws IOException {
+      if (buf.isEmpty()) fill();
+      return buf.pollFirst();
+    }
+
+    /** Arrivi non consumati con tempo in [from, to). */
+    public List<Arrival> window(double from, double to) throws IOException {
+      while ((buf.isEmpty() || buf.peekLast().time < to) && fill()) { }
+      List<Arrival> out = new ArrayList<>();
+      for (Arrival a : buf) {
+        if (a.time < from) continue;
+        if (a.time >= to) break;
+        out.add(a);
+      }
+      return out;
+    }
+
+    public int buffered() { return buf.size(); }
+  }
+}
@@ -0,0 +1,427 @@
+package com.example;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Writer CSV asincrono e senza Formatter:
+ * - numeri e testo formattati direttamente in un byte[] riusato (batch)
+ * - i batch pieni passano ad un thread dedicato tramite una coda limitata
+ *   (se il disco rallenta, il produttore si blocca: backpressure)
+ * - il thread scrive su FileChannel e rimette il batch tra quelli liberi
+ *
+ * I decimali sono arrotondati come "%.Nf" di String.format (HALF_UP sulle
+ * cifre di Double.toString), quindi i file restano identici byte per byte.
+ * Un solo produttore per istanza.
+ *
+ * position() è la lunghezza logica del file (scritto + in coda); flush()
+ * attende che sia tutta su disco e resume() riapre un file troncandolo ad
+ * una posizione salvata (ripresa da checkpoint).
+ *
+ * Con uscita a segmenti (SegmentedCsv) le righe aperte da key(t) sono
+ * contate per segmento e il produttore taglia a confine di riga quando il
+ * segmento supera i byte o la durata della Rotation; il thread di scrittura
+ * chiude il segmento e lo registra nel manifest. In questo caso position()
+ * conta i segmenti chiusi e flush() chiude anche quello corrente.
+ */
+public final class AsyncCsvWriter implements AutoCloseable {
+
+  static final int DEFAULT_BATCH_BYTES = 1 << 16;
+  static final int DEFAULT_QUEUE       = 8;
+
+  private static final byte[] NL = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+  private static final long[] POW10 = new long[19];
+  static {
+    POW10[0] = 1;
+    for (int i = 1; i < POW10.length; i++) POW10[i] = POW10[i - 1] * 10;
+  }
+
+  private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[64]);
+
+  private static final class Batch {
+    final byte[] buf;
+    int len;
+    boolean cut;               // fine segmento dopo questi byte
+    double cutFirst, cutLast;  // chiavi della prima e dell'ultima riga del segmento
+    long cutRows;
+    Batch(int size) { buf = new byte[size]; }
+  }
+  private static final Batch POISON = new Batch(0);
+
+  /** Destinazione dei batch, usata solo dal thread di scrittura. */
+  interface Sink {
+    void write(byte[] buf, int len) throws IOException;
+    /** Fine segmento: le righe scritte finora hanno chiavi in [first, last]. */
+    default void cut(double first, double last, long rows) throws IOException { }
+    void close() throws IOException;
+  }
+
+  private final Sink sink;
+  private final BlockingQueue<Batch> full;
+  private final BlockingQueue<Batch> free;
+  private final Thread writer;
+  private final byte decimalSep;
+  private volatile IOException failure;
+
+  private Batch cur;
+  private boolean closed;
+  private long queued;                 // byte passati al writer (solo produttore)
+  private long done;                   // byte scritti dal writer (sotto lock)
+  private final Object doneLock = new Object();
+
+  // rotazione (solo uscita a segmenti, produttore)
+  private final SegmentedCsv.Rotation rotation;
+  private long segments;               // segmenti chiusi (anche quelli ripresi)
+  private long segStart;               // queued + cur.len all'inizio del segmento
+  private long segRows;
+  private double segFirst, segLast;
+  private boolean keyed;
+
+  public AsyncCsvWriter(String file) throws IOException {
+    this(file, '.', DEFAULT_BATCH_BYTES, DEFAULT_QUEUE);
+  }
+
+  public AsyncCsvWriter(String file, char decimalSep, int batchBytes, int queueBatches) throws IOException {
+    this(file, decimalSep, batchBytes, queueBatches, -1L);
+  }
+
+  /** Riapre 'file' troncato a 'position' (da position() al checkpoint) e continua in coda. */
+  public static AsyncCsvWriter resume(String file, long position) throws IOException {
+    return new AsyncCsvWriter(file, '.', DEFAULT_BATCH_BYTES, DEFAULT_QUEUE, position);
+  }
+
+  private AsyncCsvWriter(String file, char decimalSep, int batchBytes, int queueBatches, long resumeAt) throws IOException {
+    this(file, channelSink(file, resumeAt), null, 0L, decimalSep, batchBytes, queueBatches);
+    if (resumeAt >= 0) {
+      this.queued = resumeAt;
+      this.done   = resumeAt;
+    }
+  }
+
+  /** Writer su una destinazione a segmenti (vedi SegmentedCsv.open), 'segments' già chiusi. */
+  AsyncCsvWriter(String file, Sink sink, SegmentedCsv.Rotation rotation, long segments) {
+    this(file, sink, rotation, segments, '.', DEFAULT_BATCH_BYTES, DEFAULT_QUEUE);
+  }
+
+  private AsyncCsvWriter(String file, Sink sink, SegmentedCsv.Rotation rotation, long segments,
+                         char decimalSep, int batchBytes, int queueBatches) {
+    this.sink = sink;
+    this.rotation = rotation;
+    this.segments = segments;
+    this.decimalSep = (byte) decimalSep;
+    int size = Math.max(256, batchBytes);
+    this.full = new ArrayBlockingQueue<>(Math.max(1, queueBatches) + 1);
+    this.free = new ArrayBlockingQueue<>(Math.max(1, queueBatches) + 1);
+    for (int i = 0; i < Math.max(1, queueBatches); i++) free.add(new Batch(size));
+    this.cur = new Batch(size);
+
+    this.writer = new Thread(this::drain, "csv-writer-" + Path.of(file).getFileName());
+    this.writer.setDaemon(true);
+    this.writer.start();
+  }
+
+  // File singolo: nuovo (troncato) o ripreso alla posizione del checkpoint
+  private static Sink channelSink(String file, long resumeAt) throws IOException {
+    FileChannel channel;
+    if (resumeAt < 0) {
+      channel = FileChannel.open(Path.of(file),
+          StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    } else {
+      channel = FileChannel.open(Path.of(file), StandardOpenOption.WRITE);
+      if (channel.size() < resumeAt) {
+        channel.close();
+        throw new IOException("File più corto del checkpoint: " + file + " (" + resumeAt + " byte attesi)");
+      }
+      channel.truncate(resumeAt);
+      channel.position(resumeAt);
+    }
+    return new Sink() {
+      public void write(byte[] buf, int len) throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap(buf, 0, len);
+        while (bb.hasRemaining()) channel.write(bb);
+      }
+      public void close() throws IOException { channel.close(); }
+    };
+  }
+
+  // ---------- Produttore ----------
+
+  public AsyncCsvWriter num(double v, int decimals) {
+    ensure(32 + decimals);
+    int end = writeFixed(cur.buf, cur.len, v, decimals, decimalSep);
+    if (end < 0) return text(fixedString(v, decimals, (char) decimalSep));
+    cur.len = end;
+    return this;
+  }
+
+  public AsyncCsvWriter num(long v) {
+    ensure(20);
+    cur.len = writeLong(cur.buf, cur.len, v);
+    return this;
+  }
+
+  public AsyncCsvWriter ch(char c) {
+    if (c < 0x80) {
+      ensure(1);
+      cur.buf[cur.len++] = (byte) c;
+      return this;
+    }
+    return text(String.valueOf(c));
+  }
+
+  public AsyncCsvWriter text(String s) {
+    int n = s.length();
+    for (int i = 0; i < n; i++) {
+      char c = s.charAt(i);
+      if (c < 0x80) {
+        ensure(1);
+        cur.buf[cur.len++] = (byte) c;
+      } else {
+        byte[] b = s.substring(i, i + (Character.isHighSurrogate(c) && i + 1 < n ? 2 : 1))
+            .getBytes(StandardCharsets.UTF_8);
+        if (b.length > 1 && Character.isHighSurrogate(c)) i++;
+        ensure(b.length);
+        System.arraycopy(b, 0, cur.buf, cur.len, b.length);
+        cur.len += b.length;
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Chiave (tempo) della riga che sta per essere scritta: con la rotazione
+   * decide il taglio dei segmenti e finisce nel manifest; altrimenti non fa nulla.
+   */
+  public AsyncCsvWriter key(double t) {
+    if (rotation == null) return this;
+    if (segRows > 0 && t - segFirst >= rotation.maxSec) cut();
+    if (segRows == 0) segFirst = t;
+    segLast = t;
+    keyed = true;
+    return this;
+  }
+
+  public AsyncCsvWriter endRow() {
+    ensure(NL.length);
+    for (byte b : NL) cur.buf[cur.len++] = b;
+    if (keyed) {
+      keyed = false;
+      segRows++;
+      if (queued + cur.len - segStart >= rotation.maxBytes) cut();
+    }
+    return this;
+  }
+
+  // Chiude il segmento corrente dopo l'ultima riga completa
+  private void cut() {
+    if (segRows == 0) return;
+    cur.cut = true;
+    cur.cutFirst = segFirst;
+    cur.cutLast = segLast;
+    cur.cutRows = segRows;
+    enqueue();
+    try {
+      cur = free.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(e);
+    }
+    cur.len = 0;
+    segments++;
+    segRows = 0;
+    segStart = queued;
+  }
+
+  // Riga di testo completa (header, messaggi)
+  public AsyncCsvWriter line(String s) {
+    return text(s).endRow();
+  }
+
+  /**
+   * Lunghezza logica del file: byte già scritti più quelli in coda o nel batch
+   * corrente. Con la rotazione: numero di segmenti chiusi.
+   */
+  public long position() {
+    return (rotation != null) ? segments : queued + cur.len;
+  }
+
+  /** Attende che tutto quanto prodotto finora sia scritto sul file (con la rotazione chiude il segmento). */
+  public void flush() throws IOException {
+    if (rotation != null) cut();
+    if (cur.len > 0) {
+      enqueue();
+      try {
+        cur = free.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException(e);
+      }
+      cur.len = 0;
+    }
+    synchronized (doneLock) {
+      while (done < queued && failure == null) {
+        try {
+          doneLock.wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IOException(e);
+        }
+      }
+    }
+    if (failure != null) throw failure;
+  }
+
+  private void enqueue() {
+    try {
+      queued += cur.len;
+      full.put(cur);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) return;
+    closed = true;
+    try {
+      if (rotation != null) cut();
+      if (cur.len > 0) { queued += cur.len; full.put(cur); }
+      full.put(POISON);
+      writer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      sink.close();
+    }
+    if (failure != null) throw failure;
+  }
+
+  private void ensure(int bytes) {
+    if (cur.len + bytes <= cur.buf.length) return;
+    if (failure != null) throw new UncheckedIOException(failure);
+    enqueue();
+    try {
+      cur = free.take();
+      cur.len = 0;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(e);
+    }
+  }
+
+  // ---------- Thread di scrittura ----------
+
+  private void drain() {
+    try {
+      while (true) {
+        Batch b = full.take();
+        if (b == POISON) return;
+        if (failure == null) {
+          try {
+            if (b.len > 0) sink.write(b.buf, b.len);
+            if (b.cut) sink.cut(b.cutFirst, b.cutLast, b.cutRows);
+          } catch (IOException e) {
+            failure = e;
+          }
+        }
+        synchronized (doneLock) {
+          done += b.len;
+          doneLock.notifyAll();
+        }
+        b.len = 0;
+        b.cut = false;
+        free.offer(b);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  // ---------- Formattazione numerica ----------
+
+  /**
+   * Scrive v con 'decimals' cifre decimali come String.format("%.Nf").
+   * Percorso veloce su long (al più 32 + decimals byte); i casi vicini al
+   * pareggio o troppo grandi restituiscono -1 e vanno su fixedString().
+   * @return nuova posizione nel buffer, oppure -1
+   */
+  static int writeFixed(byte[] buf, int pos, double v, int decimals, byte sep) {
+    if (Double.isNaN(v)) return writeAscii(buf, pos, "NaN");
+    if (Double.isInfinite(v)) return writeAscii(buf, pos, v > 0 ? "Infinity" : "-Infinity");
+
+    boolean neg = (Double.doubleToRawLongBits(v) < 0);
+    double a = Math.abs(v);
+    if (decimals < POW10.length) {
+      double scaled = a * POW10[decimals];
+      if (scaled < 1e15) {
+        long fl = (long) scaled;
+        double frac = scaled - fl;
+        double tol = 1e-7 + scaled * 1e-15;
+        if (Math.abs(frac - 0.5) > tol) {
+          long r = (frac > 0.5) ? fl + 1 : fl;
+          if (neg) buf[pos++] = '-';
+          long p = POW10[decimals];
+          pos = writeLong(buf, pos, r / p);
+          if (decimals > 0) {
+            buf[pos++] = sep;
+            long f = r % p;
+            for (int d = decimals - 1; d >= 0; d--) {
+              buf[pos + d] = (byte) ('0' + (f % 10));
+              f /= 10;
+            }
+            pos += decimals;
+          }
+          return pos;
+        }
+      }
+    }
+    return -1;
+  }
+
+  // Percorso lento: HALF_UP sulle cifre di Double.toString, come Formatter
+  static String fixedString(double v, int decimals, char sep) {
+    boolean neg = (Double.doubleToRawLongBits(v) < 0);
+    String s = new BigDecimal(Double.toString(Math.abs(v))).setScale(decimals, RoundingMode.HALF_UP).toPlainString();
+    if (sep != '.') s = s.replace('.', sep);
+    return neg ? "-" + s : s;
+  }
+
+  static int writeLong(byte[] buf, int pos, long v) {
+    if (v == Long.MIN_VALUE) return writeAscii(buf, pos, Long.toString(v));
+    if (v < 0) { buf[pos++] = '-'; v = -v; }
+    int start = pos;
+    do {
+      buf[pos++] = (byte) ('0' + (v % 10));
+      v /= 10;
+    } while (v != 0);
+    for (int i = start, j = pos - 1; i < j; i++, j--) {
+      byte t = buf[i]; buf[i] = buf[j]; buf[j] = t;
+    }
+    return pos;
+  }
+
+  private static int writeAscii(byte[] buf, int pos, String s) {
+    for (int i = 0; i < s.length(); i++) buf[pos++] = (byte) s.charAt(i);
+    return pos;
+  }
+
+  // Stessa formattazione su StringBuilder (file di testo scritti con Writer)
+  static StringBuilder appendFixed(StringBuilder sb, double v, int decimals, char sep) {
+    byte[] tmp = (decimals <= 32) ? SCRATCH.get() : new byte[32 + decimals];
+    int n = writeFixed(tmp, 0, v, decimals, (byte) sep);
+    if (n < 0) return sb.append(fixedString(v, decimals, sep));
+    for (int i = 0; i < n; i++) sb.append((char) tmp[i]);
+    return sb;
+  }
+}
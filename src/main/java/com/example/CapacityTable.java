@@ -0,0 +1,75 @@
+package com.example;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tabella di lookup della curva di capacità (capacity_curve.csv, Main capacity):
+ * per ogni Pool la probabilità di rejection a regime e sull'orizzonte.
+ * Usata come baseline dalla politica PoolController.Capacity.
+ */
+public final class CapacityTable {
+
+  final int[]    pool;
+  final double[] ssRejProb;
+  final double[] trRejProb;
+  final double[] ssIdle;
+
+  private CapacityTable(int[] pool, double[] ssRejProb, double[] trRejProb, double[] ssIdle) {
+    this.pool = pool;
+    this.ssRejProb = ssRejProb;
+    this.trRejProb = trRejProb;
+    this.ssIdle = ssIdle;
+  }
+
+  public static CapacityTable load(String file) throws IOException {
+    List<double[]> rows = new ArrayList<>();
+    try (BufferedReader br = new BufferedReader(new FileReader(file))) {
+      String line = br.readLine(); // header
+      while ((line = br.readLine()) != null) {
+        String[] s = line.trim().split(",");
+        if (s.length < 7) continue;
+        double[] r = new double[s.length];
+        for (int i = 0; i < s.length; i++) r[i] = Double.parseDouble(s[i]);
+        rows.add(r);
+      }
+    }
+    int n = rows.size();
+    int[] pool = new int[n];
+    double[] ss = new double[n], tr = new double[n], idle = new double[n];
+    for (int i = 0; i < n; i++) {
+      double[] r = rows.get(i);
+      pool[i] = (int) r[0];
+      ss[i]   = r[2];
+      idle[i] = r[4];
+      tr[i]   = r[5];
+    }
+    return new CapacityTable(pool, ss, tr, idle);
+  }
+
+  // Pool minimo con rejection a regime <= slo (ultima riga se nessuna basta)
+  public int minPoolSteady(double slo) {
+    for (int i = 0; i < pool.length; i++) if (ssRejProb[i] <= slo) return pool[i];
+    return pool[pool.length - 1];
+  }
+
+  // Pool minimo con rejection media sull'orizzonte <= slo
+  public int minPoolHorizon(double slo) {
+    for (int i = 0; i < pool.length; i++) if (trRejProb[i] <= slo) return pool[i];
+    return pool[pool.length - 1];
+  }
+
+  // Rejection media sull'orizzonte per Pool = p (NaN se fuori tabella)
+  public double rejectHorizon(int p) {
+    for (int i = 0; i < pool.length; i++) if (pool[i] == p) return trRejProb[i];
+    return Double.NaN;
+  }
+
+  public double idleSteady(int p) {
+    for (int i = 0; i < pool.length; i++) if (pool[i] == p) return ssIdle[i];
+    return Double.NaN;
+  }
+}
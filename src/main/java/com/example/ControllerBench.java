@@ -0,0 +1,141 @@
+package com.example;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import com.example.TimeseriesSimulator.Arrival;
+import com.example.TimeseriesSimulator.ControllerMemory;
+import com.example.TimeseriesSimulator.SimRun;
+
+/**
+ * Confronto testa a testa di politiche del controller (PoolController) sulla
+ * stessa trace di arrivi e con lo stesso seme: per ogni politica una run
+ * esatta di TimeseriesSimulator con modello nuovo e new Random(seme), senza
+ * debug né trace binaria, CSV in controller_bench/.
+ *
+ * Per politica: rejection complessiva, SLO per intervallo (quota degli
+ * intervalli di controllo con rejection <= SLO_REJECT), idle medio e costo
+ * per decisione in tempo CPU del thread (media, p50, p99). Le run sono in
+ * sequenza, così il tempo CPU non risente della contesa tra thread; prima di
+ * ogni run la politica (un'istanza a parte) fa WARMUP_ROUNDS decisioni sul
+ * primo orizzonte, per non misurare il JIT.
+ *
+ * Uso: ControllerBench [arrivi] [politiche] [seme]
+ *   politiche = lista separata da virgole di default | nofuture | custom:H:C
+ *               | ensemble:H:R (R traiettorie per candidato)
+ *               | capacity[:file] (baseline dalla curva di capacità, default capacity_curve.csv)
+ *               | classe PoolController
+ */
+public final class ControllerBench {
+
+  static final String OUT_DIR       = "controller_bench/";
+  static final String SUMMARY_FILE  = "controller_bench.csv";
+  static final String DEFAULT_SPECS = "default,nofuture,custom:5:5,ensemble:10:16";
+  static final String CAPACITY_FILE = "capacity_curve.csv";
+  static final int    WARMUP_ROUNDS = 200;
+
+  private ControllerBench() { }
+
+  /** Run pronta per la politica: spec come in SimCheckpoint.applySpec, più ensemble, capacity e classi. */
+  static SimRun runFor(String arrivalsPath, String spec, long seed) throws ReflectiveOperationException, IOException {
+    ModelOris2_fase4.GspnModel model = ModelTemplate.fase4().instance();
+    TimeseriesSimulator.disableAutomaticArrivals(model);
+    SimRun r = new SimRun(arrivalsPath, TimeseriesSimulator.Mode.DEFAULT,
+        TimeseriesSimulator.HORIZON_SEC, TimeseriesSimulator.CONTROL_SEC, model, new Random(seed));
+    String[] f = spec.split(":");
+    switch (f[0].toLowerCase(Locale.ROOT)) {
+      case "default", "nofuture", "custom" -> SimCheckpoint.applySpec(r, spec);
+      case "ensemble" -> {
+        if (f.length != 3) throw new IllegalArgumentException("Spec ensemble attesa come ensemble:H:R: " + spec);
+        double h = Double.parseDouble(f[1]);
+        int reps = Integer.parseInt(f[2]);
+        if (!(h > 0 && reps > 0)) throw new IllegalArgumentException("Orizzonte e repliche devono essere > 0: " + spec);
+        r.controller = new PoolController.Ensemble(h, reps, seed);
+      }
+      case "capacity" -> r.controller = new PoolController.Capacity(f.length > 1 ? f[1] : CAPACITY_FILE);
+      default -> r.controller = PoolController.load(spec);
+    }
+    r.outDir = OUT_DIR;
+    r.debugOn = false;
+    r.traceOn = false;
+    r.digestOn = false;
+    r.quiet = true;
+    r.cpuTiming = true;
+    return r;
+  }
+
+  /** Decisioni a vuoto sullo stato iniziale con gli arrivi del primo orizzonte. */
+  static void warmUp(SimRun r, int rounds) throws Exception {
+    PoolController policy = r.controller();
+    List<Arrival> first;
+    try (ArrivalSource src = ArrivalSource.open(r.arrivalsPath)) {
+      ArrivalSource.LookAhead ahead = new ArrivalSource.LookAhead(src);
+      Arrival a = ahead.peek();
+      if (a == null) return;
+      first = ahead.window(a.time, a.time + Math.max(r.horizonSec, TimeseriesSimulator.HORIZON_SEC));
+    }
+    final List<Arrival> view = Collections.unmodifiableList(first);
+    PoolController.State s = PoolController.State.of(r.model, first.get(0).time);
+    Random rng = new Random(0);
+    ControllerMemory mem = new ControllerMemory();
+    for (int k = 0; k < rounds; k++) policy.target(s, sec -> view, rng, mem);
+  }
+
+  static double percentileUs(long[] ns, int n, double q) {
+    if (n == 0) return Double.NaN;
+    long[] sorted = Arrays.copyOf(ns, n);
+    Arrays.sort(sorted);
+    return sorted[Math.min(n - 1, (int) Math.ceil(q * n) - 1)] / 1000.0;
+  }
+
+  public static void main(String[] args) throws Exception {
+    String arrivalsPath = (args.length > 0) ? args[0] : "arrivals.csv";
+    String specs        = (args.length > 1) ? args[1] : DEFAULT_SPECS;
+    long seed           = (args.length > 2) ? Long.parseLong(args[2]) : 777L;
+
+    Files.createDirectories(Path.of(OUT_DIR));
+    List<String> rows = new ArrayList<>();
+    System.out.printf(Locale.US, "%-22s %10s %8s %8s %9s %10s %10s %10s%n",
+        "politica", "rej_rate", "slo_int", "idle", "decisioni", "cpu_us", "p50_us", "p99_us");
+
+    for (String spec : specs.split(",")) {
+      spec = spec.trim();
+      if (spec.isEmpty()) continue;
+      warmUp(runFor(arrivalsPath, spec, seed), WARMUP_ROUNDS);
+
+      SimRun r = runFor(arrivalsPath, spec, seed);
+      long wall = System.nanoTime();
+      if (!TimeseriesSimulator.simulate(r)) {
+        System.out.println("[errore] nessun arrivo in " + arrivalsPath);
+        return;
+      }
+      double wallSec = (System.nanoTime() - wall) / 1e9;
+
+      long cpuSum = 0;
+      for (int k = 0; k < r.decisions; k++) cpuSum += r.decisionCpuNs[k];
+      double cpuMean = (r.decisions > 0) ? cpuSum / 1000.0 / r.decisions : Double.NaN;
+      double p50 = percentileUs(r.decisionCpuNs, r.decisions, 0.50);
+      double p99 = percentileUs(r.decisionCpuNs, r.decisions, 0.99);
+      double slo = (r.intervalsTotal > 0) ? (double) r.intervalsMet / r.intervalsTotal : Double.NaN;
+      String name = r.tag();
+
+      System.out.printf(Locale.US, "%-22s %10.6f %8.4f %8.3f %9d %10.1f %10.1f %10.1f%n",
+          name, r.rejRate, slo, r.idleMean, r.decisions, cpuMean, p50, p99);
+      rows.add(String.format(Locale.US, "%s,%.6f,%.4f,%.3f,%d,%.1f,%.1f,%.1f,%.3f",
+          name, r.rejRate, slo, r.idleMean, r.decisions, cpuMean, p50, p99, wallSec));
+    }
+
+    try (AsyncCsvWriter csv = new AsyncCsvWriter(SUMMARY_FILE)) {
+      csv.line("policy,rejection_rate,slo_attainment,idle_mean,decisions,cpu_mean_us,cpu_p50_us,cpu_p99_us,wall_s");
+      for (String row : rows) csv.line(row);
+    }
+    System.out.println("CSV scritto: " + SUMMARY_FILE + " (run in " + OUT_DIR + ")");
+  }
+}
@@ -0,0 +1,485 @@
+package com.example;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.example.TimeseriesSimulator.Arrival;
+
+/**
+ * Controller in tempo reale su un flusso di arrivi live.
+ *
+ * serve: legge righe "t,cls" da socket locale (127.0.0.1:porta) o da named pipe,
+ * una connessione per virtual thread. Gli arrivi passano per una coda limitata
+ * ad un unico thread controller che possiede modello e stimatore: avanza
+ * ModelOris2_fase4 fino all'arrivo, lo inietta e aggiorna SlidingRateEstimator.
+ * Ad ogni periodo di controllo (tempo del flusso: ancorato al primo arrivo e
+ * fatto scorrere con l'orologio di sistema x speed) prevede gli arrivi
+ * dell'orizzonte dai rate stimati, sceglie il totale minimo come il simulatore
+ * e pubblica la decisione su stdout, in service_decisions.csv e ai client
+ * socket ("decision,t,pool,target"; coda per client limitata, mai bloccante).
+ *
+ * replay: client di prova, spinge una sorgente di arrivi (arrivals.csv, .bin,
+ * gen[:durata[:seed]]) alla velocità reale o accelerata e stampa le decisioni.
+ *
+ * Uso: ControllerService serve  <porta|fifo> [speed] [controlSec] [horizonSec] [metricsPort] [once]
+ *      ControllerService replay [arrivi] [porta|fifo] [speed|max]
+ *
+ * Con "once" il servizio termina quando si chiude l'ultimo ingresso.
+ */
+public final class ControllerService {
+
+  static final String DECISIONS_FILE = "service_decisions.csv";
+  static final int    DEFAULT_PORT   = 7070;
+  static final int    INBOX          = 1 << 14;  // arrivi in attesa del controller
+  static final int    OUTBOX         = 64;       // decisioni in attesa per client
+  static final long   IDLE_WAIT_NS   = 100_000_000L;
+  static final int    WARMUP_ROUNDS  = 200;
+
+  private static final Arrival END = new Arrival(Double.NaN, 0);
+
+  // configurazione
+  final double speed, controlSec, horizonSec;
+  final boolean once;
+
+  // ingressi -> controller
+  private final BlockingQueue<Arrival> inbox = new ArrayBlockingQueue<>(INBOX);
+  private final Set<Client> clients = ConcurrentHashMap.newKeySet();
+  private final AtomicInteger openInputs = new AtomicInteger();
+  private final AtomicLong malformed = new AtomicLong();
+  private volatile boolean controllerDone;
+
+  // stato del controller (solo thread controller)
+  private final ModelOris2_fase4.GspnModel model = ModelTemplate.fase4().instance();
+  private final Random rng = new Random(777);
+  private final Random forecastRng = new Random(778);
+  private final SlidingRateEstimator est;
+  private final TimeseriesSimulator.ControllerMemory mem = new TimeseriesSimulator.ControllerMemory();
+  final SimMetrics metrics = new SimMetrics(model.classes);
+  private boolean anchored;
+  private double  streamT0;
+  private long    wallT0;
+  private double  clock, nextControl, idleSum, simTime;
+  private long    arrivals, rejections, late, decisions;
+  private int     intervalArr, intervalRej;
+  private long    maxLagNs;
+
+  ControllerService(double speed, double controlSec, double horizonSec, boolean once) {
+    this.speed = speed;
+    this.controlSec = controlSec;
+    this.horizonSec = horizonSec;
+    this.once = once;
+    this.est = new SlidingRateEstimator(TimeseriesSimulator.WINDOW_SEC, controlSec, model.classes);
+    TimeseriesSimulator.disableAutomaticArrivals(model);
+  }
+
+  /**
+   * Decisioni a vuoto prima di aprire gli ingressi (classi, JIT): la prima
+   * decisione reale ha già la latenza di regime. Modello e RNG della run
+   * non vengono toccati.
+   */
+  void warmUp(int rounds) {
+    Random wr = new Random(1);
+    TimeseriesSimulator.ControllerMemory wm = new TimeseriesSimulator.ControllerMemory();
+    double[] l = new double[model.classes];
+    Arrays.fill(l, 1.0);
+    l[l.length - 1] = 2.0;
+    SlidingRateEstimator.Rates busy = new SlidingRateEstimator.Rates(l);
+    for (int k = 0; k < rounds; k++) {
+      TimeseriesSimulator.chooseMinReplicas(model, 0.0, forecast(busy, 0.0, horizonSec, wr), wr, wm);
+    }
+  }
+
+  // ---------- Tempo del flusso ----------
+
+  private double streamNow() {
+    return streamT0 + (System.nanoTime() - wallT0) / 1e9 * speed;
+  }
+
+  private long wallAt(double t) {
+    return wallT0 + (long) ((t - streamT0) / speed * 1e9);
+  }
+
+  // ---------- Thread controller ----------
+
+  void runController() throws Exception {
+    try (AsyncCsvWriter out = new AsyncCsvWriter(DECISIONS_FILE)) {
+      StringBuilder header = new StringBuilder("t,pool,busy,target");
+      for (int c = 1; c <= model.classes; c++) header.append(",lambda").append(c);
+      out.line(header.append(",forecast_n,pred_rej,arrivals,rejections,decision_us,lag_ms").toString());
+      boolean running = true;
+      while (running) {
+        long wait = anchored ? Math.max(0L, wallAt(nextControl) - System.nanoTime()) : IDLE_WAIT_NS;
+        Arrival a = inbox.poll(wait, TimeUnit.NANOSECONDS);
+        while (a != null) {
+          if (a == END) { running = false; break; }
+          onArrival(a, out);
+          a = inbox.poll();
+        }
+        if (anchored) {
+          double now = streamNow();
+          while (nextControl <= now) tick(out);
+        }
+      }
+    }
+    summary();
+  }
+
+  private void onArrival(Arrival a, AsyncCsvWriter out) {
+    if (!anchored) {
+      anchored    = true;
+      streamT0    = a.time;
+      wallT0      = System.nanoTime();
+      clock       = a.time;
+      nextControl = TimeseriesSimulator.ceilToStep(clock, controlSec);
+    }
+    double t = a.time;
+    if (t < clock) { late++; t = clock; } // arrivo fuori ordine/in ritardo: iniettato adesso
+
+    // controlli scaduti prima dell'arrivo (flusso più veloce dell'orologio)
+    while (nextControl <= t) tick(out);
+
+    advance(t);
+    int phase = TimeseriesSimulator.injectRequest(model, a.cls, rng);
+    est.add(t, a.cls);
+    arrivals++;
+    intervalArr++;
+    if (phase == 0) { rejections++; intervalRej++; }
+    metrics.arrival(a.cls, phase > 0);
+    metrics.gauges(model.marking.getTokens(model.pool), TimeseriesSimulator.countBusy(model));
+  }
+
+  private void advance(double t1) {
+    TimeseriesSimulator.Step s =
+        TimeseriesSimulator.advanceModelAndIntegrateIdle(model, rng, clock, t1, null, false, null, metrics);
+    idleSum += s.idleArea;
+    simTime += s.dt;
+    clock = t1;
+  }
+
+  private void tick(AsyncCsvWriter out) {
+    long due = wallAt(nextControl);
+    long start = System.nanoTime();
+    advance(nextControl);
+
+    SlidingRateEstimator.Rates r = est.estimateRatesAt(nextControl);
+    List<Arrival> future = forecast(r, nextControl, horizonSec, forecastRng);
+    int target = TimeseriesSimulator.chooseMinReplicas(model, nextControl, future, rng, mem);
+
+    int busy = TimeseriesSimulator.countBusy(model);
+    int pool = Math.max(TimeseriesSimulator.POOL_MIN,
+        Math.min(TimeseriesSimulator.POOL_MAX, Math.max(0, target - busy)));
+    TimeseriesSimulator.setTokens(model, "Pool", pool);
+
+    long end = System.nanoTime();
+    long lag = Math.max(0L, start - due);
+    maxLagNs = Math.max(maxLagNs, lag);
+    metrics.decision(end - start, mem.lastCandidates);
+    metrics.gauges(pool, busy);
+    decisions++;
+
+    out.num(nextControl, 3).ch(',').num(pool).ch(',').num(busy).ch(',').num(target).ch(',');
+    for (double l : r.lambda) out.num(l, 4).ch(',');
+    out.num(future.size()).ch(',').num(mem.lastPredReject, 6).ch(',')
+       .num(intervalArr).ch(',').num(intervalRej).ch(',')
+       .num((end - start) / 1000L).ch(',').num(lag / 1e6, 3).endRow();
+    StringBuilder rates = new StringBuilder();
+    for (double l : r.lambda) rates.append(rates.length() > 0 ? "/" : "").append(String.format(Locale.US, "%.3f", l));
+    System.out.printf(Locale.US,
+        "[decision] t=%.3f  Pool=%d  busy=%d  target=%d  rates=%s  arr=%d rej=%d  %d us%n",
+        nextControl, pool, busy, target, rates, intervalArr, intervalRej, (end - start) / 1000L);
+
+    String line = String.format(Locale.US, "decision,%.3f,%d,%d", nextControl, pool, target);
+    for (Client c : clients) c.offer(line);
+
+    intervalArr = 0;
+    intervalRej = 0;
+    nextControl += controlSec;
+  }
+
+  /** Arrivi Poisson sull'orizzonte [from, from+horizon) con i rate stimati. */
+  static List<Arrival> forecast(SlidingRateEstimator.Rates r, double from, double horizon, Random rng) {
+    List<Arrival> out = new ArrayList<>();
+    double tot = r.total();
+    if (!(tot > 0.0)) return out;
+    double end = from + horizon;
+    for (double t = from + TimeseriesSimulator.drawExp(tot, rng); t < end; t += TimeseriesSimulator.drawExp(tot, rng)) {
+      double u = rng.nextDouble() * tot;
+      int cls = r.classes();
+      double cum = 0.0;
+      for (int c = 1; c < r.classes(); c++) {
+        cum += r.of(c);
+        if (u < cum) { cls = c; break; }
+      }
+      out.add(new Arrival(t, cls));
+    }
+    return out;
+  }
+
+  private void summary() {
+    SimMetrics.View v = metrics.view();
+    System.out.println();
+    System.out.println("== SERVIZIO TERMINATO ==");
+    System.out.println("Arrivi:            " + arrivals + " (fuori ordine: " + late + ", righe scartate: " + malformed.get() + ")");
+    System.out.println("Rejection:         " + rejections + String.format(Locale.US, " (rate %.6f)",
+        (arrivals > 0) ? (double) rejections / arrivals : 0.0));
+    System.out.println("Idle medio (Pool): " + String.format(Locale.US, "%.3f", (simTime > 0) ? idleSum / simTime : 0.0));
+    System.out.println("Decisioni:         " + decisions + String.format(Locale.US,
+        " | latenza media %.0f us, p99 %.0f us | ritardo max %.3f ms",
+        v.getDecisionLatencyMeanMicros(), v.getDecisionLatencyP99Micros(), maxLagNs / 1e6));
+    System.out.println("Scartate (client): " + v.getDecisionsDropped() + " decisioni non consegnate (coda piena)");
+    System.out.println("CSV decisioni:     " + DECISIONS_FILE);
+  }
+
+  // ---------- Ingressi ----------
+
+  private void inputOpened() { openInputs.incrementAndGet(); }
+
+  private void inputClosed() {
+    if (openInputs.decrementAndGet() == 0 && once) {
+      try { inbox.put(END); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+    }
+  }
+
+  /** Legge righe "t,cls" e le accoda al controller (bloccante se la coda è piena). */
+  private void pump(BufferedReader in) throws IOException, InterruptedException {
+    for (String line; (line = in.readLine()) != null; ) {
+      line = line.trim();
+      if (line.isEmpty() || line.startsWith("#") || line.startsWith("t")) continue;
+      int comma = line.indexOf(',');
+      try {
+        double t = Double.parseDouble(line.substring(0, comma).trim());
+        int cls = Integer.parseInt(line.substring(comma + 1).trim());
+        if (cls < 1 || cls > model.classes || !Double.isFinite(t)) throw new NumberFormatException(line);
+        inbox.put(new Arrival(t, cls));
+      } catch (RuntimeException e) {
+        if (malformed.incrementAndGet() <= 5) System.err.println("[warn] riga ignorata: " + line);
+      }
+    }
+  }
+
+  void serveSocket(int port) throws IOException {
+    try (ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+      System.out.println("[info] in ascolto su 127.0.0.1:" + server.getLocalPort());
+      while (!controllerDone) {
+        Socket s;
+        try {
+          server.setSoTimeout(200);
+          s = server.accept();
+        } catch (java.net.SocketTimeoutException e) {
+          continue;
+        }
+        inputOpened();
+        Thread.ofVirtual().name("conn-" + s.getPort()).start(() -> handle(s));
+      }
+    }
+  }
+
+  private void handle(Socket s) {
+    Client c = new Client(s, metrics);
+    clients.add(c);
+    try (s; BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.US_ASCII))) {
+      pump(in);
+    } catch (IOException e) {
+      System.err.println("[warn] connessione " + s.getRemoteSocketAddress() + ": " + e.getMessage());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      clients.remove(c);
+      c.writer.interrupt();
+      if (c.dropped > 0)
+        System.err.println("[warn] connessione " + s.getRemoteSocketAddress() + ": " + c.dropped + " decisioni scartate (client lento)");
+      inputClosed();
+    }
+  }
+
+  /** Named pipe (o file): alla fine di ogni scrittore la FIFO viene riaperta. */
+  void servePipe(Path fifo) throws Exception {
+    System.out.println("[info] lettura da " + fifo);
+    inputOpened();
+    Thread reader = Thread.ofVirtual().name("pipe-" + fifo.getFileName()).start(() -> {
+      try {
+        do {
+          try (BufferedReader in = Files.newBufferedReader(fifo, StandardCharsets.US_ASCII)) {
+            pump(in);
+          }
+        } while (!once && !Files.isRegularFile(fifo));
+      } catch (IOException e) {
+        System.err.println("[warn] pipe " + fifo + ": " + e.getMessage());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        inputClosed();
+      }
+    });
+    reader.join();
+  }
+
+  /** Uscita verso un client socket: coda limitata, le decisioni in eccesso sono scartate. */
+  private static final class Client {
+    final BlockingQueue<String> outbox = new ArrayBlockingQueue<>(OUTBOX);
+    final Thread writer;
+    final SimMetrics metrics;
+    volatile long dropped; // scritto solo dal thread del controller
+
+    Client(Socket s, SimMetrics metrics) {
+      this.metrics = metrics;
+      writer = Thread.ofVirtual().name("out-" + s.getPort()).start(() -> {
+        try (Writer w = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.US_ASCII))) {
+          while (true) {
+            w.write(outbox.take());
+            w.write('\n');
+            if (outbox.isEmpty()) w.flush();
+          }
+        } catch (IOException | InterruptedException e) {
+          // connessione chiusa
+        }
+      });
+    }
+
+    void offer(String line) {
+      if (!outbox.offer(line)) {
+        dropped++;
+        metrics.dropped();
+      }
+    }
+  }
+
+  // ---------- Client di replay ----------
+
+  static void replay(String spec, String target, double speed) throws Exception {
+    long sent = 0;
+    AtomicLong received = new AtomicLong();
+    Socket socket = null;
+    Thread listener = null;
+    Writer w;
+    if (isPort(target)) {
+      socket = new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(target));
+      Socket s = socket;
+      listener = Thread.ofVirtual().name("replay-decisions").start(() -> {
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.US_ASCII))) {
+          for (String line; (line = in.readLine()) != null; ) {
+            received.incrementAndGet();
+            System.out.println("[replay] " + line);
+          }
+        } catch (IOException e) {
+          // chiusura
+        }
+      });
+      w = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.US_ASCII));
+    } else {
+      w = Files.newBufferedWriter(Path.of(target), StandardCharsets.US_ASCII);
+    }
+
+    long wall0 = System.nanoTime();
+    double t0 = Double.NaN;
+    try (ArrivalSource src = ArrivalSource.open(spec)) {
+      for (Arrival a; (a = src.next()) != null; ) {
+        if (Double.isNaN(t0)) t0 = a.time;
+        if (speed > 0) {
+          long wait = wall0 + (long) ((a.time - t0) / speed * 1e9) - System.nanoTime();
+          if (wait > 0) {
+            w.flush();
+            LockSupport.parkNanos(wait);
+          }
+        }
+        w.write(AsyncCsvWriter.fixedString(a.time, 6, '.'));
+        w.write(',');
+        w.write(Integer.toString(a.cls));
+        w.write('\n');
+        sent++;
+      }
+      w.flush();
+    } finally {
+      if (socket != null) socket.shutdownOutput(); else w.close();
+    }
+    if (listener != null) {
+      listener.join();
+      socket.close();
+    }
+    System.out.printf(Locale.US, "[replay] inviati %d arrivi in %.2f s, decisioni ricevute: %d%n",
+        sent, (System.nanoTime() - wall0) / 1e9, received.get());
+  }
+
+  private static boolean isPort(String s) {
+    return !s.isEmpty() && s.chars().allMatch(Character::isDigit);
+  }
+
+  // ---------- CLI ----------
+
+  public static void main(String[] args) throws Exception {
+    String cmd = (args.length > 0) ? args[0] : "serve";
+    if (cmd.equals("replay")) {
+      String spec   = (args.length > 1) ? args[1] : "arrivals.csv";
+      String target = (args.length > 2) ? args[2] : String.valueOf(DEFAULT_PORT);
+      double speed  = (args.length > 3) ? (args[3].equalsIgnoreCase("max") ? 0.0 : Double.parseDouble(args[3])) : 1.0;
+      replay(spec, target, speed);
+      return;
+    }
+    if (!cmd.equals("serve")) {
+      System.err.println("Uso: ControllerService serve <porta|fifo> [speed] [controlSec] [horizonSec] [metricsPort] [once]");
+      System.err.println("     ControllerService replay [arrivi] [porta|fifo] [speed|max]");
+      System.exit(2);
+    }
+
+    List<String> a = new ArrayList<>(List.of(args).subList(1, args.length));
+    boolean once = a.remove("once");
+    String input      = (a.size() > 0) ? a.get(0) : String.valueOf(DEFAULT_PORT);
+    double speed      = (a.size() > 1) ? Double.parseDouble(a.get(1)) : 1.0;
+    double controlSec = (a.size() > 2) ? Double.parseDouble(a.get(2)) : TimeseriesSimulator.CONTROL_SEC;
+    double horizonSec = (a.size() > 3) ? Double.parseDouble(a.get(3)) : TimeseriesSimulator.HORIZON_SEC;
+    int metricsPort   = (a.size() > 4) ? Integer.parseInt(a.get(4)) : 0;
+    if (!(speed > 0 && controlSec > 0 && horizonSec > 0)) {
+      System.err.println("[errore] speed, periodo e orizzonte devono essere > 0");
+      System.exit(2);
+    }
+
+    ControllerService svc = new ControllerService(speed, controlSec, horizonSec, once);
+    svc.warmUp(WARMUP_ROUNDS);
+    System.out.printf(Locale.US, "[info] controller: periodo=%.3f s, orizzonte=%.3f s, speed=x%.2f%s%n",
+        controlSec, horizonSec, speed, once ? ", termina a fine ingresso" : "");
+    svc.metrics.registerJmx();
+    if (metricsPort > 0 && svc.metrics.startHttp(metricsPort))
+      System.out.println("[info] metriche: http://127.0.0.1:" + metricsPort + "/metrics");
+
+    Thread controller = new Thread(() -> {
+      try {
+        svc.runController();
+      } catch (Exception e) {
+        System.err.println("[warn] controller interrotto: " + e);
+      } finally {
+        svc.controllerDone = true;
+      }
+    }, "controller");
+    controller.start();
+    try {
+      if (isPort(input)) svc.serveSocket(Integer.parseInt(input));
+      else               svc.servePipe(Path.of(input));
+      controller.join();
+    } finally {
+      svc.metrics.stopHttp();
+    }
+  }
+}
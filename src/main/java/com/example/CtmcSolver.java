@@ -0,0 +1,176 @@
+package com.example;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Solutori CTMC sullo StateSpace prodotto da ReachabilityExplorer:
+ * - steadyState: Gauss-Seidel su pi*Q = 0 (fallback: potenze sulla catena uniformizzata)
+ * - transientRewards: uniformizzazione a passi sulla griglia 0..tEnd
+ *
+ * Il prodotto vettore-matrice è "pull" sulla trasposta, parallelo sopra PARALLEL_MIN stati.
+ */
+public final class CtmcSolver {
+
+  static final double STEADY_TOL   = 1e-12;
+  static final int    STEADY_ITERS = 100_000;
+  static final double POISSON_EPS  = 1e-12;
+  static final int    PARALLEL_MIN = 50_000;
+
+  private CtmcSolver() {}
+
+  // ---------- Stazionario ----------
+
+  public static double[] steadyState(StateSpace ss) {
+    int n = ss.n;
+    Transposed tr = Transposed.of(ss);
+
+    boolean absorbing = false;
+    for (int s = 0; s < n; s++) if (ss.exit[s] <= 0.0) { absorbing = true; break; }
+    if (absorbing) return steadyStatePower(ss, tr);
+
+    double[] pi = new double[n];
+    Arrays.fill(pi, 1.0 / n);
+    for (int it = 0; it < STEADY_ITERS; it++) {
+      double diff = 0.0, sum = 0.0;
+      for (int j = 0; j < n; j++) {
+        double in = 0.0;
+        for (int k = tr.ptr[j]; k < tr.ptr[j + 1]; k++) in += pi[tr.src[k]] * tr.val[k];
+        double v = in / ss.exit[j];
+        diff += Math.abs(v - pi[j]);
+        pi[j] = v;
+        sum += v;
+      }
+      for (int j = 0; j < n; j++) pi[j] /= sum;
+      if (diff / sum < STEADY_TOL) break;
+    }
+    return pi;
+  }
+
+  private static double[] steadyStatePower(StateSpace ss, Transposed tr) {
+    double lambda = uniformizationRate(ss);
+    double[] pi = ss.initialDistribution();
+    double[] next = new double[ss.n];
+    for (int it = 0; it < STEADY_ITERS; it++) {
+      multiply(ss, tr, lambda, pi, next);
+      double diff = 0.0;
+      for (int j = 0; j < ss.n; j++) diff += Math.abs(next[j] - pi[j]);
+      double[] t = pi; pi = next; next = t;
+      if (diff < STEADY_TOL) break;
+    }
+    return pi;
+  }
+
+  // ---------- Transitorio ----------
+
+  /**
+   * Reward attesi sulla griglia t = 0, step, 2*step, ..., tEnd.
+   * @return matrice [punto temporale][reward]
+   */
+  public static double[][] transientRewards(StateSpace ss, double tEnd, double step, double[]... rewards) {
+    int points = (int) Math.round(tEnd / step) + 1;
+    double[][] out = new double[points][rewards.length];
+    Transposed tr = Transposed.of(ss);
+    double lambda = uniformizationRate(ss);
+
+    double[] p = ss.initialDistribution();
+    for (int i = 0; i < points; i++) {
+      if (i > 0) p = advance(ss, tr, lambda, p, step);
+      for (int r = 0; r < rewards.length; r++) out[i][r] = expected(p, rewards[r]);
+    }
+    return out;
+  }
+
+  // Distribuzione dopo dt a partire da p (uniformizzazione, eventualmente a sottopassi)
+  static double[] advance(StateSpace ss, Transposed tr, double lambda, double[] p, double dt) {
+    if (lambda <= 0.0 || dt <= 0.0) return p;
+    int sub = (int) Math.ceil(lambda * dt / 200.0);
+    double h = dt / sub;
+    double[] cur = p;
+    for (int k = 0; k < sub; k++) cur = uniformize(ss, tr, lambda, cur, h);
+    return cur;
+  }
+
+  private static double[] uniformize(StateSpace ss, Transposed tr, double lambda, double[] p, double dt) {
+    int n = ss.n;
+    double lt = lambda * dt;
+    double weight = Math.exp(-lt);
+    double cum = weight;
+    double[] acc = new double[n];
+    double[] v = p.clone();
+    double[] next = new double[n];
+    for (int j = 0; j < n; j++) acc[j] = weight * v[j];
+    for (int k = 1; cum < 1.0 - POISSON_EPS && k < 100_000; k++) {
+      multiply(ss, tr, lambda, v, next);
+      double[] t = v; v = next; next = t;
+      weight *= lt / k;
+      cum += weight;
+      for (int j = 0; j < n; j++) acc[j] += weight * v[j];
+    }
+    // rinormalizzo la massa troncata
+    double s = 0.0;
+    for (double x : acc) s += x;
+    if (s > 0.0) for (int j = 0; j < n; j++) acc[j] /= s;
+    return acc;
+  }
+
+  // next = v * P,  P = I + Q/lambda
+  private static void multiply(StateSpace ss, Transposed tr, double lambda, double[] v, double[] next) {
+    int n = ss.n;
+    if (n >= PARALLEL_MIN) {
+      IntStream.range(0, n).parallel().forEach(j -> next[j] = pull(ss, tr, lambda, v, j));
+    } else {
+      for (int j = 0; j < n; j++) next[j] = pull(ss, tr, lambda, v, j);
+    }
+  }
+
+  private static double pull(StateSpace ss, Transposed tr, double lambda, double[] v, int j) {
+    double x = v[j] * (1.0 - ss.exit[j] / lambda);
+    for (int k = tr.ptr[j]; k < tr.ptr[j + 1]; k++) x += v[tr.src[k]] * tr.val[k] / lambda;
+    return x;
+  }
+
+  static double uniformizationRate(StateSpace ss) {
+    double max = 0.0;
+    for (double e : ss.exit) max = Math.max(max, e);
+    return max * 1.02;
+  }
+
+  // ---------- Reward ----------
+
+  public static double expected(double[] p, double[] reward) {
+    double s = 0.0;
+    for (int i = 0; i < p.length; i++) s += p[i] * reward[i];
+    return s;
+  }
+
+  // ---------- Trasposta (archi entranti per stato) ----------
+
+  static final class Transposed {
+    final int[]    ptr;
+    final int[]    src;
+    final double[] val;
+
+    private Transposed(int[] ptr, int[] src, double[] val) {
+      this.ptr = ptr; this.src = src; this.val = val;
+    }
+
+    static Transposed of(StateSpace ss) {
+      int n = ss.n, nnz = ss.nonZeros();
+      int[] ptr = new int[n + 1];
+      for (int k = 0; k < nnz; k++) ptr[ss.col[k] + 1]++;
+      for (int j = 0; j < n; j++) ptr[j + 1] += ptr[j];
+      int[] fill = ptr.clone();
+      int[] src = new int[nnz];
+      double[] val = new double[nnz];
+      for (int i = 0; i < n; i++) {
+        for (int k = ss.rowPtr[i]; k < ss.rowPtr[i + 1]; k++) {
+          int pos = fill[ss.col[k]]++;
+          src[pos] = i;
+          val[pos] = ss.val[k];
+        }
+      }
+      return new Transposed(ptr, src, val);
+    }
+  }
+}
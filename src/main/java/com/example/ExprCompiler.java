@@ -0,0 +1,375 @@
+package com.example;
+
+import java.util.Map;
+
+/**
+ * Compila il testo di MarkingExpr / EnablingFunction (sintassi Sirio) in
+ * valutatori sulla marcatura indicizzata int[]:
+ * - aritmetica + - * /, confronti, && || !, parentesi, If/Min/Max/Abs/...
+ * - i posti variabili diventano letture m[p], quelli ripiegati costanti
+ * - i sottoalberi costanti sono calcolati una volta sola
+ * - le forme più frequenti nei modelli (k*P/D, P/D, P>c, g1 && g2) diventano
+ *   una sola lambda, senza dispatch sui nodi figli
+ *
+ * L'ordine delle operazioni è quello del testo, quindi i valori coincidono
+ * con quelli della valutazione Sirio. Se il testo contiene qualcosa di non
+ * riconosciuto compile() restituisce null e il chiamante usa MarkingExpr.
+ */
+public final class ExprCompiler {
+
+  private final String s;
+  private final Map<String, Integer> places;  // nome -> indice in int[]
+  private final Map<String, Integer> consts;  // nome -> valore ripiegato
+  private int i;
+
+  private ExprCompiler(String s, Map<String, Integer> places, Map<String, Integer> consts) {
+    this.s = s;
+    this.places = places;
+    this.consts = consts;
+  }
+
+  /** Funzione della marcatura (rate, peso, reward), null se il testo non è compilabile. */
+  public static IndexedNet.MarkingFn compile(String text, double factor,
+                                             Map<String, Integer> places, Map<String, Integer> consts) {
+    Node n = parse(text, places, consts);
+    if (n == null) return null;
+    if (factor != 1.0) n = fold(new Bin(Op.MUL, new Const(factor), n));
+    return n.fn();
+  }
+
+  /** Predicato sulla marcatura (enabling function), null se il testo non è compilabile. */
+  public static IndexedNet.MarkingPred compilePredicate(String text,
+                                                        Map<String, Integer> places, Map<String, Integer> consts) {
+    Node n = parse(text, places, consts);
+    return (n == null) ? null : n.pred();
+  }
+
+  static Node parse(String text, Map<String, Integer> places, Map<String, Integer> consts) {
+    if (text == null) return null;
+    ExprCompiler c = new ExprCompiler(text, places, consts);
+    try {
+      Node n = c.or();
+      c.ws();
+      return (c.i == c.s.length()) ? n : null;
+    } catch (RuntimeException e) {
+      return null; // sintassi non gestita: valutazione Sirio
+    }
+  }
+
+  // ---------- Parser (discesa ricorsiva) ----------
+
+  private void ws() {
+    while (i < s.length() && Character.isWhitespace(s.charAt(i))) i++;
+  }
+
+  private boolean eat(String tok) {
+    ws();
+    if (!s.startsWith(tok, i)) return false;
+    i += tok.length();
+    return true;
+  }
+
+  private Node or() {
+    Node a = and();
+    while (eat("||")) a = fold(new Bin(Op.OR, a, and()));
+    return a;
+  }
+
+  private Node and() {
+    Node a = cmp();
+    while (eat("&&")) a = fold(new Bin(Op.AND, a, cmp()));
+    return a;
+  }
+
+  private Node cmp() {
+    Node a = add();
+    while (true) {
+      if      (eat("==")) a = fold(new Bin(Op.EQ, a, add()));
+      else if (eat("!=")) a = fold(new Bin(Op.NE, a, add()));
+      else if (eat(">=")) a = fold(new Bin(Op.GE, a, add()));
+      else if (eat("<=")) a = fold(new Bin(Op.LE, a, add()));
+      else if (eat(">"))  a = fold(new Bin(Op.GT, a, add()));
+      else if (eat("<"))  a = fold(new Bin(Op.LT, a, add()));
+      else if (eat("="))  a = fold(new Bin(Op.EQ, a, add()));
+      else return a;
+    }
+  }
+
+  private Node add() {
+    Node a = mul();
+    while (true) {
+      if      (eat("+")) a = fold(new Bin(Op.ADD, a, mul()));
+      else if (eat("-")) a = fold(new Bin(Op.SUB, a, mul()));
+      else return a;
+    }
+  }
+
+  private Node mul() {
+    Node a = unary();
+    while (true) {
+      if      (eat("*")) a = fold(new Bin(Op.MUL, a, unary()));
+      else if (eat("/")) a = fold(new Bin(Op.DIV, a, unary()));
+      else return a;
+    }
+  }
+
+  private Node unary() {
+    if (eat("-")) return fold(new Un(Fn.NEG, unary()));
+    if (eat("!")) return fold(new Un(Fn.NOT, unary()));
+    if (eat("+")) return unary();
+    return primary();
+  }
+
+  private Node primary() {
+    if (eat("(")) {
+      Node n = or();
+      expect(")");
+      return n;
+    }
+    ws();
+    int start = i;
+    char c = s.charAt(i);
+    if (Character.isDigit(c) || c == '.') {
+      while (i < s.length() && (Character.isDigit(s.charAt(i)) || s.charAt(i) == '.')) i++;
+      if (i < s.length() && (s.charAt(i) == 'e' || s.charAt(i) == 'E')) {
+        int j = i + 1;
+        if (j < s.length() && (s.charAt(j) == '+' || s.charAt(j) == '-')) j++;
+        if (j < s.length() && Character.isDigit(s.charAt(j))) {
+          i = j;
+          while (i < s.length() && Character.isDigit(s.charAt(i))) i++;
+        }
+      }
+      return new Const(Double.parseDouble(s.substring(start, i)));
+    }
+    if (!Character.isLetter(c) && c != '_') throw new IllegalArgumentException("token");
+    while (i < s.length() && (Character.isLetterOrDigit(s.charAt(i)) || s.charAt(i) == '_')) i++;
+    String id = s.substring(start, i);
+
+    if (eat("(")) return call(id);
+    if (id.equalsIgnoreCase("true"))  return new Const(1.0);
+    if (id.equalsIgnoreCase("false")) return new Const(0.0);
+    Integer p = places.get(id);
+    if (p != null) return new Place(p);
+    Integer k = consts.get(id);
+    if (k != null) return new Const(k);
+    throw new IllegalArgumentException("identificatore");
+  }
+
+  private Node call(String name) {
+    String f = name.toLowerCase();
+    Node a = or();
+    Node n = switch (f) {
+      case "if" -> {
+        expect(",");
+        Node x = or();
+        expect(",");
+        Node y = or();
+        yield fold(new If(a, x, y));
+      }
+      case "min", "max", "pow" -> {
+        expect(",");
+        Node b = or();
+        yield fold(new Bin(f.equals("min") ? Op.MIN : f.equals("max") ? Op.MAX : Op.POW, a, b));
+      }
+      case "abs"   -> fold(new Un(Fn.ABS, a));
+      case "exp"   -> fold(new Un(Fn.EXP, a));
+      case "log"   -> fold(new Un(Fn.LOG, a));
+      case "sqrt"  -> fold(new Un(Fn.SQRT, a));
+      case "floor" -> fold(new Un(Fn.FLOOR, a));
+      case "ceil"  -> fold(new Un(Fn.CEIL, a));
+      case "round" -> fold(new Un(Fn.ROUND, a));
+      default -> throw new IllegalArgumentException("funzione");
+    };
+    expect(")");
+    return n;
+  }
+
+  private void expect(String tok) {
+    if (!eat(tok)) throw new IllegalArgumentException("atteso " + tok);
+  }
+
+  // ---------- Albero ----------
+
+  enum Op { ADD, SUB, MUL, DIV, MIN, MAX, POW, EQ, NE, LT, LE, GT, GE, AND, OR }
+  enum Fn { NEG, NOT, ABS, EXP, LOG, SQRT, FLOOR, CEIL, ROUND }
+
+  abstract static sealed class Node permits Const, Place, Bin, Un, If {
+    abstract double eval(int[] m);
+
+    IndexedNet.MarkingFn fn() { return this::eval; }
+
+    IndexedNet.MarkingPred pred() {
+      IndexedNet.MarkingFn f = fn();
+      return m -> f.eval(m) != 0.0;
+    }
+  }
+
+  static final class Const extends Node {
+    final double v;
+    Const(double v) { this.v = v; }
+    double eval(int[] m) { return v; }
+    IndexedNet.MarkingFn fn() { final double c = v; return m -> c; }
+    IndexedNet.MarkingPred pred() { final boolean b = v != 0.0; return m -> b; }
+  }
+
+  static final class Place extends Node {
+    final int p;
+    Place(int p) { this.p = p; }
+    double eval(int[] m) { return m[p]; }
+    IndexedNet.MarkingFn fn() { final int q = p; return m -> m[q]; }
+    IndexedNet.MarkingPred pred() { final int q = p; return m -> m[q] != 0; }
+  }
+
+  static final class Bin extends Node {
+    final Op op;
+    final Node a, b;
+    Bin(Op op, Node a, Node b) { this.op = op; this.a = a; this.b = b; }
+
+    double eval(int[] m) {
+      return switch (op) {
+        case AND -> (a.eval(m) != 0.0 && b.eval(m) != 0.0) ? 1.0 : 0.0;
+        case OR  -> (a.eval(m) != 0.0 || b.eval(m) != 0.0) ? 1.0 : 0.0;
+        default  -> apply(op, a.eval(m), b.eval(m));
+      };
+    }
+
+    IndexedNet.MarkingFn fn() {
+      // k*P, P*k, P/k, (k*P)/d: forme dei rate dei modelli
+      if (op == Op.MUL && a instanceof Const k && b instanceof Place p) {
+        final double c = k.v; final int q = p.p;
+        return m -> c * m[q];
+      }
+      if (op == Op.MUL && a instanceof Place p && b instanceof Const k) {
+        final double c = k.v; final int q = p.p;
+        return m -> m[q] * c;
+      }
+      if (op == Op.DIV && a instanceof Place p && b instanceof Const k) {
+        final double d = k.v; final int q = p.p;
+        return m -> m[q] / d;
+      }
+      if (op == Op.DIV && b instanceof Const k && a instanceof Bin x
+          && x.op == Op.MUL && x.a instanceof Const c0 && x.b instanceof Place p) {
+        final double c = c0.v, d = k.v; final int q = p.p;
+        return m -> (c * m[q]) / d;
+      }
+      if (op == Op.DIV && a instanceof Place p && b instanceof Place r) {
+        final int q = p.p, w = r.p;
+        return m -> (double) m[q] / m[w];
+      }
+      if (isBoolean()) {
+        IndexedNet.MarkingPred t = pred();
+        return m -> t.test(m) ? 1.0 : 0.0;
+      }
+      final Op o = op;
+      final IndexedNet.MarkingFn fa = a.fn(), fb = b.fn();
+      return m -> apply(o, fa.eval(m), fb.eval(m));
+    }
+
+    IndexedNet.MarkingPred pred() {
+      switch (op) {
+        case AND: { IndexedNet.MarkingPred x = a.pred(), y = b.pred(); return m -> x.test(m) && y.test(m); }
+        case OR:  { IndexedNet.MarkingPred x = a.pred(), y = b.pred(); return m -> x.test(m) || y.test(m); }
+        default:
+      }
+      if (!isComparison()) return super.pred();
+      // P op c: guardie tipo "WorkloadUp>0", "Rate1>1"
+      if (a instanceof Place p && b instanceof Const k) {
+        final int q = p.p; final double c = k.v;
+        return switch (op) {
+          case GT -> m -> m[q] > c;
+          case GE -> m -> m[q] >= c;
+          case LT -> m -> m[q] < c;
+          case LE -> m -> m[q] <= c;
+          case EQ -> m -> m[q] == c;
+          default -> m -> m[q] != c;
+        };
+      }
+      final Op o = op;
+      final IndexedNet.MarkingFn fa = a.fn(), fb = b.fn();
+      return m -> apply(o, fa.eval(m), fb.eval(m)) != 0.0;
+    }
+
+    boolean isComparison() {
+      return op == Op.EQ || op == Op.NE || op == Op.LT || op == Op.LE || op == Op.GT || op == Op.GE;
+    }
+
+    boolean isBoolean() { return isComparison() || op == Op.AND || op == Op.OR; }
+  }
+
+  static final class Un extends Node {
+    final Fn f;
+    final Node a;
+    Un(Fn f, Node a) { this.f = f; this.a = a; }
+    double eval(int[] m) { return apply(f, a.eval(m)); }
+
+    IndexedNet.MarkingFn fn() {
+      final Fn g = f;
+      final IndexedNet.MarkingFn fa = a.fn();
+      return m -> apply(g, fa.eval(m));
+    }
+
+    IndexedNet.MarkingPred pred() {
+      if (f == Fn.NOT) { IndexedNet.MarkingPred x = a.pred(); return m -> !x.test(m); }
+      return super.pred();
+    }
+  }
+
+  static final class If extends Node {
+    final Node c, x, y;
+    If(Node c, Node x, Node y) { this.c = c; this.x = x; this.y = y; }
+    double eval(int[] m) { return (c.eval(m) != 0.0) ? x.eval(m) : y.eval(m); }
+
+    IndexedNet.MarkingFn fn() {
+      final IndexedNet.MarkingPred t = c.pred();
+      final IndexedNet.MarkingFn fx = x.fn(), fy = y.fn();
+      return m -> t.test(m) ? fx.eval(m) : fy.eval(m);
+    }
+  }
+
+  // ---------- Semantica / costanti ----------
+
+  static double apply(Op op, double x, double y) {
+    return switch (op) {
+      case ADD -> x + y;
+      case SUB -> x - y;
+      case MUL -> x * y;
+      case DIV -> x / y;
+      case MIN -> Math.min(x, y);
+      case MAX -> Math.max(x, y);
+      case POW -> Math.pow(x, y);
+      case EQ  -> (x == y) ? 1.0 : 0.0;
+      case NE  -> (x != y) ? 1.0 : 0.0;
+      case LT  -> (x <  y) ? 1.0 : 0.0;
+      case LE  -> (x <= y) ? 1.0 : 0.0;
+      case GT  -> (x >  y) ? 1.0 : 0.0;
+      case GE  -> (x >= y) ? 1.0 : 0.0;
+      case AND -> (x != 0.0 && y != 0.0) ? 1.0 : 0.0;
+      case OR  -> (x != 0.0 || y != 0.0) ? 1.0 : 0.0;
+    };
+  }
+
+  static double apply(Fn f, double x) {
+    return switch (f) {
+      case NEG   -> -x;
+      case NOT   -> (x == 0.0) ? 1.0 : 0.0;
+      case ABS   -> Math.abs(x);
+      case EXP   -> Math.exp(x);
+      case LOG   -> Math.log(x);
+      case SQRT  -> Math.sqrt(x);
+      case FLOOR -> Math.floor(x);
+      case CEIL  -> Math.ceil(x);
+      case ROUND -> Math.round(x);
+    };
+  }
+
+  // Sottoalberi senza posti: valutati subito
+  static Node fold(Node n) {
+    if (n instanceof Bin b && b.a instanceof Const && b.b instanceof Const)
+      return new Const(b.eval(null));
+    if (n instanceof Un u && u.a instanceof Const)
+      return new Const(u.eval(null));
+    if (n instanceof If f && f.c instanceof Const c)
+      return (c.v != 0.0) ? f.x : f.y;
+    return n;
+  }
+}
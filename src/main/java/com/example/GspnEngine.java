@@ -0,0 +1,402 @@
+package com.example;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+import java.util.random.RandomGenerator;
+
+import org.oristool.petrinet.Marking;
+import org.oristool.petrinet.PetriNet;
+
+/**
+ * Motore di simulazione next-event per una qualsiasi GSPN Sirio (via IndexedNet):
+ * - transizioni EXP con rate dipendenti dalla marcatura, IMM con peso e priorità
+ * - enabling function e archi inibitori
+ * - calendario degli eventi: heap indicizzato dei tempi di sparo (Gibson-Bruck),
+ *   al cambio di rate il tempo residuo è riscalato, senza nuove estrazioni
+ * - aggiornamento incrementale: dopo uno sparo si rivalutano solo le transizioni
+ *   che leggono (archi, rate, guardia) un posto modificato
+ *
+ * La struttura (dipendenze) è immutabile e condivisibile; lo stato di una
+ * simulazione è in Run, un'istanza per thread.
+ */
+public final class GspnEngine {
+
+  // Notifica degli spari (timed e immediate)
+  public interface FireListener { void fired(int t, double time, int[] m); }
+
+  final IndexedNet net;
+  final int[][] affects;     // affects[t]: transizioni da rivalutare dopo lo sparo di t
+  final int[][] dependents;  // dependents[p]: transizioni che leggono il posto p
+  final int[]   immList;     // transizioni immediate
+
+  public GspnEngine(IndexedNet net) {
+    this.net = net;
+    int np = net.placeCount(), nt = net.transitionCount();
+
+    // chi legge ogni posto (null = dipendenza sconosciuta -> sempre)
+    boolean[][] reads = new boolean[nt][];
+    boolean[] global = new boolean[nt];
+    for (int t = 0; t < nt; t++) {
+      boolean[] r = new boolean[np];
+      for (int p : net.preP[t]) r[p] = true;
+      for (int p : net.inhP[t]) r[p] = true;
+      int[] rp = net.readPlaces(t);
+      if (rp == null) global[t] = true;
+      else for (int p : rp) r[p] = true;
+      reads[t] = r;
+    }
+
+    dependents = new int[np][];
+    for (int p = 0; p < np; p++) {
+      int[] buf = new int[nt];
+      int n = 0;
+      for (int t = 0; t < nt; t++) if (global[t] || reads[t][p]) buf[n++] = t;
+      dependents[p] = Arrays.copyOf(buf, n);
+    }
+
+    affects = new int[nt][];
+    for (int t = 0; t < nt; t++) {
+      boolean[] mark = new boolean[nt];
+      mark[t] = true;
+      for (int p : net.deltaP[t]) for (int k : dependents[p]) mark[k] = true;
+      for (int k = 0; k < nt; k++) if (global[k]) mark[k] = true;
+      int n = 0;
+      for (boolean b : mark) if (b) n++;
+      int[] a = new int[n];
+      n = 0;
+      for (int k = 0; k < nt; k++) if (mark[k]) a[n++] = k;
+      affects[t] = a;
+    }
+
+    int ni = 0;
+    for (int t = 0; t < nt; t++) if (net.immediate[t]) ni++;
+    immList = new int[ni];
+    ni = 0;
+    for (int t = 0; t < nt; t++) if (net.immediate[t]) immList[ni++] = t;
+  }
+
+  public static GspnEngine of(PetriNet net) {
+    return new GspnEngine(IndexedNet.of(net));
+  }
+
+  public IndexedNet net() { return net; }
+
+  public Run start(int[] m0, double t0, RandomGenerator rng) {
+    return new Run(m0, t0, rng);
+  }
+
+  public Run start(Marking m0, double t0, RandomGenerator rng) {
+    return new Run(net.toArray(m0), t0, rng);
+  }
+
+  /**
+   * Run ripresa da Run.write: marcatura, tempo e calendario salvati, nessuna
+   * nuova estrazione (con lo stesso rng la continuazione è identica).
+   */
+  public Run resume(DataInput in, RandomGenerator rng) throws IOException {
+    int np = in.readInt();
+    if (np != net.placeCount()) throw new IOException("Run salvata con " + np + " posti, rete con " + net.placeCount());
+    int[] m = new int[np];
+    for (int p = 0; p < np; p++) m[p] = in.readInt();
+    Run run = new Run(m, in.readDouble(), rng, false);
+    run.fired = in.readLong();
+    // in ordine di heap: ogni inserimento resta in coda, stessa disposizione dell'originale
+    for (int n = in.readInt(); n > 0; n--) {
+      int t = in.readInt();
+      if (t < 0 || t >= net.transitionCount() || net.immediate[t])
+        throw new IOException("Transizione non valida nel calendario salvato: " + t);
+      run.rate[t] = in.readDouble();
+      run.when[t] = in.readDouble();
+      run.insert(t);
+    }
+    for (int t : immList) run.update(t); // immediate: solo abilitazione, nessuna estrazione
+    return run;
+  }
+
+  // ---------- Confronto con il loop dedicato del simulatore ----------
+
+  /**
+   * bench [T] [token]: T secondi simulati su ModelOris2_fase4 (arrivi disattivati),
+   * con 'token' richieste in Ph1 reimmesse ad ogni completamento; stesso
+   * carico per advanceModelAndIntegrateIdle e per il motore generico.
+   */
+  public static void main(String[] args) {
+    double horizon = (args.length > 1) ? Double.parseDouble(args[1]) : 200_000.0;
+    int tokens     = (args.length > 2) ? Integer.parseInt(args[2]) : 12;
+    final double chunk = 10.0;
+
+    for (int round = 0; round < 3; round++) {
+      // loop dedicato
+      ModelOris2_fase4.GspnModel model = benchModel(tokens);
+      Random rng = new Random(1);
+      double idle = 0.0;
+      long t0 = System.nanoTime();
+      for (double t = 0.0; t < horizon; t += chunk) {
+        idle += TimeseriesSimulator.advanceModelAndIntegrateIdle(model, rng, t, t + chunk, null, false, null, null).idleArea;
+        recycle(model);
+      }
+      double handSec = (System.nanoTime() - t0) / 1e9;
+      double handIdle = idle / horizon;
+
+      // motore generico sull'intera rete
+      model = benchModel(tokens);
+      GspnEngine engine = new GspnEngine(ModelTemplate.fase4().folded(model.marking));
+      IndexedNet n = engine.net();
+      int pool = n.placeIndex("Pool"), ph1 = n.placeIndex("Ph1");
+      Run run = engine.start(model.marking, 0.0, new Random(1));
+      idle = 0.0;
+      t0 = System.nanoTime();
+      for (double t = 0.0; t < horizon; t += chunk) {
+        idle += run.advanceTo(t + chunk, m -> m[pool]);
+        int back = run.m[pool];
+        run.set(pool, 0);
+        run.set(ph1, run.m[ph1] + back);
+      }
+      double engSec = (System.nanoTime() - t0) / 1e9;
+
+      System.out.printf(Locale.US,
+          "[bench] T=%.0f token=%d | loop: %.3f s (idle medio %.4f) | motore: %.3f s, %d spari (idle medio %.4f)%n",
+          horizon, tokens, handSec, handIdle, engSec, run.firings(), idle / horizon);
+    }
+  }
+
+  private static ModelOris2_fase4.GspnModel benchModel(int tokens) {
+    ModelOris2_fase4.GspnModel model = ModelTemplate.fase4().instance();
+    TimeseriesSimulator.disableAutomaticArrivals(model);
+    TimeseriesSimulator.setTokens(model, "Pool", 0);
+    for (int ph = 1; ph <= 4; ph++) TimeseriesSimulator.setTokens(model, "Ph" + ph, 0);
+    TimeseriesSimulator.setTokens(model, "Ph1", tokens);
+    return model;
+  }
+
+  private static void recycle(ModelOris2_fase4.GspnModel model) {
+    int back = TimeseriesSimulator.getTokens(model, "Pool");
+    TimeseriesSimulator.setTokens(model, "Pool", 0);
+    TimeseriesSimulator.setTokens(model, "Ph1", TimeseriesSimulator.getTokens(model, "Ph1") + back);
+  }
+
+  // ---------- Stato di una simulazione ----------
+
+  public final class Run {
+    public final int[] m;
+    double now;
+    final RandomGenerator rng;
+    FireListener listener;
+
+    final double[]  rate;    // rate corrente (0 = disabilitata), solo EXP
+    final double[]  when;    // tempo di sparo assoluto, solo EXP in calendario
+    final boolean[] immOn;   // immediate abilitate
+    int immCount;
+
+    // heap indicizzato su 'when'
+    final int[] heap;
+    final int[] pos;         // posizione nell'heap, -1 se fuori
+    int size;
+
+    private long fired;
+
+    Run(int[] m0, double t0, RandomGenerator rng) {
+      this(m0, t0, rng, true);
+    }
+
+    // schedule = false: calendario vuoto, riempito da resume()
+    private Run(int[] m0, double t0, RandomGenerator rng, boolean schedule) {
+      int nt = net.transitionCount();
+      this.m = m0.clone();
+      this.now = t0;
+      this.rng = rng;
+      rate  = new double[nt];
+      when  = new double[nt];
+      immOn = new boolean[nt];
+      heap  = new int[nt];
+      pos   = new int[nt];
+      Arrays.fill(pos, -1);
+      if (!schedule) return;
+      for (int t = 0; t < nt; t++) update(t);
+      settle();
+    }
+
+    /** Stato per un checkpoint (GspnEngine.resume): marcatura, tempo, calendario in ordine di heap. */
+    public void write(DataOutput out) throws IOException {
+      out.writeInt(m.length);
+      for (int x : m) out.writeInt(x);
+      out.writeDouble(now);
+      out.writeLong(fired);
+      out.writeInt(size);
+      for (int i = 0; i < size; i++) {
+        int t = heap[i];
+        out.writeInt(t);
+        out.writeDouble(rate[t]);
+        out.writeDouble(when[t]);
+      }
+    }
+
+    public Run listener(FireListener l) { this.listener = l; return this; }
+
+    public double time()      { return now; }
+    public long   firings()   { return fired; }
+    public int    tokens(int p) { return m[p]; }
+
+    /** Tempo del prossimo sparo temporizzato (+inf se nessuno). */
+    public double nextEventTime() {
+      return (size > 0) ? when[heap[0]] : Double.POSITIVE_INFINITY;
+    }
+
+    /** Spara la prossima transizione temporizzata (e le immediate che segue); -1 se nessuna. */
+    public int step() {
+      if (size == 0) return -1;
+      int t = heap[0];
+      now = when[t];
+      fire(t);
+      settle();
+      return t;
+    }
+
+    /**
+     * Avanza fino a t1 sparando tutti gli eventi con tempo < t1.
+     * @return integrale di 'reward' sull'intervallo [time(), t1] (0 se reward null)
+     */
+    public double advanceTo(double t1, IndexedNet.MarkingFn reward) {
+      double area = 0.0;
+      while (size > 0 && when[heap[0]] < t1) {
+        int t = heap[0];
+        if (reward != null) area += reward.eval(m) * (when[t] - now);
+        now = when[t];
+        fire(t);
+        settle();
+      }
+      if (t1 > now) {
+        if (reward != null) area += reward.eval(m) * (t1 - now);
+        now = t1;
+      }
+      return area;
+    }
+
+    /** Modifica esterna di un posto (es. controller/iniezione): rivaluta chi lo legge. */
+    public void set(int p, int tokens) {
+      if (m[p] == tokens) return;
+      m[p] = tokens;
+      for (int k : dependents[p]) update(k);
+      settle();
+    }
+
+    // ---------- Interni ----------
+
+    private void fire(int t) {
+      net.fire(t, m);
+      fired++;
+      if (!net.immediate[t]) { rate[t] = 0.0; remove(t); } // riestratto da update
+      for (int k : affects[t]) update(k);
+      if (listener != null) listener.fired(t, now, m);
+    }
+
+    private void update(int k) {
+      if (net.immediate[k]) {
+        boolean on = net.isEnabled(k, m) && net.rate(k, m) > 0.0;
+        if (on != immOn[k]) { immOn[k] = on; immCount += on ? 1 : -1; }
+        return;
+      }
+      double r = net.isEnabled(k, m) ? net.rate(k, m) : 0.0;
+      if (r <= 0.0) {
+        rate[k] = 0.0;
+        remove(k);
+        return;
+      }
+      if (pos[k] < 0) {
+        when[k] = now + exp(r);
+        rate[k] = r;
+        insert(k);
+      } else if (r != rate[k]) {
+        // stesso orologio, velocità diversa: tempo residuo riscalato
+        when[k] = now + (rate[k] / r) * (when[k] - now);
+        rate[k] = r;
+        fix(pos[k]);
+      }
+    }
+
+    // Immediate: priorità massima, scelta per peso, finché la marcatura è vanishing
+    private void settle() {
+      for (int depth = 0; immCount > 0; depth++) {
+        if (depth > ReachabilityExplorer.MAX_VANISHING_DEPTH)
+          throw new IllegalStateException("Ciclo di transizioni immediate in simulazione");
+        int best = Integer.MIN_VALUE;
+        double total = 0.0;
+        for (int k : immList) {
+          if (!immOn[k]) continue;
+          int pr = net.priority[k];
+          if (pr > best) { best = pr; total = 0.0; }
+          if (pr == best) total += net.rate(k, m);
+        }
+        double u = rng.nextDouble() * total, acc = 0.0;
+        int pick = -1;
+        for (int k : immList) {
+          if (!immOn[k] || net.priority[k] != best) continue;
+          acc += net.rate(k, m);
+          pick = k;
+          if (u < acc) break;
+        }
+        fire(pick);
+      }
+    }
+
+    private double exp(double r) {
+      return -Math.log(1.0 - rng.nextDouble()) / r;
+    }
+
+    // ---------- Heap indicizzato (min su when) ----------
+
+    private void insert(int k) {
+      heap[size] = k;
+      pos[k] = size;
+      siftUp(size++);
+    }
+
+    private void remove(int k) {
+      int i = pos[k];
+      if (i < 0) return;
+      pos[k] = -1;
+      int last = heap[--size];
+      if (i == size) return;
+      heap[i] = last;
+      pos[last] = i;
+      fix(i);
+    }
+
+    private void fix(int i) {
+      if (i > 0 && when[heap[i]] < when[heap[(i - 1) >>> 1]]) siftUp(i);
+      else siftDown(i);
+    }
+
+    private void siftUp(int i) {
+      int k = heap[i];
+      double w = when[k];
+      while (i > 0) {
+        int parent = (i - 1) >>> 1;
+        int pk = heap[parent];
+        if (when[pk] <= w) break;
+        heap[i] = pk; pos[pk] = i;
+        i = parent;
+      }
+      heap[i] = k; pos[k] = i;
+    }
+
+    private void siftDown(int i) {
+      int k = heap[i];
+      double w = when[k];
+      while (true) {
+        int c = 2 * i + 1;
+        if (c >= size) break;
+        if (c + 1 < size && when[heap[c + 1]] < when[heap[c]]) c++;
+        int ck = heap[c];
+        if (when[ck] >= w) break;
+        heap[i] = ck; pos[ck] = i;
+        i = c;
+      }
+      heap[i] = k; pos[k] = i;
+    }
+  }
+}
@@ -0,0 +1,492 @@
+package com.example;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.oristool.math.function.EXP;
+import org.oristool.models.pn.Priority;
+import org.oristool.models.stpn.MarkingExpr;
+import org.oristool.models.stpn.trees.StochasticTransitionFeature;
+import org.oristool.petrinet.EnablingFunction;
+import org.oristool.petrinet.InhibitorArc;
+import org.oristool.petrinet.Marking;
+import org.oristool.petrinet.PetriNet;
+import org.oristool.petrinet.Place;
+import org.oristool.petrinet.Postcondition;
+import org.oristool.petrinet.Precondition;
+import org.oristool.petrinet.Transition;
+
+/**
+ * Vista indicizzata (immutabile) di una PetriNet Sirio:
+ * - posti e transizioni numerati 0..n-1, marcatura come int[]
+ * - archi pre/post/inibitori come array di indici e molteplicità
+ * - transizioni EXP (rate = lambda * clockRate) e IMM (peso + priorità)
+ * - enabling function come predicato sulla marcatura
+ *
+ * Rate, pesi e guardie sono compilati da ExprCompiler in funzioni di int[];
+ * le espressioni non riconosciute sono valutate da Sirio su una Marking di
+ * appoggio (una per thread), quindi la vista è usabile in parallelo.
+ *
+ * foldConstants() produce una vista ridotta senza i posti invarianti
+ * (divisori, pesi W**, P1..P3): i loro valori restano solo nella Marking
+ * di appoggio, già impostati, e non entrano più nella marcatura int[].
+ */
+public final class IndexedNet {
+
+  // Funzione della marcatura (rate, peso, reward)
+  public interface MarkingFn { double eval(int[] m); }
+
+  // Predicato sulla marcatura (enabling function)
+  public interface MarkingPred { boolean test(int[] m); }
+
+  public final PetriNet net;
+
+  // Posti
+  final Place[]  places;
+  final String[] placeNames;
+  final Map<String,Integer> placeIdx = new HashMap<>();
+
+  // Posti costanti ripiegati (assenti dalla marcatura int[])
+  final Place[] constPlaces;
+  final int[]   constValues;
+
+  // Transizioni
+  final Transition[] transitions;
+  final String[]     transNames;
+  final Map<String,Integer> transIdx = new HashMap<>();
+
+  // Archi (per transizione): indici dei posti e molteplicità
+  final int[][] preP,  preW;
+  final int[][] postP, postW;
+  final int[][] inhP,  inhW;
+
+  // Effetto netto dello sparo (solo posti con variazione != 0)
+  final int[][] deltaP, deltaW;
+
+  // Tipo e parametri stocastici
+  final boolean[]    immediate;
+  final int[]        priority;
+  final MarkingExpr[] expr;   // EXP: clockRate, IMM: peso
+  final double[]     lambda;  // EXP: rate della distribuzione, IMM: 1
+  final boolean[]    guarded; // ha EnablingFunction
+  final String[]     guardText; // testo dell'enabling function (null se assente)
+
+  // Valutatori legati alla Marking di appoggio di questa vista
+  final MarkingFn[]   rate;   // EXP: lambda*clockRate, IMM: peso
+  final MarkingPred[] guard;  // null se assente
+
+  private final ThreadLocal<Marking> scratch;
+
+  private IndexedNet(PetriNet net) {
+    this.net = net;
+
+    Collection<Place> ps = net.getPlaces();
+    places     = ps.toArray(new Place[0]);
+    placeNames = new String[places.length];
+    for (int i = 0; i < places.length; i++) {
+      placeNames[i] = places[i].getName();
+      placeIdx.put(placeNames[i], i);
+    }
+    constPlaces = new Place[0];
+    constValues = new int[0];
+
+    Collection<Transition> ts = net.getTransitions();
+    transitions = ts.toArray(new Transition[0]);
+    int nt = transitions.length;
+    transNames = new String[nt];
+    preP  = new int[nt][]; preW  = new int[nt][];
+    postP = new int[nt][]; postW = new int[nt][];
+    inhP  = new int[nt][]; inhW  = new int[nt][];
+    deltaP = new int[nt][]; deltaW = new int[nt][];
+    immediate = new boolean[nt];
+    priority  = new int[nt];
+    expr    = new MarkingExpr[nt];
+    lambda  = new double[nt];
+    guarded = new boolean[nt];
+    guardText = new String[nt];
+
+    for (int t = 0; t < nt; t++) {
+      Transition tr = transitions[t];
+      transNames[t] = tr.getName();
+      transIdx.put(transNames[t], t);
+
+      List<int[]> pre = new ArrayList<>();
+      for (Precondition a : net.getPreconditions(tr))
+        pre.add(new int[]{ placeIdx.get(a.getPlace().getName()), a.getMultiplicity() });
+      List<int[]> post = new ArrayList<>();
+      for (Postcondition a : net.getPostconditions(tr))
+        post.add(new int[]{ placeIdx.get(a.getPlace().getName()), a.getMultiplicity() });
+      List<int[]> inh = new ArrayList<>();
+      for (InhibitorArc a : net.getInhibitorArcs(tr))
+        inh.add(new int[]{ placeIdx.get(a.getPlace().getName()), a.getMultiplicity() });
+
+      preP[t]  = column(pre, 0);  preW[t]  = column(pre, 1);
+      postP[t] = column(post, 0); postW[t] = column(post, 1);
+      inhP[t]  = column(inh, 0);  inhW[t]  = column(inh, 1);
+
+      int[] d = new int[places.length];
+      for (int[] a : pre)  d[a[0]] -= a[1];
+      for (int[] a : post) d[a[0]] += a[1];
+      List<int[]> delta = new ArrayList<>();
+      for (int p = 0; p < d.length; p++) if (d[p] != 0) delta.add(new int[]{ p, d[p] });
+      deltaP[t] = column(delta, 0); deltaW[t] = column(delta, 1);
+
+      StochasticTransitionFeature f = tr.getFeature(StochasticTransitionFeature.class);
+      if (f == null)
+        throw new IllegalArgumentException("Transizione senza StochasticTransitionFeature: " + transNames[t]);
+      if (f.isIMM()) {
+        immediate[t] = true;
+        Priority pr = tr.getFeature(Priority.class);
+        priority[t] = (pr != null) ? pr.value() : 0;
+        expr[t]   = f.weight();
+        lambda[t] = 1.0;
+      } else if (f.isEXP()) {
+        expr[t]   = f.clockRate();
+        lambda[t] = (f.density() instanceof EXP e) ? e.getLambda().doubleValue() : 1.0;
+      } else {
+        throw new IllegalArgumentException("Solo transizioni EXP/IMM supportate: " + transNames[t]);
+      }
+      EnablingFunction ef = tr.getFeature(EnablingFunction.class);
+      guarded[t]   = ef != null;
+      guardText[t] = (ef != null) ? ef.toString() : null;
+    }
+
+    scratch = ThreadLocal.withInitial(Marking::new);
+    rate  = new MarkingFn[nt];
+    guard = new MarkingPred[nt];
+    bindEvaluators();
+  }
+
+  // Vista ridotta: 'full' sono gli indici (in src) dei posti variabili,
+  // 'alive' le transizioni non morte per effetto dei posti costanti
+  private IndexedNet(IndexedNet src, int[] full, boolean[] alive, int[] m0) {
+    this.net = src.net;
+
+    int[] toReduced = new int[src.places.length];
+    Arrays.fill(toReduced, -1);
+    places     = new Place[full.length];
+    placeNames = new String[full.length];
+    for (int i = 0; i < full.length; i++) {
+      places[i]     = src.places[full[i]];
+      placeNames[i] = src.placeNames[full[i]];
+      placeIdx.put(placeNames[i], i);
+      toReduced[full[i]] = i;
+    }
+    int nc = src.places.length - full.length + src.constPlaces.length;
+    constPlaces = Arrays.copyOf(src.constPlaces, nc);
+    constValues = Arrays.copyOf(src.constValues, nc);
+    int c = src.constPlaces.length;
+    for (int p = 0; p < src.places.length; p++) {
+      if (toReduced[p] >= 0) continue;
+      constPlaces[c] = src.places[p];
+      constValues[c] = m0[p];
+      c++;
+    }
+
+    int nt = 0;
+    for (boolean a : alive) if (a) nt++;
+    transitions = new Transition[nt];
+    transNames  = new String[nt];
+    preP  = new int[nt][]; preW  = new int[nt][];
+    postP = new int[nt][]; postW = new int[nt][];
+    inhP  = new int[nt][]; inhW  = new int[nt][];
+    deltaP = new int[nt][]; deltaW = new int[nt][];
+    immediate = new boolean[nt];
+    priority  = new int[nt];
+    expr    = new MarkingExpr[nt];
+    lambda  = new double[nt];
+    guarded = new boolean[nt];
+    guardText = new String[nt];
+
+    int t = 0;
+    for (int o = 0; o < alive.length; o++) {
+      if (!alive[o]) continue;
+      transitions[t] = src.transitions[o];
+      transNames[t]  = src.transNames[o];
+      transIdx.put(transNames[t], t);
+      int[][] a;
+      a = remap(src.preP[o], src.preW[o], toReduced);     preP[t] = a[0];   preW[t] = a[1];
+      a = remap(src.postP[o], src.postW[o], toReduced);   postP[t] = a[0];  postW[t] = a[1];
+      a = remap(src.inhP[o], src.inhW[o], toReduced);     inhP[t] = a[0];   inhW[t] = a[1];
+      a = remap(src.deltaP[o], src.deltaW[o], toReduced); deltaP[t] = a[0]; deltaW[t] = a[1];
+      immediate[t] = src.immediate[o];
+      priority[t]  = src.priority[o];
+      expr[t]      = src.expr[o];
+      lambda[t]    = src.lambda[o];
+      guarded[t]   = src.guarded[o];
+      guardText[t] = src.guardText[o];
+      t++;
+    }
+
+    // Marking di appoggio con i posti costanti già impostati
+    final Place[] cp = constPlaces;
+    final int[]   cv = constValues;
+    scratch = ThreadLocal.withInitial(() -> {
+      Marking s = new Marking();
+      for (int k = 0; k < cp.length; k++) s.setTokens(cp[k], cv[k]);
+      return s;
+    });
+    rate  = new MarkingFn[nt];
+    guard = new MarkingPred[nt];
+    bindEvaluators();
+  }
+
+  public static IndexedNet of(PetriNet net) {
+    return new IndexedNet(net);
+  }
+
+  // ---------- Ripiegamento dei posti costanti ----------
+
+  /**
+   * Rimuove i posti che nessuna transizione modifica (effetto netto sempre 0),
+   * con i valori di m0. Gli archi verso posti costanti sono valutati una volta:
+   * se sempre soddisfatti spariscono, altrimenti la transizione (morta) è rimossa.
+   * I posti in 'keep' restano nella marcatura (es. parametri Rate*).
+   */
+  public IndexedNet foldConstants(Marking m0, String... keep) {
+    return foldConstants(toArray(m0), keep);
+  }
+
+  public IndexedNet foldConstants(int[] m0, String... keep) {
+    boolean[] varying = varying(keep);
+
+    int[] full = new int[places.length];
+    int n = 0;
+    for (int p = 0; p < places.length; p++) if (varying[p]) full[n++] = p;
+    full = Arrays.copyOf(full, n);
+
+    boolean[] alive = new boolean[transitions.length];
+    for (int t = 0; t < alive.length; t++) {
+      boolean ok = true;
+      for (int k = 0; k < preP[t].length && ok; k++)
+        if (!varying[preP[t][k]] && m0[preP[t][k]] < preW[t][k]) ok = false;
+      for (int k = 0; k < inhP[t].length && ok; k++)
+        if (!varying[inhP[t][k]] && m0[inhP[t][k]] >= inhW[t][k]) ok = false;
+      alive[t] = ok;
+    }
+
+    return new IndexedNet(this, full, alive, m0);
+  }
+
+  /**
+   * Chiave della vista ripiegata: posti tenuti e valori dei posti che
+   * foldConstants(m0, keep) renderebbe costanti. Stessa chiave, stessa vista.
+   */
+  public String foldKey(int[] m0, String... keep) {
+    boolean[] varying = varying(keep);
+    StringBuilder sb = new StringBuilder(String.join(",", keep)).append('|');
+    for (int p = 0; p < places.length; p++) if (!varying[p]) sb.append(m0[p]).append(',');
+    return sb.toString();
+  }
+
+  private boolean[] varying(String... keep) {
+    boolean[] varying = new boolean[places.length];
+    for (int[] dp : deltaP) for (int p : dp) varying[p] = true;
+    for (String k : keep) varying[placeIndex(k)] = true;
+    return varying;
+  }
+
+  // Nomi dei posti ripiegati come costanti
+  public String[] constantPlaces() {
+    String[] out = new String[constPlaces.length];
+    for (int k = 0; k < out.length; k++) out[k] = constPlaces[k].getName();
+    return out;
+  }
+
+  // ---------- Dimensioni / nomi ----------
+  public int placeCount()      { return places.length; }
+  public int transitionCount() { return transitions.length; }
+  public String placeName(int p)      { return placeNames[p]; }
+  public String transitionName(int t) { return transNames[t]; }
+  public boolean isImmediate(int t)   { return immediate[t]; }
+  public int priority(int t)          { return priority[t]; }
+
+  public int placeIndex(String name) {
+    Integer i = placeIdx.get(name);
+    if (i == null) throw new IllegalArgumentException("Posto inesistente: " + name);
+    return i;
+  }
+  public int transitionIndex(String name) {
+    Integer i = transIdx.get(name);
+    if (i == null) throw new IllegalArgumentException("Transizione inesistente: " + name);
+    return i;
+  }
+
+  // ---------- Conversioni Marking <-> int[] ----------
+  public int[] toArray(Marking m) {
+    int[] a = new int[places.length];
+    for (int p = 0; p < a.length; p++) a[p] = m.getTokens(places[p]);
+    return a;
+  }
+  public Marking toMarking(int[] m) {
+    Marking out = new Marking();
+    for (int k = 0; k < constPlaces.length; k++) out.setTokens(constPlaces[k], constValues[k]);
+    for (int p = 0; p < m.length; p++) out.setTokens(places[p], m[p]);
+    return out;
+  }
+
+  // ---------- Semantica ----------
+  public boolean isEnabled(int t, int[] m) {
+    int[] pp = preP[t], pw = preW[t];
+    for (int k = 0; k < pp.length; k++) if (m[pp[k]] < pw[k]) return false;
+    int[] ip = inhP[t], iw = inhW[t];
+    for (int k = 0; k < ip.length; k++) if (m[ip[k]] >= iw[k]) return false;
+    MarkingPred g = guard[t];
+    return g == null || g.test(m);
+  }
+
+  public void fire(int t, int[] m) {
+    int[] dp = deltaP[t], dw = deltaW[t];
+    for (int k = 0; k < dp.length; k++) m[dp[k]] += dw[k];
+  }
+
+  // Rate (EXP) o peso (IMM) nella marcatura m
+  public double rate(int t, int[] m) {
+    return rate[t].eval(m);
+  }
+
+  // Espressione di reward (sintassi Sirio) valutata sulla marcatura;
+  // il nome di un posto è letto direttamente dall'array
+  public MarkingFn reward(String expr) {
+    Integer p = placeIdx.get(expr.trim());
+    if (p != null) {
+      final int idx = p;
+      return m -> m[idx];
+    }
+    MarkingFn f = ExprCompiler.compile(expr, 1.0, placeIdx, constantMap());
+    return (f != null) ? f : sirioFn(MarkingExpr.from(expr, net), 1.0);
+  }
+
+  // ---------- Dipendenze ----------
+
+  /**
+   * Posti (indici di questa vista) letti da rate/peso ed enabling function di t,
+   * ricavati dal testo delle espressioni; i posti costanti ripiegati sono ignorati.
+   * null se il testo contiene identificatori sconosciuti (dipendenza da tutto).
+   */
+  public int[] readPlaces(int t) {
+    boolean[] seen = new boolean[places.length];
+    if (!scanPlaces(String.valueOf(expr[t]), seen)) return null;
+    if (guardText[t] != null && !scanPlaces(guardText[t], seen)) return null;
+    int n = 0;
+    for (boolean b : seen) if (b) n++;
+    int[] out = new int[n];
+    n = 0;
+    for (int p = 0; p < seen.length; p++) if (seen[p]) out[n++] = p;
+    return out;
+  }
+
+  // Funzioni e costanti della sintassi delle espressioni Sirio
+  private static final Set<String> EXPR_WORDS = Set.of(
+      "If", "if", "Min", "min", "Max", "max", "Abs", "abs", "Exp", "exp", "Log", "log",
+      "Pow", "pow", "Sqrt", "sqrt", "Floor", "floor", "Ceil", "ceil", "Round", "round",
+      "true", "false", "TRUE", "FALSE", "and", "or", "not");
+
+  // seen: posti nominati nel testo; false se compaiono anche identificatori sconosciuti
+  private boolean scanPlaces(String text, boolean[] seen) {
+    boolean known = true;
+    int i = 0, n = text.length();
+    while (i < n) {
+      char c = text.charAt(i);
+      if (Character.isDigit(c) || (c == '.' && i + 1 < n && Character.isDigit(text.charAt(i + 1)))) {
+        // numero (anche in notazione esponenziale)
+        while (i < n && (Character.isDigit(text.charAt(i)) || text.charAt(i) == '.')) i++;
+        if (i < n && (text.charAt(i) == 'e' || text.charAt(i) == 'E')) {
+          int j = i + 1;
+          if (j < n && (text.charAt(j) == '+' || text.charAt(j) == '-')) j++;
+          if (j < n && Character.isDigit(text.charAt(j))) {
+            i = j;
+            while (i < n && Character.isDigit(text.charAt(i))) i++;
+          }
+        }
+      } else if (Character.isLetter(c) || c == '_') {
+        int start = i;
+        while (i < n && (Character.isLetterOrDigit(text.charAt(i)) || text.charAt(i) == '_')) i++;
+        String id = text.substring(start, i);
+        Integer p = placeIdx.get(id);
+        if (p != null) seen[p] = true;
+        else if (!EXPR_WORDS.contains(id) && !isConstantPlace(id)) known = false;
+      } else {
+        i++;
+      }
+    }
+    return known;
+  }
+
+  /** L'enabling function di t nomina il posto p. */
+  boolean guardReads(int t, int p) {
+    return guardText[t] != null && mentions(guardText[t], p);
+  }
+
+  /** Rate (EXP) o peso (IMM) di t nomina il posto p. */
+  boolean exprReads(int t, int p) {
+    return mentions(String.valueOf(expr[t]), p);
+  }
+
+  private boolean mentions(String text, int p) {
+    boolean[] seen = new boolean[places.length];
+    scanPlaces(text, seen);
+    return seen[p];
+  }
+
+  private boolean isConstantPlace(String name) {
+    for (Place p : constPlaces) if (p.getName().equals(name)) return true;
+    return false;
+  }
+
+  // ---------- Supporto ----------
+  // Rate e guardie compilati da ExprCompiler; MarkingExpr solo se il testo non è riconosciuto
+  private void bindEvaluators() {
+    Map<String,Integer> consts = constantMap();
+    for (int t = 0; t < transitions.length; t++) {
+      MarkingFn f = ExprCompiler.compile(String.valueOf(expr[t]), lambda[t], placeIdx, consts);
+      rate[t] = (f != null) ? f : sirioFn(expr[t], lambda[t]);
+      if (guarded[t]) {
+        MarkingPred g = ExprCompiler.compilePredicate(guardText[t], placeIdx, consts);
+        final Transition tt = transitions[t];
+        guard[t] = (g != null) ? g : m -> net.isEnabled(tt, toScratch(m));
+      }
+    }
+  }
+
+  private Map<String,Integer> constantMap() {
+    Map<String,Integer> c = new HashMap<>();
+    for (int k = 0; k < constPlaces.length; k++) c.put(constPlaces[k].getName(), constValues[k]);
+    return c;
+  }
+
+  private MarkingFn sirioFn(MarkingExpr e, double factor) {
+    if (factor == 1.0) return m -> e.evaluate(toScratch(m));
+    return m -> factor * e.evaluate(toScratch(m));
+  }
+
+  private Marking toScratch(int[] m) {
+    Marking s = scratch.get();
+    for (int p = 0; p < m.length; p++) s.setTokens(places[p], m[p]);
+    return s;
+  }
+
+  private static int[] column(List<int[]> rows, int c) {
+    int[] out = new int[rows.size()];
+    for (int i = 0; i < out.length; i++) out[i] = rows.get(i)[c];
+    return out;
+  }
+
+  // Archi sui soli posti variabili, con indici ridotti
+  private static int[][] remap(int[] ps, int[] ws, int[] toReduced) {
+    int n = 0;
+    int[] p = new int[ps.length], w = new int[ps.length];
+    for (int k = 0; k < ps.length; k++) {
+      if (toReduced[ps[k]] < 0) continue;
+      p[n] = toReduced[ps[k]];
+      w[n] = ws[k];
+      n++;
+    }
+    return new int[][]{ Arrays.copyOf(p, n), Arrays.copyOf(w, n) };
+  }
+}
@@ -0,0 +1,313 @@
+package com.example;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Riassunti compatti di timeseries_intervals_<mode>.csv per plot e dashboard,
+ * scritti a fine run accanto ai CSV grezzi (letti in streaming dal file, quindi
+ * validi anche dopo la ripresa da checkpoint):
+ *
+ * - timeseries_agg_<mode>_<L>s.csv: un bucket allineato di L secondi per riga
+ *   (L in LEVELS_SEC), con arrivi, rejection e min/media/p50/p95/max di Pool,
+ *   target, rejection rate per intervallo e idle (media dell'idle pesata sulla
+ *   durata degli intervalli). I quantili sono esatti sui valori del bucket.
+ * - timeseries_lttb_<mode>.csv: "series,t,value", al più LTTB_POINTS punti per
+ *   serie (pool_now, target_tot, rejection_rate, idle_mean_interval su t_mid)
+ *   scelti con Largest-Triangle-Three-Buckets. Secondo passaggio sul file con
+ *   il numero di righe già noto: in memoria solo due bucket per serie.
+ *
+ * Uso: IntervalDigest [timeseries_intervals_<mode>.csv ...]
+ *      (senza argomenti: tutti i timeseries_intervals_*.csv della cartella,
+ *      anche a segmenti: basta il nome base, vedi SegmentedCsv)
+ */
+public final class IntervalDigest {
+
+  static final double[] LEVELS_SEC  = { 100.0, 1_000.0, 10_000.0, 100_000.0 };
+  static final int      LTTB_POINTS = 2000;
+
+  static final String[] SERIES = { "pool_now", "target_tot", "rejection_rate", "idle_mean_interval" };
+
+  // colonne di timeseries_intervals_*.csv usate qui
+  static final int C_T_START = 0, C_T_END = 1, C_POOL = 2, C_TARGET = 3,
+                   C_ARRIVALS = 5, C_REJECTS = 6, C_REJ_RATE = 7, C_IDLE = 8;
+
+  private IntervalDigest() { }
+
+  // ---------- File di una run ----------
+
+  // cartella e tag della run da ".../timeseries_intervals_<tag>.csv"
+  static String dirOf(String intervalsFile) {
+    return intervalsFile.substring(0, intervalsFile.lastIndexOf('/') + 1);
+  }
+
+  static String tagOf(String intervalsFile) {
+    String name = intervalsFile.substring(intervalsFile.lastIndexOf('/') + 1);
+    return name.replaceFirst("^timeseries_intervals_", "").replaceFirst("\\.csv$", "");
+  }
+
+  static String aggFile(String intervalsFile, double levelSec) {
+    return dirOf(intervalsFile) + String.format(Locale.US, "timeseries_agg_%s_%.0fs.csv", tagOf(intervalsFile), levelSec);
+  }
+
+  static String lttbFile(String intervalsFile) {
+    return dirOf(intervalsFile) + "timeseries_lttb_" + tagOf(intervalsFile) + ".csv";
+  }
+
+  /** Aggregati e serie LTTB del file intervalli; ritorna il numero di intervalli letti. */
+  static long write(String intervalsFile) throws IOException {
+    long n = aggregate(intervalsFile);
+    downsample(intervalsFile, n, LTTB_POINTS);
+    return n;
+  }
+
+  // ---------- Lettura ----------
+
+  interface RowSink { void row(double[] v) throws IOException; }
+
+  // Righe dati del CSV intervalli come double (singolo o a segmenti; header e righe vuote saltati)
+  static long scan(String intervalsFile, RowSink sink) throws IOException {
+    double[] v = new double[C_IDLE + 1];
+    long n = 0;
+    try (BufferedReader in = SegmentedCsv.reader(intervalsFile)) {
+      for (String line; (line = in.readLine()) != null; ) {
+        if (line.isEmpty() || line.startsWith("t_start")) continue;
+        int from = 0;
+        for (int c = 0; c <= C_IDLE; c++) {
+          int comma = line.indexOf(',', from);
+          v[c] = Double.parseDouble(line.substring(from, (comma < 0) ? line.length() : comma));
+          from = comma + 1;
+        }
+        sink.row(v);
+        n++;
+      }
+    }
+    return n;
+  }
+
+  // ---------- Aggregati multi-risoluzione ----------
+
+  /** Valori di un bucket per una metrica: min/max/somma al volo, quantili a chiusura. */
+  static final class Stat {
+    double[] v = new double[64];
+    int n;
+    double min, max, sum;
+
+    void add(double x) {
+      if (n == v.length) v = Arrays.copyOf(v, 2 * n);
+      if (n == 0 || x < min) min = x;
+      if (n == 0 || x > max) max = x;
+      v[n++] = x;
+      sum += x;
+    }
+
+    void clear() { n = 0; sum = 0.0; }
+
+    // quantile nearest-rank; ordina i valori (chiamare solo a chiusura)
+    double quantile(double q) {
+      if (n == 0) return Double.NaN;
+      Arrays.sort(v, 0, n);
+      return v[Math.min(n - 1, Math.max(0, (int) Math.ceil(q * n) - 1))];
+    }
+
+    void write(AsyncCsvWriter out, int decimals, double mean) {
+      double p50 = quantile(0.50), p95 = quantile(0.95);
+      out.ch(',').num(min, decimals).ch(',').num(mean, decimals).ch(',').num(p50, decimals)
+         .ch(',').num(p95, decimals).ch(',').num(max, decimals);
+    }
+  }
+
+  /** Bucket corrente di un livello. */
+  static final class Level implements AutoCloseable {
+    final double width;
+    final AsyncCsvWriter out;
+    final Stat pool = new Stat(), target = new Stat(), rej = new Stat(), idle = new Stat();
+    long bucket = Long.MIN_VALUE;
+    long arrivals, rejects;
+    double idleArea, span;
+
+    Level(double width, String file) throws IOException {
+      this.width = width;
+      this.out = new AsyncCsvWriter(file);
+      out.line("t_start,t_end,intervals,arrivals,rejections,rejection_rate,"
+          + "pool_min,pool_mean,pool_p50,pool_p95,pool_max,"
+          + "target_min,target_mean,target_p50,target_p95,target_max,"
+          + "rej_rate_min,rej_rate_mean,rej_rate_p50,rej_rate_p95,rej_rate_max,"
+          + "idle_min,idle_mean,idle_p50,idle_p95,idle_max");
+    }
+
+    void add(double[] v) {
+      long b = (long) Math.floor(v[C_T_START] / width);
+      if (b != bucket) { flushBucket(); bucket = b; }
+      double dt = v[C_T_END] - v[C_T_START];
+      pool.add(v[C_POOL]);
+      target.add(v[C_TARGET]);
+      rej.add(v[C_REJ_RATE]);
+      idle.add(v[C_IDLE]);
+      arrivals += (long) v[C_ARRIVALS];
+      rejects  += (long) v[C_REJECTS];
+      idleArea += v[C_IDLE] * dt;
+      span     += dt;
+    }
+
+    void flushBucket() {
+      int n = pool.n;
+      if (n == 0) return;
+      out.num(bucket * width, 3).ch(',').num((bucket + 1) * width, 3).ch(',').num(n).ch(',')
+         .num(arrivals).ch(',').num(rejects).ch(',')
+         .num((arrivals > 0) ? (double) rejects / arrivals : 0.0, 6);
+      pool.write(out, 3, pool.sum / n);
+      target.write(out, 3, target.sum / n);
+      rej.write(out, 6, rej.sum / n);
+      idle.write(out, 3, (span > 0) ? idleArea / span : idle.sum / n);
+      out.endRow();
+      pool.clear(); target.clear(); rej.clear(); idle.clear();
+      arrivals = 0; rejects = 0; idleArea = 0.0; span = 0.0;
+    }
+
+    @Override
+    public void close() throws IOException {
+      flushBucket();
+      out.close();
+    }
+  }
+
+  static long aggregate(String intervalsFile) throws IOException {
+    Level[] levels = new Level[LEVELS_SEC.length];
+    try {
+      for (int k = 0; k < levels.length; k++) levels[k] = new Level(LEVELS_SEC[k], aggFile(intervalsFile, LEVELS_SEC[k]));
+      return scan(intervalsFile, v -> { for (Level l : levels) l.add(v); });
+    } finally {
+      for (Level l : levels) if (l != null) l.close();
+    }
+  }
+
+  // ---------- Downsampling LTTB ----------
+
+  interface PointSink { void point(double x, double y); }
+
+  /**
+   * LTTB in streaming su n punti noti in anticipo: il punto del bucket j è
+   * scelto quando il bucket j+1 è completo (serve la sua media), quindi in
+   * memoria ci sono solo il bucket in attesa e quello in riempimento.
+   */
+  static final class Lttb {
+    private final long n;
+    private final int threshold;
+    private final double every;
+    private final PointSink sink;
+
+    private long i;                 // indice del prossimo punto
+    private int bucket;             // bucket in riempimento
+    private long bucketEnd;         // primo indice oltre il bucket in riempimento
+    private double ax, ay;          // ultimo punto scelto
+    private double[] px = new double[16], py = new double[16]; // bucket in attesa
+    private int pn = -1;            // -1 = nessun bucket in attesa
+    private double[] fx = new double[16], fy = new double[16]; // bucket in riempimento
+    private int fn;
+
+    Lttb(long n, int threshold, PointSink sink) {
+      this.n = n;
+      this.threshold = threshold;
+      this.every = (threshold > 2) ? (n - 2) / (double) (threshold - 2) : 0.0;
+      this.sink = sink;
+      this.bucketEnd = end(0);
+    }
+
+    private boolean passThrough() { return threshold <= 2 || n <= threshold; }
+
+    private long end(int j) {
+      return (j >= threshold - 3) ? n - 1 : Math.min(n - 1, (long) Math.floor((j + 1) * every) + 1);
+    }
+
+    void add(double x, double y) {
+      long k = i++;
+      if (passThrough() || k == 0) {
+        sink.point(x, y);
+        ax = x; ay = y;
+        return;
+      }
+      if (k == n - 1) {
+        completeBucket();
+        select(x, y);
+        sink.point(x, y);
+        return;
+      }
+      if (k >= bucketEnd) {
+        completeBucket();
+        bucket++;
+        bucketEnd = end(bucket);
+      }
+      if (fn == fx.length) { fx = Arrays.copyOf(fx, 2 * fn); fy = Arrays.copyOf(fy, 2 * fn); }
+      fx[fn] = x; fy[fn] = y; fn++;
+    }
+
+    // Bucket in riempimento completo: sceglie il punto di quello in attesa e gli passa il turno
+    private void completeBucket() {
+      if (fn == 0) return;
+      if (pn >= 0) {
+        double cx = 0.0, cy = 0.0;
+        for (int k = 0; k < fn; k++) { cx += fx[k]; cy += fy[k]; }
+        select(cx / fn, cy / fn);
+      }
+      double[] tx = px, ty = py;
+      px = fx; py = fy; pn = fn;
+      fx = tx; fy = ty; fn = 0;
+    }
+
+    // Punto del bucket in attesa con il triangolo più grande tra l'ultimo scelto e (cx, cy)
+    private void select(double cx, double cy) {
+      if (pn <= 0) return;
+      int best = 0;
+      double bestArea = -1.0;
+      for (int k = 0; k < pn; k++) {
+        double area = Math.abs((ax - cx) * (py[k] - ay) - (ax - px[k]) * (cy - ay));
+        if (area > bestArea) { bestArea = area; best = k; }
+      }
+      ax = px[best]; ay = py[best];
+      sink.point(ax, ay);
+      pn = -1;
+    }
+  }
+
+  static void downsample(String intervalsFile, long n, int points) throws IOException {
+    try (AsyncCsvWriter out = new AsyncCsvWriter(lttbFile(intervalsFile))) {
+      out.line("series,t,value");
+      int[] cols = { C_POOL, C_TARGET, C_REJ_RATE, C_IDLE };
+      int[] decimals = { 0, 0, 6, 3 };
+      Lttb[] lttb = new Lttb[SERIES.length];
+      for (int s = 0; s < SERIES.length; s++) {
+        final String name = SERIES[s];
+        final int dec = decimals[s];
+        lttb[s] = new Lttb(n, points, (x, y) -> out.text(name).ch(',').num(x, 3).ch(',').num(y, dec).endRow());
+      }
+      scan(intervalsFile, v -> {
+        double mid = (v[C_T_START] + v[C_T_END]) / 2.0;
+        for (int s = 0; s < cols.length; s++) lttb[s].add(mid, v[cols[s]]);
+      });
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    String[] files = args;
+    if (files.length == 0) {
+      try (var list = Files.list(Path.of("."))) {
+        files = list.map(p -> p.getFileName().toString())
+            .filter(f -> f.startsWith("timeseries_intervals_") && (f.endsWith(".manifest.csv") || f.endsWith(".csv")))
+            .map(f -> f.replaceFirst("\\.manifest\\.csv$", ".csv"))
+            .distinct()
+            .sorted().toArray(String[]::new);
+      }
+    }
+    for (String f : files) {
+      long t0 = System.nanoTime();
+      long n = write(f);
+      System.out.printf(Locale.US, "[ok] %s: %d intervalli -> %s + %d livelli di aggregati (%.3f s)%n",
+          f, n, lttbFile(f), LEVELS_SEC.length, (System.nanoTime() - t0) / 1e9);
+    }
+  }
+}
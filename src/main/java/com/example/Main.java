@@ -4,10 +4,18 @@ import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.math.BigDecimal;
+import java.text.DecimalFormatSymbols;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 
 import org.oristool.models.gspn.GSPNSteadyState;
 import org.oristool.models.gspn.GSPNTransient;
@@ -21,13 +29,61 @@ import org.oristool.util.Pair;
 public class Main {
 
     private static final String NL = System.lineSeparator();
+    // separatore decimale del locale di default, come String.format senza Locale
+    private static final char DEC_SEP =
+            DecimalFormatSymbols.getInstance(Locale.getDefault(Locale.Category.FORMAT)).getDecimalSeparator();
     private static final double  T_SWITCH = 10.0;
 
+    // Parametri del modello (comuni alle analisi)
+    private static final int     NUM_PH   = 4;
+    private static final int[][] W_BASE   = { {1,1,1,1}, {1,2,3,4}, {4,3,2,1} };
+    private static final int     RATE_DIV = 20, BPH_DIV = 5, W_DIV = 20;
+
+    // Oltre questa dimensione stimata il transitorio passa alla simulazione
+    private static final double  EXACT_MAX_STATES = 500_000;
+    private static final long    SMC_TRAJECTORIES = 1_000_000;
+
     public static void main(String[] args) {
 
         int[] rateLow   = { 2,  3, 1 };    // before switch
         int[] rateHigh  = { 8, 12, 4 };    // after switch
 
+        // "sweep [pool]": what-if sui mix di rate con un solo spazio degli stati
+        if (args.length > 0 && args[0].equals("sweep")) {
+            int pool = (args.length > 1) ? Integer.parseInt(args[1]) : 8;
+            int[][] mixes = { rateLow, rateHigh, {4,6,2}, {6,9,3}, {10,15,5}, {12,18,6} };
+            runRateSweep("sweep_rates.txt", pool, mixes);
+            return;
+        }
+
+        // "tsweep [budgetMB]": transitorio dinamico su tSwitch x deltaPool x coppie di rate
+        if (args.length > 0 && args[0].equals("tsweep")) {
+            long budget = (args.length > 1) ? Long.parseLong(args[1]) << 20
+                                            : Runtime.getRuntime().maxMemory() / 2;
+            double[]  tSwitches  = { 2.5, 5.0, T_SWITCH, 20.0, 40.0 };
+            int[]     deltaPools = { 2, 4, 6 };
+            int[][][] pairs = { {rateLow, rateHigh}, {rateLow, {6,9,3}}, {rateLow, {10,15,5}},
+                                {{4,6,2}, rateHigh} };
+            runTransitionSweep("transition_sweep.csv", 4, deltaPools, tSwitches, pairs, budget);
+            return;
+        }
+
+        // "validate [pool]": simulazione vs transitorio esatto Sirio
+        if (args.length > 0 && args[0].equals("validate")) {
+            int pool = (args.length > 1) ? Integer.parseInt(args[1]) : 8;
+            runSmcValidation("validate_smc.txt", rateHigh, pool);
+            return;
+        }
+
+        // "capacity [r1 r2 r3]": curva di capacità per Pool = 1..POOL_MAX
+        if (args.length > 0 && args[0].equals("capacity")) {
+            int[] rates = (args.length > 3)
+                    ? new int[]{ Integer.parseInt(args[1]), Integer.parseInt(args[2]), Integer.parseInt(args[3]) }
+                    : rateHigh;
+            runCapacityCurve("capacity_curve.csv", rates, TimeseriesSimulator.POOL_MAX);
+            return;
+        }
+
         AnalysisResult high = runAnalysis("risultati_high.txt",
                                           rateHigh,   
                                           8);                    
@@ -52,14 +108,12 @@ public class Main {
 
         try (BufferedWriter w = new BufferedWriter(new FileWriter(fileName, false))) {
 
-            int numPh   = 4;
-            int[][] W   = { {1,1,1,1}, {1,2,3,4}, {4,3,2,1} };
-            int rateDiv = 20, bphDiv = 5, wDiv = 20;
-
+            SimEvents.AnalysisPhase phase = SimEvents.AnalysisPhase.start("build", fileName, poolTokens);
             ModelOris2 model = new ModelOris2(rates, poolTokens,
-                                              numPh, W, rateDiv, bphDiv, wDiv);
+                                              NUM_PH, W_BASE, RATE_DIV, BPH_DIV, W_DIV);
             PetriNet net = model.build();
             Marking  m0  = model.buildInitialMarking(net);
+            phase.done();
 
             w.write("=== INITIAL MARKING ===" + NL + m0 + NL + NL);
 
@@ -73,34 +127,43 @@ public class Main {
 
             double[] snapshot = new double[5];
 
+            // Metodo scelto sulla dimensione stimata dello spazio degli stati
+            phase = SimEvents.AnalysisPhase.start("state-estimate", fileName, poolTokens);
+            IndexedNet folded = ModelTemplate.oris2(NUM_PH, W_BASE, W_DIV).folded(m0);
+            double estStates  = TransientEstimator.estimateStates(folded, folded.toArray(m0));
+            phase.done();
+            if (estStates > EXACT_MAX_STATES) {
+                double step = 0.1, time = 40.0;
+                phase = SimEvents.AnalysisPhase.start("smc-transient", fileName, poolTokens);
+                TransientEstimator.Result est = new TransientEstimator(folded)
+                        .trajectories(SMC_TRAJECTORIES)
+                        .estimate(folded.toArray(m0), time, step, rewardFns(folded, rewards));
+                phase.done();
+
+                w.write(String.format(Locale.US,
+                        "--- TRANSIENT REWARDS (simulazione: %d traiettorie, stati stimati %.0f) ---",
+                        est.trajectories, estStates) + NL);
+                writeTable(w, rewards, est.mean, step);
+                w.write("--- IC 95% (semi-ampiezza) ---" + NL);
+                writeTable(w, rewards, est.halfWidth, step);
+                w.write("Steady-state SKIPPED: spazio degli stati oltre la soglia dell'analisi esatta" + NL + NL);
+
+                snapshot = Arrays.copyOf(est.mean[est.mean.length - 1], 5);
+                w.flush();
+                return new AnalysisResult(snapshot, poolTokens);
+            }
+
             // Transient analysis
             try {
                 double step = 0.1, time = 40.0;
-                Pair<Map<Marking,Integer>, double[][]> res =
-                        GSPNTransient.builder()
-                                     .timePoints(0.0, time, step)
-                                     .build()
-                                     .compute(net, m0);
-
-                TransientSolution<Marking,RewardRate> ts =
-                        TransientSolution.computeRewards(false,
-                                TransientSolution.fromArray(res.second(), step,
-                                                            res.first(), m0),
-                                rewards.toArray(new RewardRate[0]));
+                phase = SimEvents.AnalysisPhase.start("transient", fileName, poolTokens);
+                double[][] M = sirioTransient(net, m0, time, step, rewards);
+                phase.done();
 
                 w.write("--- TRANSIENT REWARDS ---" + NL);
-                w.write("t "); for (RewardRate r : rewards) w.write(r + " "); w.write(NL);
-
-                double[][][] M = ts.getSolution();
-                for (int i = 0; i < M.length; i++) {
-                    w.write(String.format("%.1f ", i * step));
-                    for (double v : M[i][0])
-                        w.write(String.format("%.5f ", v));
-                    w.write(NL);
-                }
-                w.write(NL);
+                writeTable(w, rewards, M, step);
 
-                snapshot = Arrays.copyOf(M[M.length - 1][0], 5);
+                snapshot = Arrays.copyOf(M[M.length - 1], 5);
 
             } catch (Exception ex) {
                 w.write("Transient ERROR: " + ex.getMessage() + NL + NL);
@@ -108,8 +171,10 @@ public class Main {
 
             // Steady-state analysis
             try {
+                phase = SimEvents.AnalysisPhase.start("steady-state", fileName, poolTokens);
                 Map<Marking, Double> raw =
                         GSPNSteadyState.builder().build().compute(net, m0);
+                phase.done();
                 Map<Marking, BigDecimal> bd = new HashMap<>();
                 raw.forEach((k, v) -> bd.put(k, BigDecimal.valueOf(v)));
 
@@ -136,6 +201,242 @@ public class Main {
         }
     }
 
+    // Transitorio esatto Sirio: [punto temporale][reward]
+    private static double[][] sirioTransient(PetriNet net, Marking m0, double time, double step,
+                                             List<RewardRate> rewards) {
+        Pair<Map<Marking,Integer>, double[][]> res =
+                GSPNTransient.builder()
+                             .timePoints(0.0, time, step)
+                             .build()
+                             .compute(net, m0);
+
+        TransientSolution<Marking,RewardRate> ts =
+                TransientSolution.computeRewards(false,
+                        TransientSolution.fromArray(res.second(), step,
+                                                    res.first(), m0),
+                        rewards.toArray(new RewardRate[0]));
+
+        double[][][] M = ts.getSolution();
+        double[][] out = new double[M.length][];
+        for (int i = 0; i < M.length; i++) out[i] = M[i][0];
+        return out;
+    }
+
+    // Tabella "t r1 r2 ..." come nei file risultati_*.txt
+    private static void writeTable(BufferedWriter w, List<?> rewards,
+                                   double[][] M, double step) throws IOException {
+        w.write("t "); for (Object r : rewards) w.write(r + " "); w.write(NL);
+        StringBuilder sb = new StringBuilder(256);
+        for (int i = 0; i < M.length; i++) w.append(tableRow(sb, i * step, M[i]));
+        w.write(NL);
+    }
+
+    // Riga "%.1f %.5f %.5f ... " senza Formatter (stesso output, buffer riusato)
+    private static StringBuilder tableRow(StringBuilder sb, double t, double[] row) {
+        sb.setLength(0);
+        AsyncCsvWriter.appendFixed(sb, t, 1, DEC_SEP).append(' ');
+        for (double v : row) AsyncCsvWriter.appendFixed(sb, v, 5, DEC_SEP).append(' ');
+        return sb.append(NL);
+    }
+
+    private static IndexedNet.MarkingFn[] rewardFns(IndexedNet net, List<RewardRate> rewards) {
+        IndexedNet.MarkingFn[] fns = new IndexedNet.MarkingFn[rewards.size()];
+        for (int r = 0; r < fns.length; r++) fns[r] = net.reward(rewards.get(r).toString());
+        return fns;
+    }
+
+    /**
+     * Validazione incrociata: transitorio esatto (GSPNTransient) contro la stima
+     * per simulazione, con la frazione di punti in cui l'esatto cade nell'IC 95%.
+     */
+    public static void runSmcValidation(String fileName, int[] rates, int poolTokens) {
+
+        try (BufferedWriter w = new BufferedWriter(new FileWriter(fileName, false))) {
+
+            ModelOris2 model = new ModelOris2(rates, poolTokens,
+                                              NUM_PH, W_BASE, RATE_DIV, BPH_DIV, W_DIV);
+            PetriNet net = model.build();
+            Marking  m0  = model.buildInitialMarking(net);
+            List<RewardRate> rewards = List.of(
+                RewardRate.fromString("Pool"),
+                RewardRate.fromString("Ph1"),
+                RewardRate.fromString("Ph2"),
+                RewardRate.fromString("Ph3"),
+                RewardRate.fromString("Ph4")
+            );
+
+            double step = 0.1, time = 40.0;
+            double[][] exact = sirioTransient(net, m0, time, step, rewards);
+
+            IndexedNet folded = ModelTemplate.oris2(NUM_PH, W_BASE, W_DIV).folded(m0);
+            TransientEstimator.Result est = new TransientEstimator(folded)
+                    .trajectories(SMC_TRAJECTORIES)
+                    .estimate(folded.toArray(m0), time, step, rewardFns(folded, rewards));
+
+            w.write("t");
+            for (RewardRate r : rewards) w.write(" " + r + "_exact " + r + "_sim " + r + "_hw");
+            w.write(NL);
+            int inside = 0, total = 0;
+            double maxDiff = 0.0;
+            StringBuilder sb = new StringBuilder(256);
+            for (int i = 0; i < exact.length; i++) {
+                sb.setLength(0);
+                AsyncCsvWriter.appendFixed(sb, i * step, 1, '.');
+                for (int r = 0; r < rewards.size(); r++) {
+                    double d = Math.abs(exact[i][r] - est.mean[i][r]);
+                    maxDiff = Math.max(maxDiff, d);
+                    if (d <= est.halfWidth[i][r]) inside++;
+                    total++;
+                    AsyncCsvWriter.appendFixed(sb.append(' '), exact[i][r], 5, '.');
+                    AsyncCsvWriter.appendFixed(sb.append(' '), est.mean[i][r], 5, '.');
+                    AsyncCsvWriter.appendFixed(sb.append(' '), est.halfWidth[i][r], 5, '.');
+                }
+                w.append(sb).write(NL);
+            }
+            w.write(NL + String.format(Locale.US,
+                    "copertura IC95: %.2f%% | max |esatto-sim|: %.5f | traiettorie: %d | tempo sim: %.3f s",
+                    100.0 * inside / total, maxDiff, est.trajectories, est.seconds) + NL);
+
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+        }
+    }
+
+    // Sweep sui rate: grafo esplorato una volta per poolTokens (Rate* parametri),
+    // per ogni mix si rivalutano solo i rate e si risolve la CTMC
+    public static void runRateSweep(String  fileName,
+                                    int     poolTokens,
+                                    int[][] rateConfigs) {
+
+        try (BufferedWriter w = new BufferedWriter(new FileWriter(fileName, false))) {
+
+            ModelOris2 model = new ModelOris2(rateConfigs[0], poolTokens,
+                                              NUM_PH, W_BASE, RATE_DIV, BPH_DIV, W_DIV);
+            PetriNet net = model.build();
+            Marking  m0  = model.buildInitialMarking(net);
+
+            long t0 = System.nanoTime();
+            SimEvents.AnalysisPhase phase = SimEvents.AnalysisPhase.start("explore", fileName, poolTokens);
+            IndexedNet folded = ModelTemplate.oris2(NUM_PH, W_BASE, W_DIV)
+                    .folded(m0, "Rate1", "Rate2", "Rate3");
+            ParametricStateSpace pss = new ReachabilityExplorer(folded)
+                    .parameters("Rate1", "Rate2", "Rate3")
+                    .exploreParametric(m0);
+            phase.done();
+            w.write(String.format(Locale.US, "=== STATE SPACE === Pool=%d stati=%d archi=%d (%.3f s)",
+                                  poolTokens, pss.size(), pss.edgeCount(),
+                                  (System.nanoTime() - t0) / 1e9) + NL + NL);
+
+            String[] rewards = { "Pool", "Ph1", "Ph2", "Ph3", "Ph4" };
+            String   reject  = "If(Pool==0,(Rate1+Rate2+Rate3)/RateDiv,0)";
+            double step = 0.1, time = 40.0;
+
+            for (int[] rates : rateConfigs) {
+                StateSpace ss = pss.instantiate(rates);
+                double[][] rv = new double[rewards.length][];
+                for (int r = 0; r < rewards.length; r++) rv[r] = ss.rewardVector(rewards[r]);
+
+                w.write("=== RATES " + Arrays.toString(rates) + " ===" + NL);
+                w.write("--- TRANSIENT REWARDS ---" + NL);
+                writeTable(w, Arrays.asList(rewards),
+                           CtmcSolver.transientRewards(ss, time, step, rv), step);
+
+                double[] pi = CtmcSolver.steadyState(ss);
+                w.write("--- STEADY-STATE REWARDS ---" + NL);
+                for (int r = 0; r < rewards.length; r++)
+                    w.write(rewards[r] + " : " + CtmcSolver.expected(pi, rv[r]) + NL);
+                w.write("Rejection : " + CtmcSolver.expected(pi, ss.rewardVector(reject)) + NL + NL);
+            }
+            w.flush();
+
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+        }
+    }
+
+    /**
+     * Curva di capacità: per ogni Pool = 1..poolMax rejection e idle a regime
+     * e medi sull'orizzonte del controller (transitorio da sistema vuoto).
+     * Le taglie girano in parallelo, dalla più grande; ciascuna riusa la rete
+     * ripiegata e una codifica già dimensionata (nessuna riesplorazione per overflow).
+     * Il CSV è la tabella di lookup letta da CapacityTable, baseline della
+     * politica PoolController.Capacity (ControllerBench, spec capacity[:file]).
+     */
+    public static void runCapacityCurve(String fileName, int[] rates, int poolMax) {
+
+        double horizon = TimeseriesSimulator.HORIZON_SEC, step = 0.1;
+        String reject  = "If(Pool==0,(Rate1+Rate2+Rate3)/RateDiv,0)";
+        String full    = "If(Pool==0,1,0)";
+
+        double[][] rows = new double[poolMax + 1][];
+        int cores = Runtime.getRuntime().availableProcessors();
+        ExecutorService exec = Executors.newFixedThreadPool(cores);
+        try {
+            List<Future<?>> jobs = new ArrayList<>();
+            for (int n = poolMax; n >= 1; n--) {
+                final int pool = n;
+                jobs.add(exec.submit(() -> {
+                    ModelOris2 model = new ModelOris2(rates, pool,
+                                                      NUM_PH, W_BASE, RATE_DIV, BPH_DIV, W_DIV);
+                    PetriNet net = model.build();
+                    Marking  m0  = model.buildInitialMarking(net);
+                    IndexedNet folded = ModelTemplate.oris2(NUM_PH, W_BASE, W_DIV).folded(m0);
+
+                    SimEvents.AnalysisPhase phase = SimEvents.AnalysisPhase.start("explore", fileName, pool);
+                    ReachabilityExplorer ex = new ReachabilityExplorer(folded).parallelism(1);
+                    ex.bound("Pool", pool);
+                    for (int j = 1; j <= NUM_PH; j++) ex.bound("Ph" + j, pool);
+                    StateSpace ss = ex.explore(m0);
+                    phase.done();
+
+                    double[] rejR  = ss.rewardVector(reject);
+                    double[] fullR = ss.rewardVector(full);
+                    double[] idleR = ss.rewardVector("Pool");
+                    double[] pi = CtmcSolver.steadyState(ss);
+                    double[][] tr = CtmcSolver.transientRewards(ss, horizon, step, fullR, idleR);
+                    double trFull = 0.0, trIdle = 0.0;
+                    for (double[] r : tr) { trFull += r[0]; trIdle += r[1]; }
+
+                    rows[pool] = new double[]{
+                        ss.size(),
+                        CtmcSolver.expected(pi, fullR),
+                        CtmcSolver.expected(pi, rejR),
+                        CtmcSolver.expected(pi, idleR),
+                        trFull / tr.length,
+                        trIdle / tr.length
+                    };
+                }));
+            }
+            for (Future<?> f : jobs) f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
+            return;
+        } finally {
+            exec.shutdown();
+        }
+
+        try (BufferedWriter w = new BufferedWriter(new FileWriter(fileName, false))) {
+            w.write("pool,states,ss_rej_prob,ss_rej_rate,ss_idle_mean,tr_rej_prob,tr_idle_mean" + NL);
+            StringBuilder sb = new StringBuilder(128);
+            for (int n = 1; n <= poolMax; n++) {
+                double[] r = rows[n];
+                sb.setLength(0);
+                sb.append(n).append(',').append((int) r[0]);
+                AsyncCsvWriter.appendFixed(sb.append(','), r[1], 6, '.');
+                AsyncCsvWriter.appendFixed(sb.append(','), r[2], 6, '.');
+                AsyncCsvWriter.appendFixed(sb.append(','), r[3], 5, '.');
+                AsyncCsvWriter.appendFixed(sb.append(','), r[4], 6, '.');
+                AsyncCsvWriter.appendFixed(sb.append(','), r[5], 5, '.');
+                w.append(sb).write(NL);
+            }
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+        }
+    }
+
     // Dynamic model 
     public static void runTransitionAnalysis(String   fileName,
                                              double[] wLow,          
@@ -152,11 +453,14 @@ public class Main {
                                net, lowPoolTokens, deltaPool);
 
             double step = 0.1, time = 20.0;
+            SimEvents.AnalysisPhase phase =
+                    SimEvents.AnalysisPhase.start("transient-dynamic", fileName, lowPoolTokens);
             Pair<Map<Marking,Integer>, double[][]> res =
                     GSPNTransient.builder()
                                  .timePoints(0.0, time, step)
                                  .build()
                                  .compute(net, m0);
+            phase.done();
 
             List<RewardRate> rewards = List.of(
                 RewardRate.fromString("Pool"),
@@ -178,12 +482,8 @@ public class Main {
             w.write("t "); for (RewardRate r : rewards) w.write(r + " "); w.write(NL);
 
             double[][][] M = ts.getSolution();
-            for (int i = 0; i < M.length; i++) {
-                w.write(String.format("%.1f ", i * step));
-                for (double v : M[i][0])
-                    w.write(String.format("%.5f ", v));
-                w.write(NL);
-            }
+            StringBuilder sb = new StringBuilder(256);
+            for (int i = 0; i < M.length; i++) w.append(tableRow(sb, i * step, M[i][0]));
             w.flush();
 
         } catch (IOException ioe) {
@@ -191,6 +491,156 @@ public class Main {
         }
     }
 
+    /**
+     * Sweep del modello dinamico su deltaPool x coppie (rateLow, rateHigh) x tSwitch.
+     * I pesi Init sono lo snapshot a 40 s del modello low, uno per rateLow distinto
+     * (grafo esplorato una volta, Rate* parametri). La rete dinamica è esplorata una
+     * volta per (deltaPool, rateLow) con RateLow*, RateHigh* e TSwitch parametri:
+     * ogni punto della griglia istanzia solo i rate e risolve il transitorio.
+     * I punti girano in parallelo entro memBudget byte: ogni job prenota la stima dei
+     * propri vettori prima di istanziare. Una riga per (configurazione, t).
+     */
+    public static void runTransitionSweep(String     fileName,
+                                          int        lowPool,
+                                          int[]      deltaPools,
+                                          double[]   tSwitches,
+                                          int[][][]  ratePairs,
+                                          long       memBudget) {
+
+        double step = 0.1, time = 20.0;
+        String[] rewards = { "Pool", "Ph1", "Ph2", "Ph3", "Ph4", "PhaseLow", "PhaseHigh" };
+        String[] params  = ModelOris2.THIRD_MODEL_PARAMS;
+        int points = (int) Math.round(time / step) + 1;
+
+        // ---------- Snapshot low per rateLow ----------
+        Map<String, double[]> wLow = new HashMap<>();
+        ModelOris2 lowModel = new ModelOris2(ratePairs[0][0], lowPool,
+                                             NUM_PH, W_BASE, RATE_DIV, BPH_DIV, W_DIV);
+        PetriNet lowNet = lowModel.build();
+        Marking  lowM0  = lowModel.buildInitialMarking(lowNet);
+        ParametricStateSpace lowPss = new ReachabilityExplorer(
+                ModelTemplate.oris2(NUM_PH, W_BASE, W_DIV).folded(lowM0, "Rate1", "Rate2", "Rate3"))
+                .parameters("Rate1", "Rate2", "Rate3")
+                .exploreParametric(lowM0);
+        double[][] lowRv = new double[5][];
+        for (int r = 0; r < 5; r++) lowRv[r] = lowPss.rewardVector(rewards[r]);
+        for (int[][] pair : ratePairs) {
+            wLow.computeIfAbsent(Arrays.toString(pair[0]), k -> {
+                double[][] M = CtmcSolver.transientRewards(lowPss.instantiate(pair[0]), 40.0, 0.1, lowRv);
+                return M[M.length - 1];
+            });
+        }
+
+        // ---------- Griglia ----------
+        int perDelta = ratePairs.length * tSwitches.length;
+        double[][][] curves = new double[deltaPools.length * perDelta][][];
+        int[] states = new int[curves.length];
+
+        int budgetMb = (int) Math.max(1, Math.min(Integer.MAX_VALUE, memBudget >> 20));
+        Semaphore mem = new Semaphore(budgetMb);
+        int cores = Runtime.getRuntime().availableProcessors();
+        ExecutorService exec = Executors.newFixedThreadPool(cores);
+        try {
+            for (int d = 0; d < deltaPools.length; d++) {
+                int delta = deltaPools[d];
+                // strutture di questo deltaPool, rilasciate a fine blocco
+                Map<String, ParametricStateSpace> graphs = new HashMap<>();
+                Map<String, double[][]> rvs = new HashMap<>();
+                List<Future<?>> jobs = new ArrayList<>();
+
+                for (int p = 0; p < ratePairs.length; p++) {
+                    int[] rLow = ratePairs[p][0], rHigh = ratePairs[p][1];
+                    String key = Arrays.toString(rLow);
+                    ParametricStateSpace pss = graphs.get(key);
+                    if (pss == null) {
+                        PetriNet net = ModelOris2.getThirdModelParametric(wLow.get(key));
+                        Marking  m0  = ModelOris2.getThirdModelParametricMarking(net, lowPool, delta,
+                                ModelOris2.thirdModelParams(rLow, rHigh, tSwitches[0]));
+                        SimEvents.AnalysisPhase phase =
+                                SimEvents.AnalysisPhase.start("explore", fileName, lowPool + delta);
+                        pss = new ReachabilityExplorer(IndexedNet.of(net).foldConstants(m0, params))
+                                .parameters(params)
+                                .exploreParametric(m0);
+                        phase.done();
+                        double[][] rv = new double[rewards.length][];
+                        for (int r = 0; r < rewards.length; r++) rv[r] = pss.rewardVector(rewards[r]);
+                        graphs.put(key, pss);
+                        rvs.put(key, rv);
+                    }
+                    final ParametricStateSpace g = pss;
+                    final double[][] rv = rvs.get(key);
+                    int permits = (int) Math.min(budgetMb,
+                            Math.max(1, (jobBytes(g, points, rewards.length) + (1 << 20) - 1) >> 20));
+
+                    for (int k = 0; k < tSwitches.length; k++) {
+                        final int id = d * perDelta + p * tSwitches.length + k;
+                        final int[] values = ModelOris2.thirdModelParams(rLow, rHigh, tSwitches[k]);
+                        jobs.add(exec.submit(() -> {
+                            mem.acquireUninterruptibly(permits);
+                            try {
+                                StateSpace ss = g.instantiate(values);
+                                curves[id] = CtmcSolver.transientRewards(ss, time, step, rv);
+                                states[id] = ss.size();
+                            } finally {
+                                mem.release(permits);
+                            }
+                        }));
+                    }
+                }
+                SimEvents.AnalysisPhase phase =
+                        SimEvents.AnalysisPhase.start("transient-sweep", fileName, lowPool + delta);
+                for (Future<?> f : jobs) f.get();
+                phase.done();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
+            return;
+        } finally {
+            exec.shutdown();
+        }
+
+        try (BufferedWriter w = new BufferedWriter(new FileWriter(fileName, false))) {
+            w.write("delta_pool,t_switch,rate_low,rate_high,states,t");
+            for (String r : rewards) w.write("," + r);
+            w.write(NL);
+            StringBuilder sb = new StringBuilder(256);
+            for (int d = 0; d < deltaPools.length; d++)
+                for (int p = 0; p < ratePairs.length; p++)
+                    for (int k = 0; k < tSwitches.length; k++) {
+                        int id = d * perDelta + p * tSwitches.length + k;
+                        String head = deltaPools[d] + "," + tSwitches[k] + ","
+                                + rateText(ratePairs[p][0]) + "," + rateText(ratePairs[p][1]) + ","
+                                + states[id] + ",";
+                        double[][] M = curves[id];
+                        for (int i = 0; i < M.length; i++) {
+                            sb.setLength(0);
+                            AsyncCsvWriter.appendFixed(sb.append(head), i * step, 1, '.');
+                            for (double v : M[i]) AsyncCsvWriter.appendFixed(sb.append(','), v, 5, '.');
+                            w.append(sb).write(NL);
+                        }
+                    }
+        } catch (IOException ioe) {
+            ioe.printStackTrace();
+        }
+    }
+
+    // Stima dei byte vivi di un job: rate istanziati, CSR e temporanei di fromEdges,
+    // trasposta, vettori dell'uniformizzazione, tabella dei reward
+    private static long jobBytes(ParametricStateSpace pss, int points, int rewards) {
+        long e = pss.edgeCount(), n = pss.size();
+        return 56L * e + 100L * n + 8L * points * rewards;
+    }
+
+    // "2/3/1": rate di una classe per posizione, senza virgole per il CSV
+    private static String rateText(int[] rates) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < rates.length; i++) sb.append(i == 0 ? "" : "/").append(rates[i]);
+        return sb.toString();
+    }
+
         public static class AnalysisResult {
         public final double[] snapshot;
         public final int      poolSize;
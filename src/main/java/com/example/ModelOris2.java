@@ -31,7 +31,12 @@ public class ModelOris2 {
         this.wDiv     = wDiv;
     }
 
+    // Rete condivisa del template (stessa struttura per rate e Pool diversi): non modificarla
     public PetriNet build() {
+        return ModelTemplate.oris2(numPh, W, wDiv).net;
+    }
+
+    static PetriNet structure(int numPh, int[][] W, int wDiv) {
 
         PetriNet net = new PetriNet();
         Place pool = net.addPlace("Pool");
@@ -120,6 +125,32 @@ public class ModelOris2 {
                                          int[]    rateLow,   // {2,3,1}
                                          int[]    rateHigh,  // {8,12,4}
                                          double   tSwitch) {
+        return thirdModel(wLow, rateLow, rateHigh, tSwitch, false);
+    }
+
+    // Rete dinamica con rate low/high e tSwitch letti da posti parametro
+    // (THIRD_MODEL_PARAMS): stessa struttura per ogni valore, si esplora una volta
+    public static final String[] THIRD_MODEL_PARAMS = {
+        "RateLow1", "RateLow2", "RateLow3", "RateHigh1", "RateHigh2", "RateHigh3", "TSwitch"
+    };
+    // TSwitch in decimi di secondo: rate di switch = SwitchDiv/TSwitch
+    public static final int SWITCH_DIV = 10;
+
+    public static PetriNet getThirdModelParametric(double[] wLow) {
+        return thirdModel(wLow, null, null, 0.0, true);
+    }
+
+    // Valori dei parametri nell'ordine di THIRD_MODEL_PARAMS
+    public static int[] thirdModelParams(int[] rateLow, int[] rateHigh, double tSwitch) {
+        long ticks = Math.round(tSwitch * SWITCH_DIV);
+        if (ticks < 1 || Math.abs(ticks - tSwitch * SWITCH_DIV) > 1e-9 || ticks > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("tSwitch non rappresentabile in decimi di secondo: " + tSwitch);
+        return new int[]{ rateLow[0], rateLow[1], rateLow[2],
+                          rateHigh[0], rateHigh[1], rateHigh[2], (int) ticks };
+    }
+
+    private static PetriNet thirdModel(double[] wLow, int[] rateLow, int[] rateHigh,
+                                       double tSwitch, boolean parametric) {
 
         PetriNet net = new PetriNet();
 
@@ -145,14 +176,26 @@ public class ModelOris2 {
         Place lowGate  = net.addPlace("PhaseLow");
         Place highGate = net.addPlace("PhaseHigh");
         Transition sw  = net.addTransition("tSwitchPhase");
-        sw.addFeature(StochasticTransitionFeature.newExponentialInstance(
-                BigDecimal.valueOf(1.0 / tSwitch), MarkingExpr.from("1", net)));
+        if (parametric) {
+            for (String name : THIRD_MODEL_PARAMS) net.addPlace(name);
+            net.addPlace("SwitchDiv");
+            sw.addFeature(StochasticTransitionFeature.newExponentialInstance(
+                    BigDecimal.ONE, MarkingExpr.from("SwitchDiv/TSwitch", net)));
+        } else {
+            sw.addFeature(StochasticTransitionFeature.newExponentialInstance(
+                    BigDecimal.valueOf(1.0 / tSwitch), MarkingExpr.from("1", net)));
+        }
         net.addPrecondition(lowGate, sw);
         net.addPostcondition(sw, highGate);
 
         for (int i = 0; i < 3; i++) {
-            addRelease(net, "Low",  i, rateLow[i],  pool, P[i], A[i], lowGate);
-            addRelease(net, "High", i, rateHigh[i], pool, P[i], A[i], highGate);
+            if (parametric) {
+                addRelease(net, "Low",  i, BigDecimal.ONE, "RateLow"+(i+1),  pool, P[i], A[i], lowGate);
+                addRelease(net, "High", i, BigDecimal.ONE, "RateHigh"+(i+1), pool, P[i], A[i], highGate);
+            } else {
+                addRelease(net, "Low",  i, BigDecimal.valueOf(rateLow[i]),  "1", pool, P[i], A[i], lowGate);
+                addRelease(net, "High", i, BigDecimal.valueOf(rateHigh[i]), "1", pool, P[i], A[i], highGate);
+            }
         }
 
         int[][] Wbase = { {1,1,1,1}, {1,2,3,4}, {4,3,2,1} };
@@ -182,12 +225,12 @@ public class ModelOris2 {
         return net;
     }
 
-    private static void addRelease(PetriNet net, String tag, int idx, int λ,
+    private static void addRelease(PetriNet net, String tag, int idx, BigDecimal λ, String clock,
                                    Place pool, Place Pi, Place Ai, Place gate) {
 
         Transition r = net.addTransition("release"+(idx+1)+"_"+tag);
         r.addFeature(StochasticTransitionFeature.newExponentialInstance(
-                BigDecimal.valueOf(λ), MarkingExpr.from("1", net)));
+                λ, MarkingExpr.from(clock, net)));
 
         net.addPrecondition(pool, r);
         net.addPrecondition(Pi,  r);
@@ -212,4 +255,14 @@ public class ModelOris2 {
 
         return m;
     }
+
+    // Marcatura iniziale della rete parametrica, con i parametri del primo punto della griglia
+    public static Marking getThirdModelParametricMarking(PetriNet net, int lowPool, int deltaPool,
+                                                         int[] params) {
+        Marking m = getThirdModelInitialMarking(net, lowPool, deltaPool);
+        for (int k = 0; k < THIRD_MODEL_PARAMS.length; k++)
+            m.setTokens(net.getPlace(THIRD_MODEL_PARAMS[k]), params[k]);
+        m.setTokens(net.getPlace("SwitchDiv"), SWITCH_DIV);
+        return m;
+    }
 }
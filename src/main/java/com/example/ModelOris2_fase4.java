@@ -1,6 +1,7 @@
 package com.example;
 
 import java.math.BigDecimal;
+import java.util.Locale;
 
 import org.oristool.models.pn.Priority;
 import org.oristool.models.stpn.MarkingExpr;
@@ -13,17 +14,69 @@ import org.oristool.petrinet.Transition;
 
 public class ModelOris2_fase4 {
 
-  // Contenitore rete + marcatura. 
+  // Forma originale (derivata da ORIS): 3 classi, 4 fasi, nomi W11..W34 / t11..t34
+  public static final int LEGACY_CLASSES = 3;
+  public static final int LEGACY_PHASES  = 4;
+  // Limiti della forma generica: classi e fasi viaggiano come byte nella trace,
+  // le fasi restano sotto t35..t38 (transizioni del workload)
+  public static final int MAX_CLASSES = 127;
+  public static final int MAX_PHASES  = 32;
+
+  // Contenitore rete + marcatura. La rete può essere condivisa tra istanze
+  // (ModelTemplate): resta nel package e va solo letta; di proprio ogni istanza ha
+  // la marcatura e gli array dei posti.
   public static class GspnModel {
-    public final PetriNet net = new PetriNet();
-    public final Marking  marking = new Marking();
+    final PetriNet net;
+    public final Marking marking;
+
+    // Forma (N classi, M fasi) e posti risolti una volta: niente lookup per nome nel loop
+    public final int classes, phases;
+    public final Place pool, bphDiv;
+    public final Place[] ph;    // Ph1..PhM
+    public final Place[] rate;  // Rate1..RateN
+    public final Place[][] w;   // [classe][fase] pesi della fase d'ingresso
+
+    // Tabelle alias della fase d'ingresso per classe (W**), azzerate da setWeights
+    AliasTable[] entryTables;
+
+    private GspnModel(PetriNet net, Marking marking, int classes, int phases) {
+      this.net = net;
+      this.marking = marking;
+      this.classes = classes;
+      this.phases = phases;
+      pool = net.getPlace("Pool");
+      bphDiv = net.getPlace("BphDiv");
+      ph = new Place[phases];
+      for (int k = 0; k < phases; k++) ph[k] = net.getPlace("Ph" + (k + 1));
+      rate = new Place[classes];
+      w = new Place[classes][phases];
+      for (int c = 0; c < classes; c++) {
+        rate[c] = net.getPlace("Rate" + (c + 1));
+        for (int k = 0; k < phases; k++) w[c][k] = net.getPlace(weightName(classes, phases, c + 1, k + 1));
+      }
+    }
+
+    // Istanza di un template (ModelTemplate): rete condivisa, marcatura e array dei posti propri
+    GspnModel(GspnModel proto) {
+      net = proto.net;
+      marking = new Marking(proto.marking);
+      classes = proto.classes;
+      phases = proto.phases;
+      pool = proto.pool;
+      bphDiv = proto.bphDiv;
+      ph = proto.ph.clone();
+      rate = proto.rate.clone();
+      w = new Place[classes][];
+      for (int c = 0; c < classes; c++) w[c] = proto.w[c].clone();
+    }
+
   }
 
-  // Costruisce il modello (derivato da ORIS).
+  // Costruisce il modello originale (derivato da ORIS). Le run usano le istanze di
+  // ModelTemplate.fase4(), costruito una volta per forma.
   public static GspnModel build() {
-    GspnModel m = new GspnModel();
-    PetriNet net = m.net;
-    Marking  marking = m.marking;
+    PetriNet net = new PetriNet();
+    Marking  marking = new Marking();
 
     // Places
     Place A1 = net.addPlace("A1");
@@ -223,47 +276,200 @@ public class ModelOris2_fase4 {
     up23.addFeature(new EnablingFunction("WorkloadUp>0 && Rate2>1"));
     up23.addFeature(StochasticTransitionFeature.newExponentialInstance(new BigDecimal("1"), MarkingExpr.from("1/MixVariationRateDiv", net)));
 
-    return m;
+    return new GspnModel(net, marking, LEGACY_CLASSES, LEGACY_PHASES);
+  }
+
+  // ---------- Forma generica ----------
+
+  /** "NxM" (es. "10x6"); null o vuoto = forma originale. */
+  public static GspnModel build(String shape) {
+    int[] cp = shape(shape);
+    return build(cp[0], cp[1]);
+  }
+
+  /** {classi, fasi} di "NxM"; null o vuoto = forma originale. */
+  public static int[] shape(String shape) {
+    if (shape == null || shape.isEmpty()) return new int[]{ LEGACY_CLASSES, LEGACY_PHASES };
+    String[] p = shape.toLowerCase(Locale.ROOT).split("x");
+    if (p.length != 2) throw new IllegalArgumentException("Forma attesa come classixfasi (es. 10x6): " + shape);
+    return new int[]{ Integer.parseInt(p[0].trim()), Integer.parseInt(p[1].trim()) };
+  }
+
+  /**
+   * Stessa struttura per N classi e M fasi: per ogni classe c release_c
+   * (Rate_c/RateDiv) e ingresso immediato in Ph_k con peso W_c_k; per ogni fase
+   * k il completamento t_k a rate k*Ph_k/BphDiv verso Ph_k+1 (Pool dopo PhM);
+   * workload e variazione del mix tra classi adiacenti come nell'originale.
+   * Con 3x4 restituisce esattamente la rete originale.
+   */
+  public static GspnModel build(int classes, int phases) {
+    if (classes == LEGACY_CLASSES && phases == LEGACY_PHASES) return build();
+    if (classes < 1 || classes > MAX_CLASSES || phases < 1 || phases > MAX_PHASES)
+      throw new IllegalArgumentException(String.format(Locale.ROOT,
+          "Forma %dx%d fuori dai limiti (classi 1..%d, fasi 1..%d)", classes, phases, MAX_CLASSES, MAX_PHASES));
+
+    PetriNet net = new PetriNet();
+    Marking  marking = new Marking();
+
+    Place pool = net.addPlace("Pool");
+    Place bph  = net.addPlace("BphDiv");
+    Place rateDiv = net.addPlace("RateDiv");
+    Place mixDiv  = net.addPlace("MixVariationRateDiv");
+    Place modDiv  = net.addPlace("ModRateDiv");
+    marking.setTokens(pool, 8);
+    marking.setTokens(bph, 10);
+    marking.setTokens(rateDiv, 10);
+    marking.setTokens(mixDiv, 10);
+    marking.setTokens(modDiv, 200);
+
+    Place[] ph = new Place[phases];
+    for (int k = 1; k <= phases; k++) {
+      ph[k - 1] = net.addPlace("Ph" + k);
+      marking.setTokens(ph[k - 1], 0);
+    }
+
+    // classi: arrivo (release), buffer A, ingresso pesato nelle fasi
+    for (int c = 1; c <= classes; c++) {
+      Place a = net.addPlace("A" + c);
+      Place p = net.addPlace("P" + c);
+      Place r = net.addPlace("Rate" + c);
+      marking.setTokens(a, 0);
+      marking.setTokens(p, 1);
+      marking.setTokens(r, defaultRate(c));
+
+      Transition release = net.addTransition("release" + c);
+      net.addPrecondition(p, release);
+      net.addPrecondition(pool, release);
+      net.addPostcondition(release, a);
+      net.addPostcondition(release, p);
+      release.addFeature(StochasticTransitionFeature.newExponentialInstance(new BigDecimal("1"), MarkingExpr.from("Rate" + c + "/RateDiv", net)));
+
+      for (int k = 1; k <= phases; k++) {
+        String wName = weightName(classes, phases, c, k);
+        Place w = net.addPlace(wName);
+        marking.setTokens(w, defaultWeight(c, k, phases));
+        Transition in = net.addTransition("t" + c + "_" + k);
+        net.addPrecondition(a, in);
+        net.addPostcondition(in, ph[k - 1]);
+        in.addFeature(StochasticTransitionFeature.newDeterministicInstance(new BigDecimal("0"), MarkingExpr.from(wName, net)));
+        in.addFeature(new Priority(0));
+      }
+    }
+
+    // completamenti di fase
+    for (int k = 1; k <= phases; k++) {
+      Transition done = net.addTransition("t" + k);
+      net.addPrecondition(ph[k - 1], done);
+      net.addPostcondition(done, (k < phases) ? ph[k] : pool);
+      done.addFeature(StochasticTransitionFeature.newExponentialInstance(new BigDecimal("1"), MarkingExpr.from(k + "*Ph" + k + "/BphDiv", net)));
+    }
+
+    // workload: StableDown -> Up -> StableUp -> Down -> StableDown
+    Place down = net.addPlace("WorkloadDown");
+    Place stableDown = net.addPlace("WorkloadStableDown");
+    Place stableUp = net.addPlace("WorkloadStableUp");
+    Place up = net.addPlace("WorkloadUp");
+    marking.setTokens(down, 0);
+    marking.setTokens(stableDown, 1);
+    marking.setTokens(stableUp, 0);
+    marking.setTokens(up, 0);
+    workload(net, "t35", up, stableUp, "5/ModRateDiv");
+    workload(net, "t36", stableUp, down, "1/ModRateDiv");
+    workload(net, "t37", stableDown, up, "1/ModRateDiv");
+    workload(net, "t38", down, stableDown, "5/ModRateDiv");
+
+    // variazione del mix: un gettone passa tra classi adiacenti
+    for (int c = 1; c < classes; c++) {
+      Place lo = net.getPlace("Rate" + c), hi = net.getPlace("Rate" + (c + 1));
+      Transition upT = net.addTransition("up" + c + "_" + (c + 1));
+      net.addPrecondition(lo, upT);
+      net.addPostcondition(upT, hi);
+      upT.addFeature(new EnablingFunction("WorkloadUp>0 && Rate" + c + ">1"));
+      upT.addFeature(StochasticTransitionFeature.newExponentialInstance(new BigDecimal("1"), MarkingExpr.from("1/MixVariationRateDiv", net)));
+      Transition downT = net.addTransition("down" + (c + 1) + "_" + c);
+      net.addPrecondition(hi, downT);
+      net.addPostcondition(downT, lo);
+      downT.addFeature(new EnablingFunction("WorkloadDown>0 && Rate" + (c + 1) + ">1"));
+      downT.addFeature(StochasticTransitionFeature.newExponentialInstance(new BigDecimal("1"), MarkingExpr.from("1/MixVariationRateDiv", net)));
+    }
+
+    return new GspnModel(net, marking, classes, phases);
+  }
+
+  private static void workload(PetriNet net, String name, Place from, Place to, String rate) {
+    Transition t = net.addTransition(name);
+    net.addPrecondition(from, t);
+    net.addPostcondition(t, to);
+    t.addFeature(StochasticTransitionFeature.newExponentialInstance(new BigDecimal("1"), MarkingExpr.from(rate, net)));
+  }
+
+  // W<c><k> nella forma originale, W<c>_<k> altrimenti (W111 sarebbe ambiguo)
+  static String weightName(int classes, int phases, int c, int k) {
+    return (classes == LEGACY_CLASSES && phases == LEGACY_PHASES) ? "W" + c + k : "W" + c + "_" + k;
+  }
+
+  // Valori iniziali a rotazione sulle tre classi originali: Rate 5/3/2,
+  // pesi uniformi / crescenti / decrescenti con la fase
+  static int defaultRate(int c) {
+    return new int[]{ 5, 3, 2 }[(c - 1) % 3];
+  }
+
+  static int defaultWeight(int c, int k, int phases) {
+    return switch ((c - 1) % 3) {
+      case 0  -> 1;
+      case 1  -> k;
+      default -> phases + 1 - k;
+    };
   }
 
   // ---------- Setter ----------
-  public static void setWeights(GspnModel m, int[] a1, int[] a2, int[] a3) {
-    m.marking.setTokens(m.net.getPlace("W11"), a1[0]);
-    m.marking.setTokens(m.net.getPlace("W12"), a1[1]);
-    m.marking.setTokens(m.net.getPlace("W13"), a1[2]);
-    m.marking.setTokens(m.net.getPlace("W14"), a1[3]);
-
-    m.marking.setTokens(m.net.getPlace("W21"), a2[0]);
-    m.marking.setTokens(m.net.getPlace("W22"), a2[1]);
-    m.marking.setTokens(m.net.getPlace("W23"), a2[2]);
-    m.marking.setTokens(m.net.getPlace("W24"), a2[3]);
-
-    m.marking.setTokens(m.net.getPlace("W31"), a3[0]);
-    m.marking.setTokens(m.net.getPlace("W32"), a3[1]);
-    m.marking.setTokens(m.net.getPlace("W33"), a3[2]);
-    m.marking.setTokens(m.net.getPlace("W34"), a3[3]);
+  // Pesi per classe (un array di M pesi per classe, classi in più ignorate)
+  public static void setWeights(GspnModel m, int[]... byClass) {
+    m.entryTables = null;
+    for (int c = 0; c < Math.min(byClass.length, m.classes); c++)
+      for (int k = 0; k < m.phases; k++) m.marking.setTokens(m.w[c][k], byClass[c][k]);
   }
+
+  // Fase d'ingresso (indice 0..M-1 = Ph1..PhM) della classe cls; classe fuori range = classe 1
+  public static AliasTable entryTable(GspnModel m, int cls) {
+    if (m.entryTables == null) {
+      AliasTable[] tabs = new AliasTable[m.classes];
+      for (int c = 0; c < m.classes; c++) {
+        double[] w = new double[m.phases];
+        for (int k = 0; k < m.phases; k++) w[k] = m.marking.getTokens(m.w[c][k]);
+        tabs[c] = new AliasTable(w);
+      }
+      m.entryTables = tabs;
+    }
+    return m.entryTables[(cls >= 1 && cls <= m.classes) ? cls - 1 : 0];
+  }
+
   public static void setRateDiv(GspnModel m, int rateDiv) {
     m.marking.setTokens(m.net.getPlace("RateDiv"), rateDiv);
   }
-  public static void setArrivalRates(GspnModel m, int r1, int r2, int r3) {
-    m.marking.setTokens(m.net.getPlace("Rate1"), r1);
-    m.marking.setTokens(m.net.getPlace("Rate2"), r2);
-    m.marking.setTokens(m.net.getPlace("Rate3"), r3);
+  public static void setArrivalRates(GspnModel m, int... rates) {
+    for (int c = 0; c < Math.min(rates.length, m.classes); c++) m.marking.setTokens(m.rate[c], rates[c]);
   }
   public static void setPoolTokens(GspnModel m, int pool) {
-    m.marking.setTokens(m.net.getPlace("Pool"), pool);
+    m.marking.setTokens(m.pool, pool);
   }
 
   // ---------- Rewards ----------
+  public static String rejectionFormula(GspnModel m) {
+    StringBuilder sb = new StringBuilder("If(Pool==0,(");
+    for (int c = 1; c <= m.classes; c++) sb.append((c > 1) ? "+" : "").append("Rate").append(c);
+    return sb.append(")/RateDiv,0)").toString();
+  }
   public static MarkingExpr rejectionExpr(GspnModel m) {
-    return MarkingExpr.from("If(Pool==0,(Rate1+Rate2+Rate3)/RateDiv,0)", m.net);
+    return MarkingExpr.from(rejectionFormula(m), m.net);
   }
   public static MarkingExpr idleExpr(GspnModel m) {
     return MarkingExpr.from("Pool", m.net);
   }
   public static MarkingExpr intensityExpr(GspnModel m) {
-    return MarkingExpr.from("Rate1 + 2*Rate2 + 3*Rate3", m.net);
+    StringBuilder sb = new StringBuilder("Rate1");
+    for (int c = 2; c <= m.classes; c++) sb.append(" + ").append(c).append("*Rate").append(c);
+    return MarkingExpr.from(sb.toString(), m.net);
   }
   public static MarkingExpr phaseExpr(GspnModel m) {
     return MarkingExpr.from("1*WorkloadStableDown + 2*WorkloadUp + 3*WorkloadStableUp + 2*WorkloadDown", m.net);
@@ -0,0 +1,95 @@
+package com.example;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.oristool.petrinet.Marking;
+import org.oristool.petrinet.PetriNet;
+
+/**
+ * Template dei modelli: la PetriNet (archi, feature, MarkingExpr già parsate) e la
+ * vista compilata IndexedNet sono costruite e validate una volta per struttura,
+ * poi condivise da tutte le run e da tutti i thread. La PetriNet di Sirio non è
+ * immutabile: resta visibile solo nel package e il contratto è di sola lettura
+ * (nessun addPlace/addFeature dopo la costruzione, nemmeno tramite GspnModel.net).
+ *
+ * Un'istanza possiede solo il proprio stato: instance() è un GspnModel con rete
+ * condivisa, Marking e array dei posti copiati, state() il vettore int[] nell'ordine
+ * di indexed. Le viste ripiegate (foldConstants) sono memorizzate per valori dei
+ * posti costanti: run che differiscono solo nei posti variabili (es. Pool) le riusano.
+ */
+public final class ModelTemplate {
+
+  // Viste ripiegate tenute per template (oltre si riparte da vuoto)
+  static final int FOLDED_MAX = 64;
+
+  private static final ConcurrentHashMap<String, ModelTemplate> CACHE = new ConcurrentHashMap<>();
+
+  public final String key;
+  final PetriNet net;              // condivisa: sola lettura dopo la costruzione
+  public final IndexedNet indexed; // vista completa, rate e guardie compilati
+  private final ModelOris2_fase4.GspnModel proto; // marcatura di riferimento (null per ModelOris2)
+  private final int[] initial;
+  private final ConcurrentHashMap<String, IndexedNet> folded = new ConcurrentHashMap<>();
+
+  private ModelTemplate(String key, PetriNet net, ModelOris2_fase4.GspnModel proto) {
+    this.key = key;
+    this.net = net;
+    this.indexed = IndexedNet.of(net); // valida: solo EXP/IMM, archi su posti esistenti
+    this.proto = proto;
+    this.initial = (proto != null) ? indexed.toArray(proto.marking) : null;
+  }
+
+  // ---------- Template per struttura ----------
+
+  /** ModelOris2_fase4 nella forma originale 3x4. */
+  public static ModelTemplate fase4() {
+    return fase4(ModelOris2_fase4.LEGACY_CLASSES, ModelOris2_fase4.LEGACY_PHASES);
+  }
+
+  /** ModelOris2_fase4 nella forma "NxM" (null o vuoto = 3x4 originale). */
+  public static ModelTemplate fase4(String shape) {
+    int[] cp = ModelOris2_fase4.shape(shape);
+    return fase4(cp[0], cp[1]);
+  }
+
+  public static ModelTemplate fase4(int classes, int phases) {
+    return CACHE.computeIfAbsent("fase4:" + classes + "x" + phases, k -> {
+      ModelOris2_fase4.GspnModel m = ModelOris2_fase4.build(classes, phases);
+      return new ModelTemplate(k, m.net, m);
+    });
+  }
+
+  /** Rete di ModelOris2: la struttura dipende da fasi, pesi W e WDiv, non da rate e Pool. */
+  public static ModelTemplate oris2(int numPh, int[][] W, int wDiv) {
+    return CACHE.computeIfAbsent("oris2:" + numPh + ":" + Arrays.deepToString(W) + ":" + wDiv,
+        k -> new ModelTemplate(k, ModelOris2.structure(numPh, W, wDiv), null));
+  }
+
+  // ---------- Istanze ----------
+
+  /** GspnModel della run: condivide la rete, possiede marcatura e array dei posti. */
+  public ModelOris2_fase4.GspnModel instance() {
+    if (proto == null) throw new IllegalStateException("Template senza marcatura di riferimento: " + key);
+    return new ModelOris2_fase4.GspnModel(proto);
+  }
+
+  /** Marcatura di riferimento come vettore (ordine dei posti di indexed). */
+  public int[] state() {
+    if (initial == null) throw new IllegalStateException("Template senza marcatura di riferimento: " + key);
+    return initial.clone();
+  }
+
+  public IndexedNet folded(Marking m0, String... keep) {
+    return folded(indexed.toArray(m0), keep);
+  }
+
+  /** indexed.foldConstants(m0, keep), compilata una volta per valori dei posti costanti. */
+  public IndexedNet folded(int[] m0, String... keep) {
+    String k = indexed.foldKey(m0, keep);
+    IndexedNet v = folded.get(k);
+    if (v != null) return v;
+    if (folded.size() >= FOLDED_MAX) folded.clear();
+    return folded.computeIfAbsent(k, x -> indexed.foldConstants(m0, keep));
+  }
+}
@@ -0,0 +1,95 @@
+package com.example;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Spazio degli stati con posti parametro (es. Rate1..Rate3) fuori dalla codifica.
+ *
+ * La struttura (stati, archi, probabilità dei cammini vanishing) è esplorata una
+ * volta sola; instantiate() rivaluta solo i rate EXP per i valori dei parametri
+ * e restituisce uno StateSpace numerico, senza ripetere l'esplorazione.
+ */
+public final class ParametricStateSpace {
+
+  final IndexedNet net;
+  final ReachabilityExplorer.Codec codec;
+  final long[] keys;
+  final int n;
+  final ReachabilityExplorer.Edges edges; // rate = probabilità del cammino vanishing
+  final double[] initial;
+  final int[] params;
+
+  ParametricStateSpace(IndexedNet net, ReachabilityExplorer.Codec codec, long[] keys, int n,
+                       ReachabilityExplorer.Edges edges, double[] initial, int[] params) {
+    this.net = net;
+    this.codec = codec;
+    this.keys = keys;
+    this.n = n;
+    this.edges = edges;
+    this.initial = initial;
+    this.params = params;
+  }
+
+  public int size()     { return n; }
+  public int edgeCount(){ return edges.size; }
+
+  public String[] parameterNames() {
+    String[] out = new String[params.length];
+    for (int k = 0; k < params.length; k++) out[k] = net.placeName(params[k]);
+    return out;
+  }
+
+  // Reward sui posti non parametro: stesso vettore per ogni istanza
+  public double[] rewardVector(String expr) {
+    IndexedNet.MarkingFn f = net.reward(expr);
+    double[] r = new double[n];
+    int[] m = new int[net.placeCount()];
+    for (int s = 0; s < n; s++) {
+      codec.decode(keys, s * codec.words, m);
+      r[s] = f.eval(m);
+    }
+    return r;
+  }
+
+  /**
+   * Istanzia i rate per i valori dati (stesso ordine di parameterNames()).
+   */
+  public StateSpace instantiate(int... values) {
+    if (values.length != params.length)
+      throw new IllegalArgumentException("Attesi " + params.length + " parametri, ricevuti " + values.length);
+
+    ReachabilityExplorer.Codec c = codec.withFixed(params, values);
+    ReachabilityExplorer.Edges e = edges;
+    double[] rate = new double[e.size];
+
+    // archi ordinati per sorgente: blocchi indipendenti valutati in parallelo
+    int blocks = Math.max(1, Math.min(e.size / 4096, Runtime.getRuntime().availableProcessors() * 4));
+    int[] cut = new int[blocks + 1];
+    for (int b = 1; b < blocks; b++) {
+      int k = (int) ((long) e.size * b / blocks);
+      while (k > 0 && k < e.size && e.src[k] == e.src[k - 1]) k++;
+      cut[b] = Math.max(cut[b - 1], Math.min(k, e.size));
+    }
+    cut[blocks] = e.size;
+
+    IntStream.range(0, blocks).parallel().forEach(b -> {
+      int nt = net.transitionCount();
+      int[] m = new int[net.placeCount()];
+      double[] cache = new double[nt];
+      int[] stamp = new int[nt];
+      Arrays.fill(stamp, -1);
+      int cur = -1;
+      for (int k = cut[b]; k < cut[b + 1]; k++) {
+        int s = e.src[k], t = e.trans[k];
+        if (s != cur) { c.decode(keys, s * c.words, m); cur = s; }
+        if (stamp[t] != s) { cache[t] = net.rate(t, m); stamp[t] = s; }
+        rate[k] = cache[t] * e.rate[k];
+      }
+    });
+
+    ReachabilityExplorer.Edges inst = new ReachabilityExplorer.Edges();
+    inst.src = e.src; inst.dst = e.dst; inst.trans = e.trans; inst.rate = rate; inst.size = e.size;
+    return StateSpace.fromEdges(net, c, keys, n, inst, initial.clone());
+  }
+}
@@ -0,0 +1,195 @@
+package com.example;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import com.example.TimeseriesSimulator.Arrival;
+import com.example.TimeseriesSimulator.ControllerMemory;
+import com.example.TimeseriesSimulator.EntryProb;
+import com.example.TimeseriesSimulator.TempState;
+
+/**
+ * Politica del controller di TimeseriesSimulator: ad ogni tick di controllo
+ * riceve una fotografia dello stato (Pool, Ph1..PhM, probabilità d'ingresso)
+ * e una vista in sola lettura degli arrivi futuri, e restituisce il totale
+ * target (busy+pool); il simulatore poi applica il clamp [POOL_MIN, POOL_MAX].
+ *
+ * Le tre modalità storiche (DEFAULT, CUSTOM, NO_FUTURE) sono implementazioni
+ * di questa interfaccia; una politica esterna è una classe pubblica, in
+ * qualunque package, con costruttore pubblico senza argomenti, caricata per
+ * nome (vedi ControllerBench). Usa solo i tipi pubblici della firma: State,
+ * Horizon, TimeseriesSimulator.Arrival e TimeseriesSimulator.ControllerMemory.
+ *
+ * L'RNG passato è quello della run: una politica che lo usa cambia la
+ * sequenza della simulazione, come già fa la previsione DEFAULT.
+ */
+public interface PoolController {
+
+  String name();
+
+  /**
+   * @param mem diagnostica dell'ultima decisione (rejection prevista, arrivi
+   *            nell'orizzonte, candidati provati), finisce nel CSV intervalli
+   */
+  int target(State state, Horizon horizon, Random rng, ControllerMemory mem) throws IOException;
+
+  // ---------- Vista passata alla politica ----------
+
+  /** Stato al tick, copiato dalla marcatura, in sola lettura. */
+  final class State {
+    private final double time;
+    private final int pool;
+    private final int[] ph;  // Ph1..PhM
+    private final int bph;
+    final EntryProb entry;   // politiche incluse: tabelle alias condivise col modello
+
+    State(double time, int pool, int[] ph, int bph, EntryProb entry) {
+      this.time = time; this.pool = pool;
+      this.ph = ph;
+      this.bph = bph;
+      this.entry = entry;
+    }
+
+    static State of(ModelOris2_fase4.GspnModel model, double now) {
+      return new State(now, model.marking.getTokens(model.pool), TimeseriesSimulator.phaseTokens(model),
+          TimeseriesSimulator.bphDiv(model), TimeseriesSimulator.readEntryProbs(model));
+    }
+
+    public double time() { return time; }
+    public int pool()    { return pool; }
+    public int phases()  { return ph.length; }
+
+    /** Token in Ph(k+1), k = 0..phases()-1. */
+    public int ph(int k) { return ph[k]; }
+
+    /** Copia di Ph1..PhM. */
+    public int[] ph() { return ph.clone(); }
+
+    /** Divisore dei rate di fase: Ph(k+1) completa a rate (k+1)*ph(k)/bphDiv(). */
+    public int bphDiv() { return bph; }
+
+    public int busy() {
+      int b = 0;
+      for (int x : ph) b += x;
+      return b;
+    }
+
+    public int classes() { return entry.byClass.length; }
+
+    /** Probabilità d'ingresso in Ph(k+1) per un arrivo di classe cls (1..classes()). */
+    public double entryProbability(int cls, int k) {
+      return entry.of(cls).probability(k);
+    }
+
+    /** Copia mutabile per le simulazioni d'orizzonte. */
+    TempState temp() { return new TempState(time, pool, ph.clone(), bph); }
+  }
+
+  /** Arrivi noti dopo il tick; la lista restituita non è modificabile. */
+  interface Horizon {
+    List<Arrival> window(double sec) throws IOException;
+  }
+
+  // ---------- Politiche incluse ----------
+
+  static PoolController of(TimeseriesSimulator.Mode mode, double horizonSec, double controlSec) {
+    return switch (mode) {
+      case DEFAULT   -> new Forecast("default", TimeseriesSimulator.HORIZON_SEC);
+      case CUSTOM    -> new Forecast(String.format(Locale.US, "custom_h%.0f_p%.0f", horizonSec, controlSec), horizonSec);
+      case NO_FUTURE -> new NoFuture();
+    };
+  }
+
+  static PoolController load(String className) throws ReflectiveOperationException {
+    return (PoolController) Class.forName(className).getDeclaredConstructor().newInstance();
+  }
+
+  /** Totale minimo con rejection prevista <= SLO_REJECT sugli arrivi dell'orizzonte. */
+  final class Forecast implements PoolController {
+    private final String name;
+    private final double horizonSec;
+
+    Forecast(String name, double horizonSec) { this.name = name; this.horizonSec = horizonSec; }
+
+    public String name() { return name; }
+
+    public int target(State s, Horizon h, Random rng, ControllerMemory mem) throws IOException {
+      return TimeseriesSimulator.chooseMinReplicas(s.temp(), h.window(horizonSec), s.entry, rng, mem);
+    }
+  }
+
+  /**
+   * Come Forecast ma con 'reps' traiettorie per candidato (TrajectoryEnsemble):
+   * stima meno rumorosa, costo per decisione proporzionale a reps. L'ensemble
+   * ha il proprio RNG, quindi non consuma quello della run.
+   */
+  final class Ensemble implements PoolController {
+    private final double horizonSec;
+    private final int reps;
+    private final TrajectoryEnsemble ens;
+    private final Random fallbackRng; // forme non supportate dall'ensemble
+    private boolean warned;
+
+    Ensemble(double horizonSec, int reps, long seed) {
+      this.horizonSec = horizonSec;
+      this.reps = reps;
+      this.ens = new TrajectoryEnsemble((TimeseriesSimulator.POOL_MAX + 1) * reps, seed, true);
+      this.fallbackRng = new Random(seed);
+    }
+
+    public String name() { return String.format(Locale.US, "ensemble_h%.0f_r%d", horizonSec, reps); }
+
+    public int target(State s, Horizon h, Random rng, ControllerMemory mem) throws IOException {
+      if (!TrajectoryEnsemble.supports(s.phases())) {
+        // traiettorie a 4 fasi: per altre forme previsione a traiettoria singola, sempre con RNG proprio
+        if (!warned) {
+          System.out.println("[warn] ensemble solo per modelli a 4 fasi, non " + s.phases()
+              + ": previsione a traiettoria singola");
+          warned = true;
+        }
+        return TimeseriesSimulator.chooseMinReplicas(s.temp(), h.window(horizonSec), s.entry, fallbackRng, mem);
+      }
+      return ens.chooseMinReplicas(s.temp(), h.window(horizonSec), s.entry, reps, mem);
+    }
+  }
+
+  /**
+   * Baseline da tabella: totale minimo della curva di capacità (CapacityTable,
+   * Main capacity) con rejection media sull'orizzonte <= SLO_REJECT. Nessuna
+   * simulazione per decisione; non scende sotto le repliche occupate.
+   */
+  final class Capacity implements PoolController {
+    private final CapacityTable table;
+    private final int baseline;
+
+    Capacity(String file) throws IOException {
+      this.table = CapacityTable.load(file);
+      this.baseline = table.minPoolHorizon(TimeseriesSimulator.SLO_REJECT);
+    }
+
+    public String name() { return "capacity"; }
+
+    public int target(State s, Horizon h, Random rng, ControllerMemory mem) {
+      int total = Math.max(baseline, s.busy());
+      total = Math.max(TimeseriesSimulator.POOL_MIN, Math.min(TimeseriesSimulator.POOL_MAX, total));
+      mem.lastPredReject = table.rejectHorizon(total);
+      mem.lastPredN = 0;
+      mem.lastCandidates = 0;
+      return total;
+    }
+  }
+
+  /** Nessuna previsione: mantiene il totale corrente. */
+  final class NoFuture implements PoolController {
+    public String name() { return "nofuture"; }
+
+    public int target(State s, Horizon h, Random rng, ControllerMemory mem) {
+      mem.lastPredReject = Double.NaN;
+      mem.lastPredN = 0;
+      mem.lastCandidates = 0;
+      return Math.max(TimeseriesSimulator.POOL_MIN, s.busy() + s.pool());
+    }
+  }
+}
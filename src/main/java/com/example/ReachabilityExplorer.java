@@ -0,0 +1,483 @@
+package com.example;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.oristool.petrinet.Marking;
+
+/**
+ * Generatore dello spazio degli stati tangibile di una GSPN (IndexedNet):
+ * - ogni marcatura è codificata bit-packed in 1..k long (Codec)
+ * - gli stati stanno in un hash set ad indirizzamento aperto su long[] (StateTable)
+ * - la frontiera BFS di ogni livello è espansa in parallelo (ForkJoinPool)
+ * - le marcature vanishing sono eliminate al volo (pesi delle IMM a priorità massima)
+ * - i posti dichiarati 'parametri' (es. Rate*) restano fuori dalla codifica:
+ *   exploreParametric() produce un grafo riusabile per ogni valore dei parametri
+ *
+ * Output: StateSpace (stati tangibili + matrice dei rate CSR), usabile da CtmcSolver,
+ * oppure ParametricStateSpace da istanziare per ogni configurazione di parametri.
+ */
+public final class ReachabilityExplorer {
+
+  private final IndexedNet net;
+  private final int[] minBits;
+  private final boolean[] param;
+  private int parallelism = Runtime.getRuntime().availableProcessors();
+  private int maxStates   = Integer.MAX_VALUE;
+
+  // Limite profondità catene di immediate (cicli vanishing)
+  static final int MAX_VANISHING_DEPTH = 1000;
+
+  public ReachabilityExplorer(IndexedNet net) {
+    this.net = net;
+    this.minBits = new int[net.placeCount()];
+    this.param   = new boolean[net.placeCount()];
+  }
+
+  public ReachabilityExplorer parallelism(int p) { this.parallelism = Math.max(1, p); return this; }
+  public ReachabilityExplorer maxStates(int n)   { this.maxStates = Math.max(1, n); return this; }
+
+  // Bound noto per un posto: evita riallocazioni della codifica
+  public ReachabilityExplorer bound(String place, int maxTokens) {
+    int p = net.placeIndex(place);
+    minBits[p] = Math.max(minBits[p], Codec.bitsFor(maxTokens));
+    return this;
+  }
+
+  /**
+   * Posti parametro: costanti durante l'esplorazione, compaiono solo nei rate
+   * delle transizioni EXP (non in guardie, pesi IMM o archi). Il grafo non
+   * dipenderebbe altrimenti solo dai rate: IllegalArgumentException con posto
+   * e transizione che violano la regola.
+   */
+  public ReachabilityExplorer parameters(String... places) {
+    for (String name : places) {
+      int p = net.placeIndex(name);
+      for (int t = 0; t < net.transitionCount(); t++) {
+        String use = parameterMisuse(t, p);
+        if (use != null)
+          throw new IllegalArgumentException("Posto parametro " + name + " non ammesso (" + use
+              + " di " + net.transitionName(t) + "): solo nei rate delle transizioni EXP");
+      }
+      param[p] = true;
+    }
+    return this;
+  }
+
+  // Uso di p da parte di t che rende lo spazio degli stati dipendente dal valore di p (null = nessuno)
+  private String parameterMisuse(int t, int p) {
+    if (contains(net.deltaP[t], p)) return "arco con effetto netto";
+    if (contains(net.preP[t], p))   return "arco in ingresso";
+    if (contains(net.inhP[t], p))   return "arco inibitore";
+    if (net.guardReads(t, p))       return "enabling function";
+    if (net.immediate[t] && net.exprReads(t, p)) return "peso IMM";
+    return null;
+  }
+
+  private static boolean contains(int[] a, int x) {
+    for (int v : a) if (v == x) return true;
+    return false;
+  }
+
+  public StateSpace explore(Marking m0) {
+    return explore(net.toArray(m0));
+  }
+
+  /**
+   * Esplora a partire da m0. Se un posto eccede la larghezza scelta per la
+   * codifica, la larghezza viene raddoppiata e l'esplorazione ricomincia.
+   */
+  public StateSpace explore(int[] m0) {
+    Graph g = graph(m0, false);
+    return StateSpace.fromEdges(net, g.codec, g.keys, g.n, g.edges, g.initial);
+  }
+
+  public ParametricStateSpace exploreParametric(Marking m0) {
+    return exploreParametric(net.toArray(m0));
+  }
+
+  /**
+   * Esplora una sola volta la struttura: gli archi conservano la transizione EXP
+   * e la probabilità del cammino vanishing, il rate è valutato all'istanziazione.
+   */
+  public ParametricStateSpace exploreParametric(int[] m0) {
+    Graph g = graph(m0, true);
+    int[] params = new int[0];
+    for (int p = 0; p < param.length; p++)
+      if (param[p]) { params = Arrays.copyOf(params, params.length + 1); params[params.length - 1] = p; }
+    return new ParametricStateSpace(net, g.codec, g.keys, g.n, g.edges, g.initial, params);
+  }
+
+  private Graph graph(int[] m0, boolean symbolic) {
+    int[] bits = new int[m0.length];
+    for (int p = 0; p < bits.length; p++)
+      bits[p] = param[p] ? 0 : Math.max(minBits[p], Codec.bitsFor(m0[p]));
+
+    ForkJoinPool pool = new ForkJoinPool(parallelism);
+    try {
+      while (true) {
+        try {
+          return run(new Codec(bits, m0), m0, symbolic, pool);
+        } catch (Codec.Overflow o) {
+          bits[o.place] = Codec.bitsFor(2 * o.value);
+        }
+      }
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  // Grafo grezzo: stati codificati, archi (src,dst,transizione,peso), distribuzione iniziale
+  static final class Graph {
+    final Codec codec;
+    final long[] keys;
+    final int n;
+    final Edges edges;
+    final double[] initial;
+    Graph(Codec codec, long[] keys, int n, Edges edges, double[] initial) {
+      this.codec = codec; this.keys = keys; this.n = n; this.edges = edges; this.initial = initial;
+    }
+  }
+
+  // ---------- BFS a livelli ----------
+
+  private Graph run(Codec codec, int[] m0, boolean symbolic, ForkJoinPool pool) {
+    final int words = codec.words;
+    StateTable table = new StateTable(words, 1 << 12);
+    Edges edges = new Edges();
+
+    // Stati iniziali (m0 può essere vanishing)
+    Buffer init = new Buffer(words);
+    new Expander(codec, symbolic).resolve(m0.clone(), 1.0, -1, -1, init, 0);
+    double[] initW = new double[16];
+    for (int k = 0; k < init.size; k++) {
+      int id = table.putIfAbsent(init.keys, k * words);
+      if (id < 0) id = -id - 1;
+      if (id >= initW.length) initW = Arrays.copyOf(initW, 2 * id + 1);
+      initW[id] += init.w[k];
+    }
+
+    int lo = 0;
+    int hi = table.size;
+    while (lo < hi) {
+      List<Buffer> out = expandLevel(codec, table, lo, hi, symbolic, pool);
+      for (Buffer b : out) {
+        for (int k = 0; k < b.size; k++) {
+          int id = table.putIfAbsent(b.keys, k * words);
+          if (id < 0) id = -id - 1;
+          if (id != b.src[k]) edges.add(b.src[k], id, b.trans[k], b.w[k]);
+        }
+      }
+      if (table.size > maxStates)
+        throw new IllegalStateException("Spazio degli stati oltre il limite: " + table.size + " > " + maxStates);
+      lo = hi;
+      hi = table.size;
+    }
+
+    int n = table.size;
+    return new Graph(codec, table.keysCopy(), n, edges, Arrays.copyOf(initW, n));
+  }
+
+  private List<Buffer> expandLevel(Codec codec, StateTable table, int lo, int hi,
+                                   boolean symbolic, ForkJoinPool pool) {
+    int len = hi - lo;
+    int chunk = Math.max(64, len / (parallelism * 4) + 1);
+    List<Callable<Buffer>> tasks = new ArrayList<>();
+    for (int a = lo; a < hi; a += chunk) {
+      final int from = a, to = Math.min(hi, a + chunk);
+      tasks.add(() -> {
+        Expander ex = new Expander(codec, symbolic);
+        Buffer b = new Buffer(codec.words);
+        int[] m = new int[net.placeCount()];
+        for (int s = from; s < to; s++) {
+          codec.decode(table.keys, s * codec.words, m);
+          ex.expand(s, m, b);
+        }
+        return b;
+      });
+    }
+    List<Buffer> out = new ArrayList<>(tasks.size());
+    try {
+      for (Future<Buffer> f : pool.invokeAll(tasks)) out.add(f.get());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException re) throw re;
+      throw new IllegalStateException(e.getCause());
+    }
+    return out;
+  }
+
+  // ---------- Espansione di uno stato (per thread) ----------
+
+  private final class Expander {
+    final Codec   codec;
+    final boolean symbolic;
+    final int     nt = net.transitionCount();
+    final long[]  key;
+
+    Expander(Codec codec, boolean symbolic) {
+      this.codec = codec;
+      this.symbolic = symbolic;
+      this.key = new long[codec.words];
+    }
+
+    // In modo simbolico il peso dell'arco è la sola probabilità del cammino vanishing
+    void expand(int src, int[] m, Buffer out) {
+      for (int t = 0; t < nt; t++) {
+        if (net.immediate[t] || !net.isEnabled(t, m)) continue;
+        double r = symbolic ? 1.0 : net.rate(t, m);
+        if (r <= 0.0) continue;
+        int[] next = m.clone();
+        net.fire(t, next);
+        resolve(next, r, src, t, out, 0);
+      }
+    }
+
+    // Segue le immediate fino a marcature tangibili, ripartendo il peso w
+    void resolve(int[] m, double w, int src, int trans, Buffer out, int depth) {
+      if (depth > MAX_VANISHING_DEPTH)
+        throw new IllegalStateException("Ciclo di transizioni immediate (profondità > " + MAX_VANISHING_DEPTH + ")");
+
+      int bestPrio = Integer.MIN_VALUE;
+      double sum = 0.0;
+      for (int t = 0; t < nt; t++) {
+        if (!net.immediate[t] || !net.isEnabled(t, m)) continue;
+        int pr = net.priority[t];
+        if (pr > bestPrio) { bestPrio = pr; sum = 0.0; }
+        if (pr == bestPrio) sum += net.rate(t, m);
+      }
+
+      if (bestPrio == Integer.MIN_VALUE) { // tangibile
+        codec.encode(m, key, 0);
+        out.add(src, key, trans, w);
+        return;
+      }
+      if (sum <= 0.0)
+        throw new IllegalStateException("Marcatura vanishing con pesi nulli: " + Arrays.toString(m));
+
+      for (int t = 0; t < nt; t++) {
+        if (!net.immediate[t] || net.priority[t] != bestPrio || !net.isEnabled(t, m)) continue;
+        double p = net.rate(t, m) / sum;
+        if (p <= 0.0) continue;
+        int[] next = m.clone();
+        net.fire(t, next);
+        resolve(next, w * p, src, trans, out, depth + 1);
+      }
+    }
+  }
+
+  // ---------- Codifica bit-packed ----------
+
+  static final class Codec {
+    final int   words;
+    final int[] bits, word, shift, max;
+    final int[] fixed; // valore dei posti non codificati (bits == 0)
+
+    static final class Overflow extends RuntimeException {
+      final int place, value;
+      Overflow(int place, int value) {
+        super(null, null, false, false);
+        this.place = place; this.value = value;
+      }
+    }
+
+    Codec(int[] bits, int[] fixed) {
+      int n = bits.length;
+      this.bits  = bits.clone();
+      this.fixed = fixed.clone();
+      this.word  = new int[n];
+      this.shift = new int[n];
+      this.max   = new int[n];
+      int w = 0, used = 0;
+      for (int p = 0; p < n; p++) {
+        int b = bits[p];
+        if (b == 0) continue;
+        if (b > 31) throw new IllegalArgumentException("Posto troppo largo per la codifica: " + b + " bit");
+        if (used + b > 64) { w++; used = 0; }
+        word[p]  = w;
+        shift[p] = used;
+        max[p]   = (int) ((1L << b) - 1);
+        used += b;
+      }
+      this.words = w + 1;
+    }
+
+    // Stessa codifica, con valori diversi per i posti non codificati
+    Codec withFixed(int[] places, int[] values) {
+      int[] f = fixed.clone();
+      for (int k = 0; k < places.length; k++) f[places[k]] = values[k];
+      return new Codec(bits, f);
+    }
+
+    static int bitsFor(int v) {
+      return Math.max(1, 32 - Integer.numberOfLeadingZeros(Math.max(0, v)));
+    }
+
+    void encode(int[] m, long[] dst, int off) {
+      for (int k = 0; k < words; k++) dst[off + k] = 0L;
+      for (int p = 0; p < m.length; p++) {
+        int v = m[p];
+        if (bits[p] == 0) {
+          if (v != fixed[p]) throw new IllegalStateException("Posto non codificato modificato: " + p);
+          continue;
+        }
+        if (v < 0 || v > max[p]) {
+          if (v < 0) throw new IllegalStateException("Marcatura negativa sul posto " + p);
+          throw new Overflow(p, v);
+        }
+        dst[off + word[p]] |= ((long) v) << shift[p];
+      }
+    }
+
+    void decode(long[] src, int off, int[] m) {
+      for (int p = 0; p < m.length; p++)
+        m[p] = (bits[p] == 0) ? fixed[p] : (int) ((src[off + word[p]] >>> shift[p]) & max[p]);
+    }
+  }
+
+  // ---------- Hash set primitivo (open addressing, linear probing) ----------
+
+  static final class StateTable {
+    final int words;
+    long[] keys;   // chiavi in ordine di inserimento (id = posizione)
+    int[]  slots;  // id+1, 0 = vuoto
+    int    size;
+
+    StateTable(int words, int capacity) {
+      this.words = words;
+      int cap = Integer.highestOneBit(Math.max(16, capacity) * 2 - 1);
+      this.slots = new int[cap];
+      this.keys  = new long[cap / 2 * words];
+    }
+
+    /** @return id se già presente, altrimenti -(id+1) del nuovo stato */
+    int putIfAbsent(long[] k, int off) {
+      int mask = slots.length - 1;
+      int h = hash(k, off) & mask;
+      while (true) {
+        int s = slots[h];
+        if (s == 0) break;
+        if (equalsAt(s - 1, k, off)) return s - 1;
+        h = (h + 1) & mask;
+      }
+      int id = size++;
+      if ((id + 1) * words > keys.length) keys = Arrays.copyOf(keys, keys.length * 2);
+      System.arraycopy(k, off, keys, id * words, words);
+      slots[h] = id + 1;
+      if (size * 2 > slots.length) rehash();
+      return -id - 1;
+    }
+
+    long[] keysCopy() {
+      return Arrays.copyOf(keys, size * words);
+    }
+
+    private boolean equalsAt(int id, long[] k, int off) {
+      int base = id * words;
+      for (int i = 0; i < words; i++) if (keys[base + i] != k[off + i]) return false;
+      return true;
+    }
+
+    private void rehash() {
+      int[] ns = new int[slots.length * 2];
+      int mask = ns.length - 1;
+      for (int id = 0; id < size; id++) {
+        int h = hash(keys, id * words) & mask;
+        while (ns[h] != 0) h = (h + 1) & mask;
+        ns[h] = id + 1;
+      }
+      slots = ns;
+    }
+
+    private int hash(long[] k, int off) {
+      long h = 0x9E3779B97F4A7C15L;
+      for (int i = 0; i < words; i++) {
+        h ^= k[off + i];
+        h *= 0xBF58476D1CE4E5B9L;
+        h ^= (h >>> 31);
+      }
+      return (int) (h ^ (h >>> 32));
+    }
+  }
+
+  // ---------- Buffer archi (per thread) ----------
+
+  static final class Buffer {
+    final int words;
+    int[]    src   = new int[256];
+    int[]    trans = new int[256];
+    long[]   keys;
+    double[] w     = new double[256];
+    int      size;
+
+    Buffer(int words) {
+      this.words = words;
+      this.keys  = new long[256 * words];
+    }
+
+    void add(int s, long[] key, int t, double weight) {
+      if (size == src.length) {
+        src   = Arrays.copyOf(src, size * 2);
+        trans = Arrays.copyOf(trans, size * 2);
+        w     = Arrays.copyOf(w, size * 2);
+        keys  = Arrays.copyOf(keys, size * 2 * words);
+      }
+      src[size]   = s;
+      trans[size] = t;
+      w[size]     = weight;
+      System.arraycopy(key, 0, keys, size * words, words);
+      size++;
+    }
+  }
+
+  // Lista archi globale (src, dst, transizione EXP, rate o peso), compattata poi in CSR
+  static final class Edges {
+    int[]    src = new int[1024], dst = new int[1024], trans = new int[1024];
+    double[] rate = new double[1024];
+    int      size;
+
+    void add(int s, int d, int t, double r) {
+      if (size == src.length) {
+        src   = Arrays.copyOf(src, size * 2);
+        dst   = Arrays.copyOf(dst, size * 2);
+        trans = Arrays.copyOf(trans, size * 2);
+        rate  = Arrays.copyOf(rate, size * 2);
+      }
+      src[size] = s; dst[size] = d; trans[size] = t; rate[size] = r;
+      size++;
+    }
+  }
+
+  // ---------- Esempio: spazio degli stati del modello fase 4 ----------
+  public static void main(String[] args) {
+    int poolTokens = (args != null && args.length > 0) ? Integer.parseInt(args[0]) : 8;
+
+    ModelTemplate tpl = ModelTemplate.fase4();
+    ModelOris2_fase4.GspnModel model = tpl.instance();
+    ModelOris2_fase4.setPoolTokens(model, poolTokens);
+    IndexedNet full = tpl.indexed;
+    IndexedNet net  = tpl.folded(model.marking);
+    System.out.printf(Locale.US, "[fold] posti %d -> %d  costanti=%s%n",
+        full.placeCount(), net.placeCount(), String.join(",", net.constantPlaces()));
+
+    long t0 = System.nanoTime();
+    StateSpace ss = new ReachabilityExplorer(net).explore(model.marking);
+    double secs = (System.nanoTime() - t0) / 1e9;
+
+    System.out.printf(Locale.US, "[reach] Pool=%d  stati=%d  archi=%d  word/stato=%d  tempo=%.3f s%n",
+        poolTokens, ss.size(), ss.nonZeros(), ss.codec.words, secs);
+
+    double[] pi = CtmcSolver.steadyState(ss);
+    System.out.printf(Locale.US, "[steady] Pool=%.5f  rejection=%.6f%n",
+        CtmcSolver.expected(pi, ss.rewardVector(net.reward("Pool"))),
+        CtmcSolver.expected(pi, ss.rewardVector(net.reward(ModelOris2_fase4.rejectionFormula(model)))));
+  }
+}
@@ -0,0 +1,336 @@
+package com.example;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Uscita CSV a segmenti compressi con indice, per i CSV che crescono senza
+ * limite (timeseries_intervals_<mode>.csv) e per le sweep con molte run:
+ *
+ *   base.csv -> base.00000.csv.gz, base.00001.csv.gz, ...  + base.manifest.csv
+ *
+ * Ogni segmento è un GZIP indipendente con il proprio header CSV; il manifest
+ * ha una riga per segmento chiuso (file, chiave della prima e dell'ultima
+ * riga, righe, byte prima e dopo la compressione). La chiave è il tempo
+ * passato ad AsyncCsvWriter.key(t), quindi un lettore apre solo i segmenti
+ * che intersecano l'intervallo di tempo cercato.
+ *
+ * Rotazione per dimensione (byte non compressi) e/o per durata; la forma
+ * singola (base.csv) e quella a segmenti si escludono: aprirne una cancella
+ * l'altra.
+ *
+ * Uso: SegmentedCsv info  <base.csv>
+ *      SegmentedCsv range <base.csv> <t0> <t1> [out.csv]   (righe con chiave in [t0, t1])
+ */
+public final class SegmentedCsv {
+
+  static final String MANIFEST_HEADER = "segment,t_first,t_last,rows,raw_bytes,gz_bytes";
+  static final int    GZIP_BUFFER     = 1 << 16;
+
+  private SegmentedCsv() { }
+
+  // ---------- Politica di rotazione ----------
+
+  /** Taglio al superamento di maxBytes (non compressi) o quando una riga dista maxSec dalla prima del segmento. */
+  static final class Rotation {
+    final long   maxBytes;
+    final double maxSec;
+
+    Rotation(long maxBytes, double maxSec) {
+      if (!(maxBytes > 0 && maxSec > 0)) throw new IllegalArgumentException("Limiti di rotazione devono essere > 0");
+      this.maxBytes = maxBytes;
+      this.maxSec = maxSec;
+    }
+
+    /**
+     * "64m", "3600s", "64m+3600s" (il primo limite raggiunto), "gz" = un solo
+     * segmento compresso; dimensioni con suffisso b/k/m/g. null per "", "-", "0".
+     */
+    static Rotation parse(String spec) {
+      String s = spec.trim().toLowerCase(Locale.ROOT);
+      if (s.isEmpty() || s.equals("-") || s.equals("0")) return null;
+      long bytes = Long.MAX_VALUE;
+      double sec = Double.POSITIVE_INFINITY;
+      if (!s.equals("gz")) {
+        for (String part : s.split("\\+")) {
+          char unit = part.charAt(part.length() - 1);
+          String num = part.substring(0, part.length() - 1);
+          switch (unit) {
+            case 's' -> sec = Double.parseDouble(num);
+            case 'b' -> bytes = Long.parseLong(num);
+            case 'k' -> bytes = (long) (Double.parseDouble(num) * (1L << 10));
+            case 'm' -> bytes = (long) (Double.parseDouble(num) * (1L << 20));
+            case 'g' -> bytes = (long) (Double.parseDouble(num) * (1L << 30));
+            default -> throw new IllegalArgumentException("Rotazione non valida (64m, 3600s, 64m+3600s, gz): " + spec);
+          }
+        }
+      }
+      return new Rotation(bytes, sec);
+    }
+
+    String spec() {
+      List<String> parts = new ArrayList<>();
+      if (maxBytes != Long.MAX_VALUE) {
+        parts.add((maxBytes % (1L << 20) == 0) ? (maxBytes >> 20) + "m"
+                : (maxBytes % (1L << 10) == 0) ? (maxBytes >> 10) + "k" : maxBytes + "b");
+      }
+      if (maxSec != Double.POSITIVE_INFINITY) parts.add(String.format(Locale.US, "%.0fs", maxSec));
+      return parts.isEmpty() ? "gz" : String.join("+", parts);
+    }
+  }
+
+  // ---------- Nomi e manifest ----------
+
+  static String stem(String file) {
+    return file.endsWith(".csv") ? file.substring(0, file.length() - 4) : file;
+  }
+
+  static String manifestFile(String file) { return stem(file) + ".manifest.csv"; }
+
+  static String segmentFile(String file, long k) {
+    return stem(file) + String.format(Locale.ROOT, ".%05d.csv.gz", k);
+  }
+
+  /** Riga del manifest: un segmento chiuso. */
+  static final class Segment {
+    final String name;            // nome del file, nella cartella del manifest
+    final double first, last;
+    final long rows, rawBytes, gzBytes;
+
+    Segment(String name, double first, double last, long rows, long rawBytes, long gzBytes) {
+      this.name = name;
+      this.first = first;
+      this.last = last;
+      this.rows = rows;
+      this.rawBytes = rawBytes;
+      this.gzBytes = gzBytes;
+    }
+
+    static Segment parse(String line) {
+      String[] f = line.split(",");
+      return new Segment(f[0], Double.parseDouble(f[1]), Double.parseDouble(f[2]),
+          Long.parseLong(f[3]), Long.parseLong(f[4]), Long.parseLong(f[5]));
+    }
+
+    String line() {
+      return name + "," + AsyncCsvWriter.fixedString(first, 3, '.') + "," + AsyncCsvWriter.fixedString(last, 3, '.')
+          + "," + rows + "," + rawBytes + "," + gzBytes;
+    }
+
+    boolean overlaps(double t0, double t1) { return last >= t0 && first <= t1; }
+  }
+
+  static boolean exists(String file) { return Files.exists(Path.of(manifestFile(file))); }
+
+  static List<Segment> manifest(String file) throws IOException {
+    List<Segment> out = new ArrayList<>();
+    try (BufferedReader in = Files.newBufferedReader(Path.of(manifestFile(file)), StandardCharsets.UTF_8)) {
+      in.readLine();
+      for (String line; (line = in.readLine()) != null; ) {
+        if (!line.isEmpty()) out.add(Segment.parse(line));
+      }
+    }
+    return out;
+  }
+
+  private static Path dir(String file) {
+    Path p = Path.of(file).toAbsolutePath().getParent();
+    return (p != null) ? p : Path.of(".");
+  }
+
+  // Manifest riscritto per intero (tmp + move): dopo un crash resta l'ultimo completo
+  private static void writeManifest(String file, List<Segment> segs) throws IOException {
+    Path target = Path.of(manifestFile(file));
+    Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+    try (BufferedWriter w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+      w.write(MANIFEST_HEADER);
+      w.newLine();
+      for (Segment s : segs) { w.write(s.line()); w.newLine(); }
+    }
+    Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /** Cancella manifest e segmenti di 'file' (se ci sono). */
+  static void delete(String file) throws IOException {
+    if (!exists(file)) return;
+    for (Segment s : manifest(file)) Files.deleteIfExists(dir(file).resolve(s.name));
+    // segmenti scritti dopo l'ultimo manifest (run interrotta)
+    for (long k = manifest(file).size(); Files.deleteIfExists(Path.of(segmentFile(file, k))); k++) { }
+    Files.delete(Path.of(manifestFile(file)));
+  }
+
+  // ---------- Scrittura ----------
+
+  /**
+   * Writer a segmenti su 'file' con header ripetuto in ogni segmento.
+   * @param resumeSegments segmenti da tenere (position() al checkpoint), -1 = run nuova
+   */
+  static AsyncCsvWriter open(String file, String header, Rotation rotation, long resumeSegments) throws IOException {
+    List<Segment> kept;
+    if (resumeSegments < 0) {
+      delete(file);
+      Files.deleteIfExists(Path.of(file));
+      kept = new ArrayList<>();
+    } else {
+      List<Segment> all = exists(file) ? manifest(file) : List.of();
+      if (all.size() < resumeSegments)
+        throw new IOException("Manifest più corto del checkpoint: " + manifestFile(file) + " (" + resumeSegments + " segmenti attesi)");
+      kept = new ArrayList<>(all.subList(0, (int) resumeSegments));
+      for (long k = resumeSegments; Files.deleteIfExists(Path.of(segmentFile(file, k))); k++) { }
+    }
+    writeManifest(file, kept);
+    return new AsyncCsvWriter(file, new GzipSink(file, header, kept), rotation, kept.size());
+  }
+
+  /** Segmento aperto alla prima scrittura (header compreso), chiuso e registrato a ogni taglio. */
+  private static final class GzipSink implements AsyncCsvWriter.Sink {
+    private final String file;
+    private final byte[] header;
+    private final List<Segment> segs;
+    private OutputStream out;
+    private long raw;
+
+    GzipSink(String file, String header, List<Segment> segs) {
+      this.file = file;
+      this.header = (header + System.lineSeparator()).getBytes(StandardCharsets.UTF_8);
+      this.segs = segs;
+    }
+
+    public void write(byte[] buf, int len) throws IOException {
+      if (out == null) {
+        out = new GZIPOutputStream(new BufferedOutputStream(
+            Files.newOutputStream(Path.of(segmentFile(file, segs.size()))), GZIP_BUFFER), GZIP_BUFFER);
+        out.write(header);
+        raw = header.length;
+      }
+      out.write(buf, 0, len);
+      raw += len;
+    }
+
+    public void cut(double first, double last, long rows) throws IOException {
+      if (out == null) return;
+      out.close();
+      out = null;
+      Path seg = Path.of(segmentFile(file, segs.size()));
+      segs.add(new Segment(seg.getFileName().toString(), first, last, rows, raw, Files.size(seg)));
+      writeManifest(file, segs);
+    }
+
+    public void close() throws IOException {
+      if (out != null) out.close(); // righe senza chiave dopo l'ultimo taglio: fuori dal manifest
+    }
+  }
+
+  // ---------- Lettura ----------
+
+  private static InputStream gunzip(Path p) throws IOException {
+    return new GZIPInputStream(Files.newInputStream(p), GZIP_BUFFER);
+  }
+
+  /**
+   * Tutto il CSV come un unico flusso: il file singolo se non c'è il
+   * manifest, altrimenti i segmenti in ordine (l'header compare una volta per
+   * segmento: chi legge salta le righe di header).
+   */
+  static BufferedReader reader(String file) throws IOException {
+    if (!exists(file)) return Files.newBufferedReader(Path.of(file), StandardCharsets.UTF_8);
+    return reader(file, manifest(file));
+  }
+
+  private static BufferedReader reader(String file, List<Segment> segs) throws IOException {
+    List<InputStream> streams = new ArrayList<>();
+    try {
+      for (Segment s : segs) streams.add(gunzip(dir(file).resolve(s.name)));
+    } catch (IOException e) {
+      for (InputStream in : streams) in.close();
+      throw e;
+    }
+    return new BufferedReader(new InputStreamReader(
+        new SequenceInputStream(Collections.enumeration(streams)), StandardCharsets.UTF_8), GZIP_BUFFER);
+  }
+
+  /**
+   * Scrive header e righe con chiave (prima colonna) in [t0, t1], aprendo solo
+   * i segmenti che intersecano l'intervallo.
+   * @return {righe scritte, segmenti aperti, segmenti totali}
+   */
+  static long[] range(String file, double t0, double t1, PrintStream out) throws IOException {
+    List<Segment> all = exists(file) ? manifest(file) : null;
+    List<Segment> hit = new ArrayList<>();
+    if (all != null) for (Segment s : all) if (s.overlaps(t0, t1)) hit.add(s);
+    long rows = 0;
+    boolean header = false;
+    try (BufferedReader in = (all != null) ? reader(file, hit)
+                                           : Files.newBufferedReader(Path.of(file), StandardCharsets.UTF_8)) {
+      for (String line; (line = in.readLine()) != null; ) {
+        if (line.isEmpty()) continue;
+        int comma = line.indexOf(',');
+        double t;
+        try {
+          t = Double.parseDouble((comma < 0) ? line : line.substring(0, comma));
+        } catch (NumberFormatException e) {
+          if (!header) { out.println(line); header = true; }
+          continue;
+        }
+        if (t < t0 || t > t1) continue;
+        out.println(line);
+        rows++;
+      }
+    }
+    return new long[]{ rows, hit.size(), (all != null) ? all.size() : 0 };
+  }
+
+  // ---------- CLI ----------
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2 || !(args[0].equals("info") || (args[0].equals("range") && args.length >= 4))) {
+      System.err.println("Uso: SegmentedCsv info <base.csv> | range <base.csv> <t0> <t1> [out.csv]");
+      System.exit(2);
+    }
+    String file = args[1];
+    if (args[0].equals("info")) {
+      List<Segment> segs = manifest(file);
+      long rows = 0, raw = 0, gz = 0;
+      for (Segment s : segs) {
+        System.out.printf(Locale.US, "%-40s t=[%.3f, %.3f] %,10d righe %,12d -> %,10d B%n",
+            s.name, s.first, s.last, s.rows, s.rawBytes, s.gzBytes);
+        rows += s.rows; raw += s.rawBytes; gz += s.gzBytes;
+      }
+      System.out.printf(Locale.US, "[info] %d segmenti, %,d righe, %,d -> %,d B (%.1fx)%n",
+          segs.size(), rows, raw, gz, (gz > 0) ? (double) raw / gz : 0.0);
+      return;
+    }
+
+    double t0 = Double.parseDouble(args[2]), t1 = Double.parseDouble(args[3]);
+    long start = System.nanoTime();
+    long[] r;
+    if (args.length > 4) {
+      try (PrintStream out = new PrintStream(new BufferedOutputStream(Files.newOutputStream(Path.of(args[4]))),
+          false, StandardCharsets.UTF_8)) {
+        r = range(file, t0, t1, out);
+      }
+    } else {
+      r = range(file, t0, t1, System.out);
+      System.out.flush();
+    }
+    System.err.printf(Locale.US, "[info] %d righe in [%.3f, %.3f], segmenti letti %d/%d, %.3f s%n",
+        r[0], t0, t1, r[1], r[2], (System.nanoTime() - start) / 1e9);
+  }
+}
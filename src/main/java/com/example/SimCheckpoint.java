@@ -0,0 +1,335 @@
+package com.example;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.oristool.petrinet.Place;
+
+/**
+ * Checkpoint binario dello stato completo di una run (TimeseriesSimulator.SimRun):
+ * configurazione, marcatura (tutti i posti per nome), stato dell'RNG, clock,
+ * nextControl, accumulatori d'intervallo e globali, memoria del controller,
+ * posizioni raggiunte nei file di uscita (CSV intervalli, debug, trace) e stato
+ * dello stepper (tratto rinviato del tau-leaping, RNG e calendario del motore
+ * generico). Le metriche sono della run e ripartono da zero.
+ *
+ * Scrittura su file temporaneo + rename atomico: un checkpoint è sempre intero.
+ * La ripresa riapre le uscite troncate alle posizioni salvate, quindi una run
+ * interrotta e ripresa produce gli stessi byte di una run senza interruzioni.
+ *
+ * Uso: SimCheckpoint resume [ckpt] [metricsPort]
+ *      SimCheckpoint fork <ckpt> <spec>...   spec = same | default | nofuture | custom:H:C [@seed]
+ *      SimCheckpoint info [ckpt]
+ *
+ * I fork ripartono tutti dallo stesso checkpoint in parallelo, ognuno nella
+ * propria cartella forkN/ (solo CSV intervalli e riassunto, niente debug/trace).
+ */
+public final class SimCheckpoint {
+
+  static final int MAGIC   = 0x434B5031; // "CKP1"
+  static final int VERSION = 4; // 2: forma del modello (classi, fasi) dopo la versione
+                                // 3: rotazione degli intervalli dopo traceOn ("" = CSV singolo)
+                                // 4: avanzamento (exact | tau | generic) e stato dello stepper in coda
+
+  private SimCheckpoint() { }
+
+  // ---------- Scrittura ----------
+
+  static void write(TimeseriesSimulator.SimRun r, String file,
+                    long intervalsPos, long debugPos, long traceRecords) throws IOException {
+    if (r.controller != null)
+      throw new IOException("Checkpoint non disponibile con politica esterna: " + r.controller.name());
+    Path target = Path.of(file);
+    Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(r.model.classes);
+      out.writeInt(r.model.phases);
+
+      // configurazione
+      out.writeUTF(r.arrivalsPath);
+      out.writeUTF(r.mode.name());
+      out.writeDouble(r.horizonSec);
+      out.writeDouble(r.controlSec);
+      out.writeDouble(r.checkpointSec);
+      out.writeBoolean(r.debugOn);
+      out.writeBoolean(r.traceOn);
+      out.writeUTF((r.rotation != null) ? r.rotation.spec() : "");
+
+      // clock e accumulatori
+      out.writeDouble(r.clock);
+      out.writeDouble(r.nextControl);
+      out.writeDouble(r.lastT);
+      out.writeDouble(r.nextCheckpoint);
+      out.writeLong(r.processed);
+      out.writeDouble(r.simTime);
+      out.writeDouble(r.idleSum);
+      out.writeInt(r.totalRejects);
+      out.writeDouble(r.intervalStart);
+      out.writeDouble(r.intervalIdle);
+      out.writeInt(r.intervalArr);
+      out.writeInt(r.intervalRej);
+      out.writeInt(r.lastTargetTot);
+      out.writeDouble(r.lastApplyTime);
+      out.writeInt(r.debugLog);
+
+      // memoria del controller
+      out.writeDouble(r.ctl.lastPredReject);
+      out.writeInt(r.ctl.lastPredN);
+      out.writeInt(r.ctl.lastCandidates);
+
+      // marcatura
+      List<Place> places = new ArrayList<>(r.model.net.getPlaces());
+      out.writeInt(places.size());
+      for (Place p : places) {
+        out.writeUTF(p.getName());
+        out.writeInt(r.model.marking.getTokens(p));
+      }
+
+      writeRandom(out, r.rng);
+
+      // posizioni nei file di uscita
+      out.writeLong(intervalsPos);
+      out.writeLong(debugPos);
+      out.writeLong(traceRecords);
+
+      // stepper
+      out.writeUTF(r.advanceMode());
+      if (r.tauLeap != null) r.tauLeap.writeState(out);
+      if (r.stepper != null) r.stepper.writeState(out);
+    }
+    Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  // ---------- Lettura ----------
+
+  /** Ricostruisce la run: modello nuovo dal builder, poi marcatura e stato dal file. */
+  static TimeseriesSimulator.SimRun read(String file) throws IOException {
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(Path.of(file))))) {
+      if (in.readInt() != MAGIC) throw new IOException("Checkpoint non valido (magic): " + file);
+      int version = in.readInt();
+      if (version < 1 || version > VERSION) throw new IOException("Versione checkpoint non supportata: " + version);
+      int classes = (version >= 2) ? in.readInt() : ModelOris2_fase4.LEGACY_CLASSES;
+      int phases  = (version >= 2) ? in.readInt() : ModelOris2_fase4.LEGACY_PHASES;
+
+      String arrivalsPath = in.readUTF();
+      TimeseriesSimulator.Mode mode = TimeseriesSimulator.Mode.valueOf(in.readUTF());
+      double horizonSec = in.readDouble();
+      double controlSec = in.readDouble();
+
+      ModelOris2_fase4.GspnModel model = ModelTemplate.fase4(classes, phases).instance();
+      TimeseriesSimulator.disableAutomaticArrivals(model);
+      TimeseriesSimulator.SimRun r =
+          new TimeseriesSimulator.SimRun(arrivalsPath, mode, horizonSec, controlSec, model, null);
+      r.checkpointSec = in.readDouble();
+      r.debugOn = in.readBoolean();
+      r.traceOn = in.readBoolean();
+      if (version >= 3) r.rotation = SegmentedCsv.Rotation.parse(in.readUTF());
+
+      r.started        = true;
+      r.clock          = in.readDouble();
+      r.nextControl    = in.readDouble();
+      r.lastT          = in.readDouble();
+      r.nextCheckpoint = in.readDouble();
+      r.processed      = in.readLong();
+      r.simTime        = in.readDouble();
+      r.idleSum        = in.readDouble();
+      r.totalRejects   = in.readInt();
+      r.intervalStart  = in.readDouble();
+      r.intervalIdle   = in.readDouble();
+      r.intervalArr    = in.readInt();
+      r.intervalRej    = in.readInt();
+      r.lastTargetTot  = in.readInt();
+      r.lastApplyTime  = in.readDouble();
+      r.debugLog       = in.readInt();
+
+      r.ctl.lastPredReject = in.readDouble();
+      r.ctl.lastPredN      = in.readInt();
+      r.ctl.lastCandidates = in.readInt();
+
+      int nPlaces = in.readInt();
+      for (int k = 0; k < nPlaces; k++) {
+        String name = in.readUTF();
+        int tokens = in.readInt();
+        Place p = model.net.getPlace(name);
+        if (p == null) throw new IOException("Posto sconosciuto nel checkpoint: " + name);
+        model.marking.setTokens(p, tokens);
+      }
+      model.entryTables = null; // pesi W** ripristinati: tabelle alias da ricostruire
+
+      r.rng = readRandom(in);
+
+      r.resumeIntervals = in.readLong();
+      r.resumeDebug     = in.readLong();
+      r.resumeTrace     = in.readLong();
+
+      // stepper costruiti sulla marcatura già ripristinata
+      if (version >= 4) {
+        r.advanceMode(in.readUTF());
+        if (r.tauLeap != null) r.tauLeap.readState(in, model);
+        if (r.stepper != null) r.stepper.readState(in);
+      }
+      return r;
+    }
+  }
+
+  // RNG: java.util.Random serializza il seed corrente
+  static void writeRandom(DataOutput out, Random rng) throws IOException {
+    ByteArrayOutputStream rb = new ByteArrayOutputStream();
+    try (ObjectOutputStream oos = new ObjectOutputStream(rb)) { oos.writeObject(rng); }
+    out.writeInt(rb.size());
+    out.write(rb.toByteArray());
+  }
+
+  static Random readRandom(DataInput in) throws IOException {
+    byte[] rb = new byte[in.readInt()];
+    in.readFully(rb);
+    try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(rb))) {
+      return (Random) ois.readObject();
+    } catch (ClassNotFoundException e) {
+      throw new IOException("RNG non leggibile nel checkpoint", e);
+    }
+  }
+
+  // ---------- Fork ----------
+
+  /**
+   * Applica una spec di fork alla run: same | default | nofuture | custom:H:C,
+   * con suffisso opzionale @seed per un RNG diverso da quello salvato.
+   */
+  static void applySpec(TimeseriesSimulator.SimRun r, String spec) {
+    String s = spec;
+    int at = s.indexOf('@');
+    if (at >= 0) {
+      r.rng = new Random(Long.parseLong(s.substring(at + 1)));
+      s = s.substring(0, at);
+    }
+    String[] f = s.split(":");
+    switch (f[0].toLowerCase(Locale.ROOT)) {
+      case "same" -> { }
+      case "default" -> {
+        r.mode = TimeseriesSimulator.Mode.DEFAULT;
+        r.horizonSec = TimeseriesSimulator.HORIZON_SEC;
+        r.controlSec = TimeseriesSimulator.CONTROL_SEC;
+      }
+      case "nofuture" -> r.mode = TimeseriesSimulator.Mode.NO_FUTURE;
+      case "custom" -> {
+        if (f.length != 3) throw new IllegalArgumentException("Spec custom attesa come custom:H:C: " + spec);
+        r.mode = TimeseriesSimulator.Mode.CUSTOM;
+        r.horizonSec = Double.parseDouble(f[1]);
+        r.controlSec = Double.parseDouble(f[2]);
+        if (!(r.horizonSec > 0 && r.controlSec > 0))
+          throw new IllegalArgumentException("Orizzonte e periodo devono essere > 0: " + spec);
+      }
+      default -> throw new IllegalArgumentException("Spec di fork non valida: " + spec);
+    }
+  }
+
+  static List<TimeseriesSimulator.SimRun> fork(String ckpt, List<String> specs) throws Exception {
+    List<TimeseriesSimulator.SimRun> runs = new ArrayList<>();
+    for (int k = 0; k < specs.size(); k++) {
+      TimeseriesSimulator.SimRun r = read(ckpt);
+      applySpec(r, specs.get(k));
+      r.outDir = "fork" + k + "/";
+      r.debugOn = false;
+      r.traceOn = false;
+      r.quiet = true;
+      r.checkpointSec = 0.0;
+      r.resumeIntervals = r.resumeDebug = r.resumeTrace = -1;
+      Files.createDirectories(Path.of(r.outDir));
+      runs.add(r);
+    }
+
+    int threads = Math.min(runs.size(), Runtime.getRuntime().availableProcessors());
+    ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+    try {
+      List<Future<Boolean>> done = new ArrayList<>();
+      for (TimeseriesSimulator.SimRun r : runs) done.add(pool.submit(() -> TimeseriesSimulator.simulate(r)));
+      for (Future<Boolean> f : done) f.get();
+    } finally {
+      pool.shutdown();
+    }
+    return runs;
+  }
+
+  // ---------- CLI ----------
+
+  public static void main(String[] args) throws Exception {
+    String cmd = (args.length > 0) ? args[0] : "info";
+    switch (cmd) {
+      case "resume" -> {
+        String ckpt = (args.length > 1) ? args[1] : TimeseriesSimulator.CHECKPOINT_FILE;
+        int port = (args.length > 2) ? Integer.parseInt(args[2]) : 0;
+        TimeseriesSimulator.SimRun r = read(ckpt);
+        System.out.printf(Locale.US, "[info] ripresa da %s: t=%.3f, %d arrivi già elaborati%n",
+            ckpt, r.clock, r.processed);
+        r.metrics.registerJmx();
+        if (port > 0 && r.metrics.startHttp(port))
+          System.out.println("[info] metriche: http://127.0.0.1:" + port + "/metrics");
+        try {
+          TimeseriesSimulator.simulate(r);
+        } finally {
+          r.metrics.stopHttp();
+        }
+        System.out.println("CSV scritto: " + r.summaryFile());
+        System.out.println("CSV per intervalli: " + r.intervalsFile());
+      }
+      case "fork" -> {
+        if (args.length < 3) {
+          System.err.println("Uso: SimCheckpoint fork <ckpt> <spec>...  (same | default | nofuture | custom:H:C [@seed])");
+          System.exit(2);
+        }
+        List<String> specs = List.of(args).subList(2, args.length);
+        long t0 = System.nanoTime();
+        List<TimeseriesSimulator.SimRun> runs = fork(args[1], specs);
+        System.out.printf(Locale.US, "%-4s %-24s %-22s %10s %12s %10s%n",
+            "fork", "spec", "modalità", "rejection", "rej_rate", "idle");
+        for (int k = 0; k < runs.size(); k++) {
+          TimeseriesSimulator.SimRun r = runs.get(k);
+          System.out.printf(Locale.US, "%-4d %-24s %-22s %10d %12.6f %10.3f%n",
+              k, specs.get(k), r.tag(), r.totalRejects, r.rejRate, r.idleMean);
+        }
+        System.out.printf(Locale.US, "[info] %d fork in %.2f s (cartelle fork0..fork%d)%n",
+            runs.size(), (System.nanoTime() - t0) / 1e9, runs.size() - 1);
+      }
+      case "info" -> {
+        String ckpt = (args.length > 1) ? args[1] : TimeseriesSimulator.CHECKPOINT_FILE;
+        TimeseriesSimulator.SimRun r = read(ckpt);
+        System.out.printf(Locale.US, "checkpoint: %s%n", ckpt);
+        System.out.printf(Locale.US, "arrivi: %s | modalità: %s | avanzamento: %s%n",
+            r.arrivalsPath, r.tag(), r.advanceMode());
+        System.out.printf(Locale.US, "t=%.3f  nextControl=%.3f  arrivi=%d  rejection=%d  simTime=%.3f%n",
+            r.clock, r.nextControl, r.processed, r.totalRejects, r.simTime);
+        System.out.printf(Locale.US, "modello %dx%d | %s%n", r.model.classes, r.model.phases,
+            TimeseriesSimulator.stateText(TimeseriesSimulator.stateVector(r.model)));
+        System.out.printf(Locale.US, "uscite: intervalli=%d %s, debug=%d B, trace=%d record%n",
+            r.resumeIntervals, (r.rotation != null) ? "segmenti (" + r.rotation.spec() + ")" : "B",
+            r.resumeDebug, r.resumeTrace);
+      }
+      default -> {
+        System.err.println("Uso: SimCheckpoint resume [ckpt] [port] | fork <ckpt> <spec>... | info [ckpt]");
+        System.exit(2);
+      }
+    }
+  }
+}
@@ -0,0 +1,91 @@
+package com.example;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Eventi JFR dei punti caldi di simulatore, controller e analisi Sirio.
+ *
+ * Disattivati di default (@Enabled(false)): si accendono dal file .jfc o da
+ * riga di comando, es.
+ *   -XX:StartFlightRecording:filename=run.jfr,+com.example.ControlTick#enabled=true
+ * Da spenti begin()/commit() sono no-op: resta al più l'allocazione di un
+ * oggetto piccolo per evento, nei punti caldi (tick, orizzonte, blocco di
+ * arrivi) a frequenza di controllo e non di evento della rete.
+ */
+public final class SimEvents {
+
+  private SimEvents() {}
+
+  @Name("com.example.ControlTick")
+  @Label("Control Tick")
+  @Category({ "Sirio", "Controller" })
+  @Description("Decisione del controller ad un tick di controllo")
+  @Enabled(false)
+  @StackTrace(false)
+  public static final class ControlTick extends Event {
+    @Label("Mode")             String mode;
+    @Label("Sim Time")         double simTime;
+    @Label("Candidates")       int    candidates;
+    @Label("Chosen Total")     int    chosenTotal;
+    @Label("Pool")             int    pool;
+    @Label("Busy")             int    busy;
+    @Label("Predicted Reject") double predictedReject;
+    @Label("Horizon Arrivals") int    horizonArrivals;
+  }
+
+  @Name("com.example.HorizonSimulation")
+  @Label("Horizon Simulation")
+  @Category({ "Sirio", "Controller" })
+  @Description("Simulazione dell'orizzonte per un totale candidato")
+  @Enabled(false)
+  @StackTrace(false)
+  public static final class HorizonSimulation extends Event {
+    @Label("Target Total") int targetTotal;
+    @Label("Arrivals")     int arrivals;
+    @Label("Rejections")   int rejections;
+  }
+
+  @Name("com.example.AnalysisPhase")
+  @Label("Analysis Phase")
+  @Category({ "Sirio", "Analysis" })
+  @Description("Fase di un'analisi in Main (build, stima, transitorio, regime)")
+  @Enabled(false)
+  @StackTrace(false)
+  public static final class AnalysisPhase extends Event {
+    @Label("Phase")  String phase;
+    @Label("Output") String output;
+    @Label("Pool")   int    pool;
+
+    // Evento restituito al chiamante fino a done(): una allocazione per fase
+    static AnalysisPhase start(String phase, String output, int pool) {
+      AnalysisPhase e = new AnalysisPhase();
+      e.begin();
+      e.phase = phase; e.output = output; e.pool = pool;
+      return e;
+    }
+
+    void done() {
+      end();
+      if (shouldCommit()) commit();
+    }
+  }
+
+  @Name("com.example.ArrivalBatch")
+  @Label("Arrival Batch")
+  @Category({ "Sirio", "Arrivals" })
+  @Description("Lettura di un blocco di arrivi")
+  @Enabled(false)
+  @StackTrace(false)
+  public static final class ArrivalBatch extends Event {
+    @Label("Source")     String source;
+    @Label("Arrivals")   int    arrivals;
+    @Label("First Time") double firstTime;
+    @Label("Last Time")  double lastTime;
+  }
+}
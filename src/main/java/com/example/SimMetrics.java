@@ -0,0 +1,258 @@
+package com.example;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Metriche runtime del simulatore, lette mentre la run è in corso:
+ * - contatori: eventi, arrivi, rejection per classe, tick del controller,
+ *   candidati valutati, decisioni scartate verso client lenti (ControllerService)
+ * - gauge: Pool e busy correnti
+ * - istogramma della latenza di decisione del controller (bucket 2^k µs)
+ *
+ * Registrazione lock-free (LongAdder / AtomicLongArray, nessuna allocazione);
+ * esposte come MBean JMX (com.example:type=SimMetrics) e in formato testo
+ * Prometheus su http://127.0.0.1:<porta>/metrics.
+ */
+public final class SimMetrics {
+
+  static final int BUCKETS = 26; // fino a 2^24 µs (~16.8 s) + overflow
+
+  private final long startNanos = System.nanoTime();
+
+  private final LongAdder events      = new LongAdder();
+  private final LongAdder arrivals    = new LongAdder();
+  private final LongAdder ticks       = new LongAdder();
+  private final LongAdder candidates  = new LongAdder();
+  private final LongAdder latencySum  = new LongAdder(); // ns
+  private final LongAdder dropped     = new LongAdder(); // decisioni non consegnate (coda client piena)
+  private final LongAdder[] rejects;  // [0] = classe fuori range, [c] = classe c
+  final int classes;
+  private final AtomicLongArray latencyBuckets = new AtomicLongArray(BUCKETS);
+
+  private volatile int pool;
+  private volatile int busy;
+  private volatile int lastCandidates;
+
+  // rate "recenti" (ultimo campionamento di almeno 1 s)
+  private long   sampleNanos = startNanos, sampleEvents, sampleArrivals;
+  private double eventsRate, arrivalsRate;
+
+  private HttpServer http;
+
+  public SimMetrics(int classes) {
+    this.classes = classes;
+    rejects = new LongAdder[classes + 1];
+    for (int c = 0; c <= classes; c++) rejects[c] = new LongAdder();
+  }
+
+  // ---------- Registrazione (hot path) ----------
+
+  public void event() { events.increment(); }
+
+  public void arrival(int cls, boolean accepted) {
+    events.increment();
+    arrivals.increment();
+    if (!accepted) rejects[(cls >= 1 && cls <= classes) ? cls : 0].increment();
+  }
+
+  public void decision(long nanos, int tried) {
+    events.increment();
+    ticks.increment();
+    candidates.add(tried);
+    lastCandidates = tried;
+    latencySum.add(nanos);
+    latencyBuckets.incrementAndGet(bucket(nanos));
+  }
+
+  public void dropped() { dropped.increment(); }
+
+  public void gauges(int pool, int busy) {
+    this.pool = pool;
+    this.busy = busy;
+  }
+
+  // Primo k con latenza <= 2^k µs
+  static int bucket(long nanos) {
+    long us = (nanos + 999) / 1000;
+    return (us <= 1) ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(us - 1));
+  }
+
+  // Limite superiore del bucket k in secondi (2^k µs)
+  static double bucketBound(int k) {
+    return (1L << k) * 1e-6;
+  }
+
+  // ---------- Vista JMX ----------
+
+  public interface View {
+    long   getEvents();
+    long   getArrivals();
+    long   getRejections();
+    int    getClasses();
+    long[] getRejectionsByClass(); // [c-1] = classe c
+    double getEventsPerSec();
+    double getArrivalsPerSec();
+    long   getControlTicks();
+    long   getCandidatesEvaluated();
+    int    getLastCandidates();
+    long   getDecisionsDropped();
+    double getDecisionLatencyMeanMicros();
+    double getDecisionLatencyP99Micros();
+    int    getPool();
+    int    getBusy();
+    double getUptimeSec();
+  }
+
+  private final View view = new View() {
+    public long   getEvents()             { return events.sum(); }
+    public long   getArrivals()           { return arrivals.sum(); }
+    public long   getRejections()         { long s = 0; for (LongAdder r : rejects) s += r.sum(); return s; }
+    public int    getClasses()            { return classes; }
+    public long[] getRejectionsByClass()  {
+      long[] out = new long[classes];
+      for (int c = 1; c <= classes; c++) out[c - 1] = rejects[c].sum();
+      return out;
+    }
+    public double getEventsPerSec()       { sample(); return eventsRate; }
+    public double getArrivalsPerSec()     { sample(); return arrivalsRate; }
+    public long   getControlTicks()       { return ticks.sum(); }
+    public long   getCandidatesEvaluated(){ return candidates.sum(); }
+    public int    getLastCandidates()     { return lastCandidates; }
+    public long   getDecisionsDropped()   { return dropped.sum(); }
+    public double getDecisionLatencyMeanMicros() {
+      long n = ticks.sum();
+      return (n > 0) ? latencySum.sum() / 1e3 / n : 0.0;
+    }
+    public double getDecisionLatencyP99Micros() { return latencyQuantile(0.99) * 1e6; }
+    public int    getPool()               { return pool; }
+    public int    getBusy()               { return busy; }
+    public double getUptimeSec()          { return (System.nanoTime() - startNanos) / 1e9; }
+  };
+
+  public View view() { return view; }
+
+  // Rejection della classe cls (1..classes), 0 = classi fuori range
+  public long rejections(int cls) {
+    return rejects[cls].sum();
+  }
+
+  private synchronized void sample() {
+    long now = System.nanoTime();
+    if (sampleNanos != startNanos && now - sampleNanos < 1_000_000_000L) return;
+    double dt = (now - sampleNanos) / 1e9;
+    long e = events.sum(), a = arrivals.sum();
+    if (dt > 0) {
+      eventsRate   = (e - sampleEvents) / dt;
+      arrivalsRate = (a - sampleArrivals) / dt;
+    }
+    sampleNanos = now; sampleEvents = e; sampleArrivals = a;
+  }
+
+  // Quantile approssimato (limite superiore del bucket), in secondi
+  double latencyQuantile(double q) {
+    long total = 0;
+    for (int k = 0; k < BUCKETS; k++) total += latencyBuckets.get(k);
+    if (total == 0) return 0.0;
+    long target = (long) Math.ceil(q * total), acc = 0;
+    for (int k = 0; k < BUCKETS; k++) {
+      acc += latencyBuckets.get(k);
+      if (acc >= target) return bucketBound(k);
+    }
+    return bucketBound(BUCKETS - 1);
+  }
+
+  public void registerJmx() {
+    try {
+      MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+      ObjectName name = new ObjectName("com.example:type=SimMetrics");
+      if (mbs.isRegistered(name)) mbs.unregisterMBean(name);
+      mbs.registerMBean(new StandardMBean(view, View.class), name);
+    } catch (JMException e) {
+      System.out.println("[warn] metriche JMX non registrate: " + e.getMessage());
+    }
+  }
+
+  // ---------- Formato testo Prometheus ----------
+
+  public String prometheus() {
+    StringBuilder sb = new StringBuilder(2048);
+    counter(sb, "sim_events_total", "Eventi simulati (movimenti, arrivi, tick)", events.sum());
+    counter(sb, "sim_arrivals_total", "Arrivi processati", arrivals.sum());
+    sb.append("# HELP sim_rejections_total Richieste rifiutate per classe\n")
+      .append("# TYPE sim_rejections_total counter\n");
+    for (int c = 1; c <= classes; c++)
+      sb.append("sim_rejections_total{class=\"").append(c).append("\"} ").append(rejects[c].sum()).append('\n');
+    counter(sb, "sim_control_ticks_total", "Decisioni del controller", ticks.sum());
+    counter(sb, "sim_candidates_evaluated_total", "Totali candidati valutati dal controller", candidates.sum());
+    counter(sb, "sim_decisions_dropped_total", "Decisioni scartate per coda piena di un client", dropped.sum());
+    gauge(sb, "sim_events_per_second", "Eventi al secondo (ultimo campione)", view.getEventsPerSec());
+    gauge(sb, "sim_arrivals_per_second", "Arrivi al secondo (ultimo campione)", view.getArrivalsPerSec());
+    gauge(sb, "sim_pool", "Token in Pool", pool);
+    gauge(sb, "sim_busy", "Richieste in servizio (Ph1..PhM)", busy);
+    gauge(sb, "sim_last_candidates", "Candidati valutati all'ultimo tick", lastCandidates);
+
+    sb.append("# HELP sim_decision_latency_seconds Latenza di decisione del controller\n")
+      .append("# TYPE sim_decision_latency_seconds histogram\n");
+    long acc = 0;
+    for (int k = 0; k < BUCKETS - 1; k++) {
+      acc += latencyBuckets.get(k);
+      sb.append("sim_decision_latency_seconds_bucket{le=\"").append(bucketBound(k)).append("\"} ")
+        .append(acc).append('\n');
+    }
+    acc += latencyBuckets.get(BUCKETS - 1);
+    sb.append("sim_decision_latency_seconds_bucket{le=\"+Inf\"} ").append(acc).append('\n');
+    sb.append("sim_decision_latency_seconds_sum ").append(latencySum.sum() / 1e9).append('\n');
+    sb.append("sim_decision_latency_seconds_count ").append(acc).append('\n');
+    return sb.toString();
+  }
+
+  private static void counter(StringBuilder sb, String name, String help, long v) {
+    sb.append("# HELP ").append(name).append(' ').append(help).append('\n')
+      .append("# TYPE ").append(name).append(" counter\n")
+      .append(name).append(' ').append(v).append('\n');
+  }
+
+  private static void gauge(StringBuilder sb, String name, String help, double v) {
+    sb.append("# HELP ").append(name).append(' ').append(help).append('\n')
+      .append("# TYPE ").append(name).append(" gauge\n")
+      .append(name).append(' ').append(v).append('\n');
+  }
+
+  // ---------- Endpoint HTTP ----------
+
+  /** Avvia /metrics su 127.0.0.1:port; false se la porta non è disponibile. */
+  public boolean startHttp(int port) {
+    try {
+      HttpServer s = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+      s.createContext("/metrics", ex -> {
+        byte[] body = prometheus().getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        ex.sendResponseHeaders(200, body.length);
+        try (OutputStream os = ex.getResponseBody()) { os.write(body); }
+      });
+      s.start(); // richieste servite dal thread dispatcher: fermarlo con stopHttp()
+      http = s;
+      return true;
+    } catch (IOException e) {
+      System.out.println("[warn] endpoint metriche non avviato sulla porta " + port + ": " + e.getMessage());
+      return false;
+    }
+  }
+
+  public void stopHttp() {
+    if (http != null) { http.stop(0); http = null; }
+  }
+}
@@ -5,18 +5,27 @@ import java.util.Deque;
 
 /**
  * Stima dei rate a finestra mobile:
- * - add(t, cls): registra un arrivo (t in secondi, cls in {1,2,3})
- * - estimateRatesAt(timeSec): restituisce lamba 1..3 (jobs/sec) stimati sugli ultimi W secondi.
+ * - add(t, cls): registra un arrivo (t in secondi, cls in 1..N)
+ * - estimateRatesAt(timeSec): restituisce lambda 1..N (jobs/sec) stimati sugli ultimi W secondi.
+ *
+ * I conteggi per classe sono tenuti aggiornati ad ogni add() e ad ogni uscita
+ * dalla finestra: con tempi non decrescenti la stima costa O(eventi scartati),
+ * non O(finestra). Se si chiede una stima prima dell'ultimo arrivo registrato
+ * si ripiega sul conteggio esplicito.
  */
 public class SlidingRateEstimator {
 
   public static class Rates {
-    public final double lambda1, lambda2, lambda3;
-    public Rates(double l1, double l2, double l3) {
-      this.lambda1 = l1; this.lambda2 = l2; this.lambda3 = l3;
-    }
+    final double[] lambda; // classe c -> lambda[c-1]
+    public Rates(double... lambda) { this.lambda = lambda; }
+    public int classes() { return lambda.length; }
+    public double of(int cls) { return lambda[cls - 1]; }
+    public double total() { double s = 0.0; for (double l : lambda) s += l; return s; }
     @Override public String toString(){
-      return String.format("Rates{l1=%.3f,l2=%.3f,l3=%.3f}", lambda1,lambda2,lambda3);
+      StringBuilder sb = new StringBuilder("Rates{");
+      for (int c = 1; c <= lambda.length; c++)
+        sb.append((c > 1) ? "," : "").append(String.format("l%d=%.3f", c, lambda[c - 1]));
+      return sb.append('}').toString();
     }
   }
 
@@ -30,34 +39,48 @@ public class SlidingRateEstimator {
   @SuppressWarnings("unused")
   private final double stepSec;
   private final Deque<Event> q = new ArrayDeque<>();
+  private final int[] counts; // eventi in coda per classe (indice = classe)
+  private double lastT = Double.NEGATIVE_INFINITY;
 
   public SlidingRateEstimator(double windowSec, double stepSec) {
+    this(windowSec, stepSec, ModelOris2_fase4.LEGACY_CLASSES);
+  }
+
+  public SlidingRateEstimator(double windowSec, double stepSec, int classes) {
     this.windowSec = windowSec;
     this.stepSec   = stepSec;
+    this.counts    = new int[classes + 1];
   }
 
   // Registra un arrivo
   public void add(double t, int cls) {
-    if (cls < 1 || cls > 3) return;
+    if (cls < 1 || cls >= counts.length) return;
     q.addLast(new Event(t, cls));
+    counts[cls]++;
+    if (t > lastT) lastT = t;
   }
 
+  // Arrivi attualmente nella finestra (dopo l'ultima stima)
+  public int size() { return q.size(); }
+
   // Stima dei rate sugli ultimi windowSec secondi
   public Rates estimateRatesAt(double timeSec) {
     // scarta tutto ciò che è più vecchio della finestra
     double cutoff = timeSec - windowSec;
     while (!q.isEmpty() && q.peekFirst().t < cutoff) {
-      q.removeFirst();
+      counts[q.removeFirst().cls]--;
     }
-    int c1 = 0, c2 = 0, c3 = 0;
+    double w = Math.max(1e-9, windowSec);
+    double[] l = new double[counts.length - 1];
+    if (lastT <= timeSec) {
+      for (int c = 1; c < counts.length; c++) l[c - 1] = counts[c] / w;
+      return new Rates(l);
+    }
+    int[] in = new int[counts.length];
     for (Event e : q) {
-      if (e.t <= timeSec && e.t >= cutoff) {
-        if      (e.cls == 1) c1++;
-        else if (e.cls == 2) c2++;
-        else if (e.cls == 3) c3++;
-      }
+      if (e.t <= timeSec && e.t >= cutoff) in[e.cls]++;
     }
-    double w = Math.max(1e-9, windowSec);
-    return new Rates(c1 / w, c2 / w, c3 / w);
+    for (int c = 1; c < in.length; c++) l[c - 1] = in[c] / w;
+    return new Rates(l);
   }
 }
@@ -0,0 +1,120 @@
+package com.example;
+
+import java.util.Arrays;
+
+import org.oristool.petrinet.Marking;
+
+/**
+ * Spazio degli stati tangibile di una GSPN:
+ * - stati codificati (long bit-packed, 'codec.words' long per stato)
+ * - generatore CTMC fuori diagonale in formato CSR (rowPtr/col/val)
+ * - rate di uscita per stato (diagonale = -exit)
+ * - distribuzione iniziale sugli stati tangibili
+ */
+public final class StateSpace {
+
+  final IndexedNet net;
+  final ReachabilityExplorer.Codec codec;
+  final long[] keys;
+
+  final int      n;
+  final int[]    rowPtr;
+  final int[]    col;
+  final double[] val;
+  final double[] exit;
+  final double[] initial;
+
+  StateSpace(IndexedNet net, ReachabilityExplorer.Codec codec, long[] keys, int n,
+             int[] rowPtr, int[] col, double[] val, double[] exit, double[] initial) {
+    this.net = net;
+    this.codec = codec;
+    this.keys = keys;
+    this.n = n;
+    this.rowPtr = rowPtr;
+    this.col = col;
+    this.val = val;
+    this.exit = exit;
+    this.initial = initial;
+  }
+
+  // Compatta la lista archi in CSR, sommando archi duplicati (stessa coppia src,dst)
+  static StateSpace fromEdges(IndexedNet net, ReachabilityExplorer.Codec codec, long[] keys, int n,
+                              ReachabilityExplorer.Edges e, double[] initial) {
+    int[] rowPtr = new int[n + 1];
+    for (int k = 0; k < e.size; k++) rowPtr[e.src[k] + 1]++;
+    for (int i = 0; i < n; i++) rowPtr[i + 1] += rowPtr[i];
+
+    int[]    tmpCol = new int[e.size];
+    double[] tmpVal = new double[e.size];
+    int[]    fill   = rowPtr.clone();
+    for (int k = 0; k < e.size; k++) {
+      int pos = fill[e.src[k]]++;
+      tmpCol[pos] = e.dst[k];
+      tmpVal[pos] = e.rate[k];
+    }
+
+    // merge duplicati riga per riga (marker per colonna)
+    int[]    slot   = new int[n];
+    int[]    seen   = new int[n];
+    int[]    outPtr = new int[n + 1];
+    int[]    col    = new int[e.size];
+    double[] val    = new double[e.size];
+    double[] exit   = new double[n];
+    Arrays.fill(seen, -1);
+    int nnz = 0;
+    for (int i = 0; i < n; i++) {
+      outPtr[i] = nnz;
+      for (int k = rowPtr[i]; k < rowPtr[i + 1]; k++) {
+        int j = tmpCol[k];
+        if (seen[j] == i) {
+          val[slot[j]] += tmpVal[k];
+        } else {
+          seen[j] = i;
+          slot[j] = nnz;
+          col[nnz] = j;
+          val[nnz] = tmpVal[k];
+          nnz++;
+        }
+        exit[i] += tmpVal[k];
+      }
+    }
+    outPtr[n] = nnz;
+
+    return new StateSpace(net, codec, keys, n, outPtr,
+        Arrays.copyOf(col, nnz), Arrays.copyOf(val, nnz), exit, initial);
+  }
+
+  // ---------- Accesso ----------
+  public int size()       { return n; }
+  public int nonZeros()   { return rowPtr[n]; }
+  public IndexedNet net() { return net; }
+
+  public int[] marking(int s) {
+    int[] m = new int[net.placeCount()];
+    codec.decode(keys, s * codec.words, m);
+    return m;
+  }
+
+  public Marking toMarking(int s) {
+    return net.toMarking(marking(s));
+  }
+
+  public double[] initialDistribution() {
+    return initial.clone();
+  }
+
+  // Reward per stato (vettore densità)
+  public double[] rewardVector(IndexedNet.MarkingFn f) {
+    double[] r = new double[n];
+    int[] m = new int[net.placeCount()];
+    for (int s = 0; s < n; s++) {
+      codec.decode(keys, s * codec.words, m);
+      r[s] = f.eval(m);
+    }
+    return r;
+  }
+
+  public double[] rewardVector(String expr) {
+    return rewardVector(net.reward(expr));
+  }
+}
@@ -0,0 +1,56 @@
+package com.example;
+
+/**
+ * Albero delle somme su n pesi non negativi (es. rate delle transizioni in gara):
+ * set() aggiorna una foglia e gli antenati in O(log n), total() è la radice,
+ * sample() scende dalla radice in O(log n).
+ *
+ * Ogni nodo è ricalcolato come somma dei figli (mai per differenza), quindi
+ * gli aggiornamenti ripetuti non accumulano errore.
+ */
+public final class SumTree {
+
+  private final int n;
+  private final int leaves;   // potenza di 2 >= n
+  private final double[] t;   // t[1] radice, foglie in [leaves, 2*leaves)
+
+  public SumTree(int n) {
+    if (n <= 0) throw new IllegalArgumentException("SumTree vuoto");
+    this.n = n;
+    int l = 1;
+    while (l < n) l <<= 1;
+    leaves = l;
+    t = new double[2 * l];
+  }
+
+  public int size() { return n; }
+
+  public double total() { return t[1]; }
+
+  public double get(int i) { return t[leaves + i]; }
+
+  public void set(int i, double w) {
+    int k = leaves + i;
+    if (t[k] == w) return;
+    t[k] = w;
+    for (k >>>= 1; k > 0; k >>>= 1) t[k] = t[2 * k] + t[2 * k + 1];
+  }
+
+  /** Indice con probabilità peso/total, da u in [0,1); -1 se total() == 0. */
+  public int sample(double u) {
+    if (!(t[1] > 0.0)) return -1;
+    double x = u * t[1];
+    int k = 1;
+    while (k < leaves) {
+      int left = 2 * k;
+      // a destra solo se c'è peso: l'arrotondamento non sceglie foglie nulle
+      if (x < t[left] || !(t[left + 1] > 0.0)) {
+        k = left;
+      } else {
+        x -= t[left];
+        k = left + 1;
+      }
+    }
+    return k - leaves;
+  }
+}
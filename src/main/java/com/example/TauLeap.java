@@ -0,0 +1,411 @@
+package com.example;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+import org.oristool.petrinet.Marking;
+import org.oristool.petrinet.Place;
+
+import com.example.TimeseriesSimulator.Step;
+
+/**
+ * Avanzamento approssimato (tau-leaping) di Ph1..PhM per carichi alti:
+ * invece di simulare ogni completamento Ph_k -> Ph_k+1, in un salto di
+ * durata tau ogni fase k completa Binomiale(Ph_k, 1 - e^{-k*tau/BphDiv})
+ * token, calcolati sullo stato corrente (nessun conteggio negativo).
+ *
+ * Il salto può coprire più intervalli tra arrivi: finché il tratto non
+ * ancora simulato (da 'pending') resta sotto il tau ammesso i completamenti
+ * sono rinviati e si integra solo l'idle; al salto l'idle è corretto per la
+ * crescita di Pool (completamenti distribuiti uniformemente nel tratto).
+ *
+ * Controllo dell'errore (Cao-Gillespie-Petzold): tau tale che media e
+ * varianza della variazione di ogni fase restino entro EPS*Ph_k, quindi
+ * anche lo stato letto dal controller è entro la stessa tolleranza.
+ * Si torna alla simulazione esatta evento per evento quando:
+ * - Pool <= POOL_GUARD: il prossimo completamento decide le rejection
+ * - il salto conterrebbe meno di MIN_LEAP_EVENTS eventi attesi
+ *
+ * Attivo nel simulatore con terzo argomento "tau"; `TauLeap bench` misura
+ * speedup ed errore su rejection e idle rispetto alla modalità esatta.
+ */
+public final class TauLeap {
+
+  static final double EPS             = 0.03;
+  static final int    POOL_GUARD      = 2;
+  static final double MIN_LEAP_EVENTS = 10.0;
+
+  private final SimMetrics metrics; // della run, null = nessun conteggio
+  private double pending = Double.NaN; // inizio del tratto non ancora simulato
+  private long leaps, exactSteps;
+
+  // Posti risolti una volta per modello: Pool, Ph1..PhM (il rinvio non scrive la marcatura)
+  private ModelOris2_fase4.GspnModel bound;
+  private Place[] places = new Place[0];
+  private int bph, phases;
+
+  // Token entrati (inject) durante il tratto rinviato: esposti solo dal loro ingresso
+  private int[] expected = new int[0]; // Ph_k lasciati nella marcatura all'ultima chiamata
+  private int[] injected = new int[0];
+  private double injectedTimeSum;
+  private int    injectedCount;
+
+  TauLeap(SimMetrics metrics) { this.metrics = metrics; }
+
+  public long leaps()      { return leaps; }
+  public long exactSteps() { return exactSteps; }
+
+  Step advance(
+      ModelOris2_fase4.GspnModel model, Random rng,
+      double t0, double t1,
+      AsyncCsvWriter debugLog, boolean debugOn, TraceRecorder trace
+  ){
+    if (t1 <= t0) return new Step(0.0, 0.0);
+    if (bound != model) bind(model);
+    if (Double.isNaN(pending) || pending > t0) restart(t0);
+
+    double t = t0;
+    double idleArea = 0.0;
+    final Marking mk = model.marking;
+    final int bph = this.bph, M = this.phases;
+    int pool = mk.getTokens(places[0]);
+    final int[] ph = new int[M + 1];
+    for (int k = 1; k <= M; k++) {
+      ph[k] = mk.getTokens(places[k]);
+      int d = ph[k] - expected[k];
+      if (d > 0) { injected[k] += d; injectedTimeSum += d * t0; injectedCount += d; }
+    }
+    final int[] done = new int[M + 1];
+    final long movesBefore = leaps + exactSteps;
+
+    while (t < t1) {
+      double R = 0.0;
+      for (int k = 1; k <= M; k++) R += (k * (double) ph[k]) / bph;
+      if (R <= 0.0) {
+        idleArea += pool * (t1 - t);
+        t = t1;
+        restart(t1);
+        break;
+      }
+
+      double tauMax = (pool <= POOL_GUARD) ? 0.0 : leapSize(ph, bph);
+
+      if (tauMax * R < MIN_LEAP_EVENTS) {
+        // recupero del tratto rinviato, poi un completamento esatto
+        if (pending < t) {
+          idleArea += leap(ph, t, rng, done, debugLog, debugOn, trace);
+          pool += done[M];
+          continue; // rate cambiati
+        }
+        restart(t);
+        double tau = TimeseriesSimulator.drawExp(R, rng);
+        if (t + tau >= t1) {
+          idleArea += pool * (t1 - t);
+          t = t1;
+          restart(t1);
+          break;
+        }
+        idleArea += pool * tau;
+        t += tau;
+        restart(t);
+        exactSteps++;
+        double u = rng.nextDouble() * R, acc = 0.0;
+        int k = M;
+        for (int j = 1; j <= M; j++) {
+          acc += (j * (double) ph[j]) / bph;
+          if (u < acc && ph[j] > 0) { k = j; break; }
+        }
+        ph[k]--;
+        if (k < M) ph[k + 1]++; else pool++;
+        record(t, k, 1, M, debugLog, debugOn, trace);
+        continue;
+      }
+
+      if (pending + tauMax > t1) {
+        // rinvio: il tratto sta ancora in un salto ammesso
+        idleArea += pool * (t1 - t);
+        t = t1;
+        break;
+      }
+
+      double end = Math.max(t, pending + tauMax);
+      idleArea += pool * (end - t);
+      t = end;
+      idleArea += leap(ph, end, rng, done, debugLog, debugOn, trace);
+      pool += done[M];
+    }
+
+    if (leaps + exactSteps != movesBefore) {
+      mk.setTokens(places[0], pool);
+      for (int k = 1; k <= M; k++) mk.setTokens(places[k], ph[k]);
+    }
+    System.arraycopy(ph, 0, expected, 0, M + 1);
+    return new Step(idleArea, t1 - t0);
+  }
+
+  private void bind(ModelOris2_fase4.GspnModel model) {
+    phases = model.phases;
+    places = new Place[phases + 1];
+    expected = new int[phases + 1];
+    injected = new int[phases + 1];
+    places[0] = model.pool;
+    for (int k = 1; k <= phases; k++) places[k] = model.ph[k - 1];
+    bph = TimeseriesSimulator.bphDiv(model);
+    for (int k = 1; k <= phases; k++) expected[k] = model.marking.getTokens(places[k]);
+    bound = model;
+    pending = Double.NaN;
+  }
+
+  // Nessun tratto rinviato: tutto lo stato è aggiornato al tempo t
+  private void restart(double t) {
+    pending = t;
+    Arrays.fill(injected, 0);
+    injectedTimeSum = 0.0;
+    injectedCount = 0;
+  }
+
+  /**
+   * Salto da 'pending' a 'end' sullo stato ph; done[k] = token usciti da Ph_k.
+   * I token in servizio sono indipendenti (rate k*Ph_k/BphDiv = k/BphDiv per
+   * token), quindi la fase finale di ogni token è estratta dalla distribuzione
+   * transitoria esatta della catena Ph_k -> ... -> Pool: un token può
+   * attraversare più fasi nello stesso salto. I token entrati nel tratto sono
+   * esposti dal loro tempo medio di ingresso.
+   * @return correzione dell'idle per i token tornati in Pool durante il salto
+   */
+  private double leap(int[] ph, double end, Random rng, int[] done,
+                      AsyncCsvWriter debugLog, boolean debugOn, TraceRecorder trace) {
+    leaps++;
+    final int M = phases;
+    double tau = end - pending;
+    double[][] pBase = phaseTransitions(tau, bph, M);
+    double[][] pInj  = (injectedCount > 0)
+        ? phaseTransitions(Math.max(0.0, end - injectedTimeSum / injectedCount), bph, M) : pBase;
+
+    int[] next = new int[M + 2]; // 1..M fasi, M+1 = Pool
+    for (int k = 1; k <= M; k++) {
+      int inj = Math.min(injected[k], ph[k]);
+      spread(ph[k] - inj, k, pBase, next, rng);
+      spread(inj, k, pInj, next, rng);
+    }
+    // usciti da k = partiti in Ph1..Ph_k e arrivati oltre Ph_k
+    int cum = 0;
+    for (int k = 1; k <= M; k++) {
+      cum += ph[k] - next[k];
+      done[k] = cum;
+    }
+    for (int k = 1; k <= M; k++) ph[k] = next[k];
+    for (int k = 1; k <= M; k++) if (done[k] > 0) record(end, k, done[k], M, debugLog, debugOn, trace);
+    restart(end);
+    return done[M] * tau / 2.0;
+  }
+
+  // n token da Ph_k distribuiti sulle fasi finali (multinomiale a binomiali condizionate)
+  private static void spread(int n, int k, double[][] p, int[] next, Random rng) {
+    final int M = p.length - 2; // ultima colonna = Pool
+    double rest = 1.0;
+    for (int j = k; j <= M && n > 0; j++) {
+      int x = (rest > 0.0) ? binomial(n, Math.min(1.0, p[k][j] / rest), rng) : 0;
+      next[j] += x;
+      n -= x;
+      rest -= p[k][j];
+    }
+    next[M + 1] += n;
+  }
+
+  // Termini della serie di uniformizzazione oltre i quali la coda è < 1e-17 (x <= 1)
+  static final int UNIF_TERMS = 24;
+
+  /**
+   * p[k][j]: probabilità che un token in Ph_k sia in Ph_j dopo tau (j = k..M; il resto è Pool).
+   * Catena pura di nascita mu_k = k/BphDiv: P = exp(Q tau) per uniformizzazione su tau/2^s
+   * (x = mu_M tau/2^s <= 1) e s quadrature. Solo somme e prodotti di termini >= 0, niente
+   * cancellazioni: righe stocastiche anche per molte fasi, dove la forma chiusa con
+   * Π(mu_m - mu_l) al denominatore perde tutte le cifre.
+   */
+  static double[][] phaseTransitions(double tau, int bph, int phases) {
+    final int M = phases, S = M + 1; // stati 1..M, S = Pool (assorbente)
+    final double lambda = M / (double) bph;
+    double[][] p = new double[S + 1][S + 1];
+    if (!(tau > 0.0)) {
+      for (int k = 1; k <= S; k++) p[k][k] = 1.0;
+      return p;
+    }
+
+    int squarings = Math.max(0, Math.getExponent(lambda * tau) + 1);
+    double x = lambda * tau / Math.scalb(1.0, squarings);
+
+    // u[k]: probabilità di passare a k+1 in un passo della catena uniformizzata
+    double[] u = new double[S + 1];
+    for (int k = 1; k <= M; k++) u[k] = (k / (double) bph) / lambda;
+
+    // sum_n e^-x x^n/n! * Pu^n, Pu bidiagonale: term = riga per riga Pu^n pesata
+    double[][] term = new double[S + 1][S + 1];
+    for (int k = 1; k <= S; k++) term[k][k] = 1.0;
+    double w = Math.exp(-x);
+    for (int n = 0; ; n++) {
+      for (int k = 1; k <= S; k++)
+        for (int j = k; j <= S; j++) p[k][j] += w * term[k][j];
+      if (n == UNIF_TERMS) break;
+      for (int k = 1; k <= S; k++) {
+        for (int j = S; j > k; j--) term[k][j] = term[k][j] * (1.0 - u[j]) + term[k][j - 1] * u[j - 1];
+        term[k][k] *= 1.0 - u[k];
+      }
+      w *= x / (n + 1);
+    }
+
+    // P(tau) = P(tau/2^s)^(2^s), matrici triangolari superiori
+    double[][] q = new double[S + 1][S + 1];
+    for (int r = 0; r < squarings; r++) {
+      for (int k = 1; k <= S; k++)
+        for (int j = k; j <= S; j++) {
+          double acc = 0.0;
+          for (int l = k; l <= j; l++) acc += p[k][l] * p[l][j];
+          q[k][j] = acc;
+        }
+      double[][] t = p; p = q; q = t;
+    }
+    return p;
+  }
+
+  // tau massimo con |media| <= max(EPS*x,1) e varianza <= max(EPS*x,1)^2 per ogni fase
+  static double leapSize(int[] ph, int bph) {
+    double tau = Double.POSITIVE_INFINITY;
+    for (int k = 1; k < ph.length; k++) {
+      double in  = (k > 1) ? ((k - 1) * (double) ph[k - 1]) / bph : 0.0;
+      double out = (k * (double) ph[k]) / bph;
+      double mu = in - out, var = in + out;
+      if (var <= 0.0) continue;
+      double bound = Math.max(EPS * ph[k], 1.0);
+      if (mu != 0.0) tau = Math.min(tau, bound / Math.abs(mu));
+      tau = Math.min(tau, bound * bound / var);
+    }
+    return tau;
+  }
+
+  // Binomiale(n, p): inversione per n*p piccolo, normale con correzione di continuità altrimenti
+  static int binomial(int n, double p, Random rng) {
+    if (p <= 0.0) return 0;
+    if (p >= 1.0) return n;
+    if (p > 0.5) return n - binomial(n, 1.0 - p, rng);
+    double np = n * p;
+    if (np < 30.0) {
+      double q = 1.0 - p, r = p / q;
+      double f = Math.pow(q, n), u = rng.nextDouble();
+      int x = 0;
+      while (u > f && x < n) {
+        u -= f;
+        f *= r * (n - x) / (x + 1);
+        x++;
+      }
+      return x;
+    }
+    double x = Math.floor(np + Math.sqrt(np * (1.0 - p)) * rng.nextGaussian() + 0.5);
+    return (int) Math.max(0, Math.min(n, x));
+  }
+
+  private void record(double t, int k, int count, int phases,
+                      AsyncCsvWriter debugLog, boolean debugOn, TraceRecorder trace) {
+    int to = (k < phases) ? k + 1 : 0;
+    for (int c = 0; c < count; c++) {
+      if (metrics != null) metrics.event();
+      if (trace != null) trace.move(t, k, to);
+      if (debugOn) TimeseriesSimulator.writeDebug(debugLog, t, TimeseriesSimulator.moveText(k, to));
+    }
+  }
+
+  // ---------- Checkpoint ----------
+
+  /**
+   * Stato del rinvio per SimCheckpoint: durante un tratto rinviato la marcatura
+   * non è aggiornata, quindi senza questo la ripresa non sarebbe bit-exact.
+   */
+  void writeState(DataOutput out) throws IOException {
+    out.writeBoolean(bound != null);
+    if (bound == null) return;
+    out.writeDouble(pending);
+    out.writeLong(leaps);
+    out.writeLong(exactSteps);
+    for (int k = 1; k <= phases; k++) {
+      out.writeInt(expected[k]);
+      out.writeInt(injected[k]);
+    }
+    out.writeDouble(injectedTimeSum);
+    out.writeInt(injectedCount);
+  }
+
+  /** Da chiamare con la marcatura del modello già ripristinata. */
+  void readState(DataInput in, ModelOris2_fase4.GspnModel model) throws IOException {
+    if (!in.readBoolean()) return;
+    bind(model);
+    pending = in.readDouble();
+    leaps = in.readLong();
+    exactSteps = in.readLong();
+    for (int k = 1; k <= phases; k++) {
+      expected[k] = in.readInt();
+      injected[k] = in.readInt();
+    }
+    injectedTimeSum = in.readDouble();
+    injectedCount = in.readInt();
+  }
+
+  // ---------- Benchmark esatto vs tau-leaping ----------
+
+  /**
+   * bench [lambda] [pool] [T] [repliche]: arrivi di Poisson a tasso lambda su
+   * un Pool fisso (nessun controller), stessa sequenza di arrivi per le due
+   * modalità; riporta tempo, rejection rate e idle medio.
+   */
+  public static void main(String[] args) {
+    double lambda = (args.length > 1) ? Double.parseDouble(args[1]) : 30.0;
+    int    total  = (args.length > 2) ? Integer.parseInt(args[2]) : 640;
+    double horizon = (args.length > 3) ? Double.parseDouble(args[3]) : 2_000.0;
+    int    reps   = (args.length > 4) ? Integer.parseInt(args[4]) : 5;
+
+    double[][] res = new double[2][3]; // [modalità][tempo, rejection, idle]
+    for (int rep = 0; rep < reps; rep++) {
+      for (int mode = 0; mode < 2; mode++) {
+        double[] r = run(mode == 1, lambda, total, horizon, 1000 + rep);
+        for (int k = 0; k < 3; k++) res[mode][k] += r[k] / reps;
+        System.out.printf(Locale.US, "[bench] rep=%d %-5s tempo=%.3f s rejection=%.5f idle=%.3f%n",
+            rep, (mode == 1) ? "tau" : "esatto", r[0], r[1], r[2]);
+      }
+    }
+    System.out.printf(Locale.US,
+        "[bench] lambda=%.1f pool=%d T=%.0f | speedup=%.2fx | rejection %.5f vs %.5f (err %+.5f) | idle %.3f vs %.3f (err %+.2f%%)%n",
+        lambda, total, horizon, res[0][0] / res[1][0],
+        res[1][1], res[0][1], res[1][1] - res[0][1],
+        res[1][2], res[0][2], 100.0 * (res[1][2] - res[0][2]) / res[0][2]);
+  }
+
+  private static double[] run(boolean tau, double lambda, int total, double horizon, long seed) {
+    ModelOris2_fase4.GspnModel model = ModelTemplate.fase4().instance();
+    TimeseriesSimulator.disableAutomaticArrivals(model);
+    TimeseriesSimulator.setTokens(model, "Pool", total);
+    for (Place p : model.ph) model.marking.setTokens(p, 0);
+
+    Random arrivals = new Random(seed);     // stessa sequenza per le due modalità
+    Random rng = new Random(seed * 31 + 7);
+    TauLeap leap = new TauLeap(null);
+    double t = 0.0, idle = 0.0;
+    long n = 0, rej = 0;
+    long start = System.nanoTime();
+    while (true) {
+      double next = t + TimeseriesSimulator.drawExp(lambda, arrivals);
+      int cls = 1 + arrivals.nextInt(3);
+      if (next > horizon) break;
+      Step s = tau ? leap.advance(model, rng, t, next, null, false, null)
+                   : TimeseriesSimulator.advanceModelAndIntegrateIdle(model, rng, t, next, null, false, null, null);
+      idle += s.idleArea;
+      t = next;
+      n++;
+      if (TimeseriesSimulator.injectRequest(model, cls, rng) == 0) rej++;
+    }
+    double sec = (System.nanoTime() - start) / 1e9;
+    return new double[]{ sec, (double) rej / Math.max(1, n), idle / t };
+  }
+}
@@ -1,32 +1,45 @@
 package com.example;
 
 import java.io.BufferedReader;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.FileReader;
-import java.io.FileWriter;
-import java.io.PrintWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Random;
 import java.util.Scanner;
 
+import org.oristool.petrinet.Place;
+
 /**
  * TimeseriesSimulator
  *
  * Cosa fa:
- *  1) Legge gli arrivi (t, classe) da arrivals.csv
- *  2) Disattiva gli arrivi automatici nel modello GSPN
+ *  1) Legge gli arrivi (t, classe) da arrivals.csv (o file .bin / "gen[:durata[:seed]]", vedi ArrivalSource)
+ *  2) Disattiva gli arrivi automatici nel modello GSPN (forma N classi x M fasi,
+ *     quinto argomento "NxM", default 3x4 = modello originale)
  *  3) Ogni periodo di controllo decide il totale di repliche (busy+pool):
  *     - Mode DEFAULT: previsione con orizzonte default
  *     - Mode CUSTOM:  previsione con orizzonte/periodo scelti a runtime
  *     - Mode NO_FUTURE: nessuna previsione
+ *     (ognuna è un PoolController; altre politiche si confrontano con ControllerBench)
  *  4) Tra eventi: fa avanzare il modello con gara di esponenziali e integra l'idle
  *
  * Output CSV:
  *  - timeseries_sli_<mode>.csv        (riassunto)
- *  - timeseries_intervals_<mode>.csv  (intervalli)
+ *  - timeseries_intervals_<mode>.csv  (intervalli; con il sesto argomento, es. "64m+3600s",
+ *                                      segmenti .NNNNN.csv.gz + manifest, vedi SegmentedCsv)
+ *  - timeseries_agg_<mode>_<L>s.csv   (aggregati per bucket di L s, vedi IntervalDigest)
+ *  - timeseries_lttb_<mode>.csv       (serie ridotte con LTTB per i plot)
  *  - timeseries_debug.csv             (primi 20 eventi, "time|event")
+ *  - timeseries_trace.bin             (trace binaria dell'intera run, vedi TraceReplay)
  */
 public class TimeseriesSimulator {
 
@@ -36,7 +49,7 @@ public class TimeseriesSimulator {
   static final double HORIZON_SEC = 10.0;  // orizzonte di previsione
   static final double SLO_REJECT  = 0.01;  // soglia max rejection
 
-  enum Mode { DEFAULT, CUSTOM, NO_FUTURE }
+  public enum Mode { DEFAULT, CUSTOM, NO_FUTURE }
 
   // Modalità correnti
   static Mode currentMode = Mode.DEFAULT;
@@ -44,39 +57,33 @@ public class TimeseriesSimulator {
   static double controlSec = CONTROL_SEC;
 
   // Limiti risorse
-  static final int POOL_MIN = 1;
-  static final int POOL_MAX = 24;
+  public static final int POOL_MIN = 1;
+  public static final int POOL_MAX = 24;
 
   // Logging
   static final int LOG_EVERY = 50;
   static final int DEBUG_MAX = 20;
-  static int debugLog = 0;
-
-  // Diagnostica predizione (per CSV intervalli)
-  static double lastPredReject = Double.NaN;
-  static int    lastPredN      = 0;
+  static final String TRACE_FILE = "timeseries_trace.bin";
+  static final String CHECKPOINT_FILE = "timeseries_checkpoint.bin";
 
-  // Cache divisore per rate fasi (BphDiv)
-  static Integer bphDivCached = null;
+  // Metriche runtime della run (JMX + http://127.0.0.1:METRICS_PORT/metrics, 0 = disattivo)
+  static final int METRICS_PORT = 9464;
 
   // Arrivi
-  static final class Arrival {
-    final double time;
-    final int cls;
+  // Arrivo immutabile (anche nella finestra passata alle politiche di PoolController)
+  public static final class Arrival {
+    public final double time;
+    public final int cls;
     Arrival(double t, int c){ this.time = t; this.cls = c; }
   }
 
-  // Tag per i nomi file in base alla modalità
-  static String modeTag() {
-    return switch (currentMode) {
-      case DEFAULT   -> "default";
-      case CUSTOM    -> String.format(Locale.US, "custom_h%.0f_p%.0f", horizonSec, controlSec);
-      case NO_FUTURE -> "nofuture";
-    };
-  }
-
   public static void main(String[] args) throws Exception {
     final String arrivalsPath = (args != null && args.length > 0) ? args[0] : "arrivals.csv";
+    final int metricsPort = (args != null && args.length > 1) ? Integer.parseInt(args[1]) : METRICS_PORT;
+    final String advanceMode = (args != null && args.length > 2) ? args[2].toLowerCase(Locale.ROOT) : "exact";
+    final double checkpointSec = (args != null && args.length > 3) ? Double.parseDouble(args[3]) : 0.0;
+    final String shape = (args != null && args.length > 4) ? args[4] : "";
+    final SegmentedCsv.Rotation rotation = (args != null && args.length > 5) ? SegmentedCsv.Rotation.parse(args[5]) : null;
 
 Scanner sc = new Scanner(System.in);
 boolean sceltaValida = false;
@@ -130,216 +137,433 @@ boolean sceltaValida = false;
 
 
     // Modello 
-    ModelOris2_fase4.GspnModel model = ModelOris2_fase4.build();
+    ModelOris2_fase4.GspnModel model = ModelTemplate.fase4(shape).instance();
     disableAutomaticArrivals(model);
+    if (!shape.isEmpty())
+      System.out.println("[info] modello " + model.classes + " classi x " + model.phases + " fasi");
+    SimRun run = new SimRun(arrivalsPath, currentMode, horizonSec, controlSec, model, new Random(777));
+    run.advanceMode(advanceMode);
+    if (run.tauLeap != null) {
+      System.out.println("[info] avanzamento approssimato (tau-leaping), eps=" + TauLeap.EPS);
+    } else if (run.stepper != null) {
+      System.out.println("[info] avanzamento generico sulla rete: "
+          + run.stepper.engine.net().transitionCount() + " transizioni, "
+          + run.stepper.engine.net().placeCount() + " posti variabili");
+    }
+    run.rotation = rotation;
+    if (rotation != null)
+      System.out.println("[info] intervalli a segmenti compressi (" + rotation.spec() + "), indice "
+          + SegmentedCsv.manifestFile(run.intervalsFile()));
+    if (checkpointSec > 0) {
+      run.checkpointSec = checkpointSec;
+      System.out.printf(Locale.US, "[info] checkpoint ogni %.0f s simulati in %s%n", checkpointSec, CHECKPOINT_FILE);
+    }
 
-    // Arrivi 
-    List<Arrival> arrivals = readArrivalsCsv(arrivalsPath);
-    System.out.println("[info] file arrivi: " + arrivalsPath + " | letti " + arrivals.size() + " arrivi");
-    if (arrivals.isEmpty()) return;
+    run.metrics.registerJmx();
+    if (metricsPort > 0 && run.metrics.startHttp(metricsPort))
+      System.out.println("[info] metriche: http://127.0.0.1:" + metricsPort + "/metrics");
 
-    Random rng = new Random(777);
+    try {
+      if (!simulate(run)) return;
+    } finally {
+      run.metrics.stopHttp();
+    }
+
+    System.out.println("CSV scritto: " + run.summaryFile());
+    System.out.println("CSV per intervalli: " + run.intervalsFile());
+    System.out.println("CSV aggregati: " + IntervalDigest.lttbFile(run.intervalsFile())
+        + ", timeseries_agg_" + run.tag() + "_<L>s.csv");
+    System.out.println("CSV debug: timeseries_debug.csv");
+    System.out.println("Trace binaria: " + TRACE_FILE + " (replay: TraceReplay)");
+  }
 
-    // Metriche globali
-    double simTime = 0.0;
-    double idleSum = 0.0;
-    int totalRejects = 0;
+  //                    Stato di una run
 
-    // Metriche intervallo
-    double intervalStart = arrivals.get(0).time;
-    int    intervalArr   = 0;
-    int    intervalRej   = 0;
-    double intervalIdle  = 0.0;
+  /**
+   * Tutto lo stato mutabile di una simulazione: configurazione, marcatura,
+   * RNG, clock, accumulatori, memoria del controller, stepper (tau / generico)
+   * e metriche. È ciò che finisce in un checkpoint (SimCheckpoint, metriche
+   * escluse) e ogni fork ne ha una copia indipendente: run in parallelo non
+   * condividono nulla di mutabile.
+   */
+  static final class SimRun {
+    // configurazione
+    final String arrivalsPath;
+    Mode   mode;
+    double horizonSec, controlSec;
+    String outDir = "";            // cartella dei CSV (fork), "" = corrente
+    boolean debugOn = true;        // timeseries_debug.csv
+    boolean traceOn = true;        // timeseries_trace.bin
+    boolean digestOn = true;       // timeseries_agg_* / timeseries_lttb_* a fine run
+    SegmentedCsv.Rotation rotation; // intervalli a segmenti compressi, null = CSV singolo
+    boolean quiet   = false;       // niente [progress] / risultati su stdout
+    double checkpointSec = 0.0;    // 0 = nessun checkpoint
+    PoolController controller;     // politica esterna, null = quella della modalità
+    boolean cpuTiming = false;     // tempo CPU per decisione (ControllerBench)
+
+    final ModelOris2_fase4.GspnModel model;
+    Random rng;
+    NetStepper stepper;            // avanzamento generico via GspnEngine ("generic"), null = loop dedicato
+    TauLeap tauLeap;               // avanzamento approssimato per carichi alti ("tau"), null = esatto
+    final SimMetrics metrics;      // della sola run (JMX/http solo se registrate dal chiamante)
+
+    // stato (started = false: inizializzato dal primo arrivo)
+    boolean started;
+    double clock, nextControl, lastT, nextCheckpoint;
+    long   processed;
+    double simTime, idleSum;
+    int    totalRejects;
+    double intervalStart, intervalIdle;
+    int    intervalArr, intervalRej;
     int    lastTargetTot = -1;
     double lastApplyTime = -1.0;
+    int    debugLog;
+    final ControllerMemory ctl = new ControllerMemory();
+
+    // diagnostica per ControllerBench (non salvata nel checkpoint)
+    int    intervalsTotal, intervalsMet;   // intervalli chiusi / con rejection <= SLO
+    long[] decisionCpuNs = new long[0];
+    int    decisions;
+
+    // posizioni di uscita al checkpoint (-1 = run nuova, file ricreati)
+    long resumeIntervals = -1, resumeDebug = -1, resumeTrace = -1;
+
+    // risultati finali
+    double idleMean, rejRate;
+
+    SimRun(String arrivalsPath, Mode mode, double horizonSec, double controlSec,
+           ModelOris2_fase4.GspnModel model, Random rng) {
+      this.arrivalsPath = arrivalsPath;
+      this.mode = mode;
+      this.horizonSec = horizonSec;
+      this.controlSec = controlSec;
+      this.model = model;
+      this.rng = rng;
+      this.metrics = new SimMetrics(model.classes);
+    }
 
-    // CSV file
-    String tag = modeTag();
-    String intervalsFile = String.format("timeseries_intervals_%s.csv", tag);
-    String summaryFile   = String.format("timeseries_sli_%s.csv", tag);
+    /** exact | tau | generic: stepper propri della run, salvati nel checkpoint. */
+    void advanceMode(String name) {
+      stepper = null;
+      tauLeap = null;
+      switch (name) {
+        case "exact"   -> { }
+        case "tau"     -> tauLeap = new TauLeap(metrics);
+        case "generic" -> stepper = new NetStepper(model, metrics);
+        default -> throw new IllegalArgumentException("Avanzamento non valido (exact | tau | generic): " + name);
+      }
+    }
 
-    try (PrintWriter csvIntervals = new PrintWriter(new FileWriter(intervalsFile));
-         PrintWriter csvSummary   = new PrintWriter(new FileWriter(summaryFile));
-         PrintWriter csvDebug     = new PrintWriter(new FileWriter("timeseries_debug.csv"))) {
+    String advanceMode() {
+      return (tauLeap != null) ? "tau" : (stepper != null) ? "generic" : "exact";
+    }
 
-      csvIntervals.println("t_start,t_end,pool_now,target_tot,eff_change_time,arrivals,rejections,rejection_rate,idle_mean_interval,pred_rej_at_target,pred_n");
-      csvSummary.println("total_time_s,rejections,rejection_rate,idle_mean");
-      csvDebug.println("time|event"); // header debug umano
+    PoolController controller() {
+      return (controller != null) ? controller : PoolController.of(mode, horizonSec, controlSec);
+    }
 
-      double clock = arrivals.get(0).time;
-      double nextControl = ceilToStep(clock, controlSec);
+    String modeName() { return (controller != null) ? controller.name() : mode.name(); }
 
-      for (int i = 0; i < arrivals.size(); i++) {
-        Arrival ev = arrivals.get(i);
+    String tag() {
+      if (controller != null) return controller.name();
+      return switch (mode) {
+        case DEFAULT   -> "default";
+        case CUSTOM    -> String.format(Locale.US, "custom_h%.0f_p%.0f", horizonSec, controlSec);
+        case NO_FUTURE -> "nofuture";
+      };
+    }
+
+    String intervalsFile() { return outDir + String.format("timeseries_intervals_%s.csv", tag()); }
+    String summaryFile()   { return outDir + String.format("timeseries_sli_%s.csv", tag()); }
+    String debugFile()     { return outDir + "timeseries_debug.csv"; }
+    String traceFile()     { return outDir + TRACE_FILE; }
+  }
+
+  static final String INTERVALS_HEADER =
+      "t_start,t_end,pool_now,target_tot,eff_change_time,arrivals,rejections,rejection_rate,idle_mean_interval,pred_rej_at_target,pred_n";
+
+  // CSV intervalli nella forma della run (singolo o a segmenti), nuovo o ripreso dal checkpoint
+  static AsyncCsvWriter openIntervals(SimRun r) throws IOException {
+    String file = r.intervalsFile();
+    if (r.rotation != null) return SegmentedCsv.open(file, INTERVALS_HEADER, r.rotation, r.resumeIntervals);
+    if (r.resumeIntervals >= 0) return AsyncCsvWriter.resume(file, r.resumeIntervals);
+    SegmentedCsv.delete(file);
+    return new AsyncCsvWriter(file);
+  }
+
+  // Memoria del controller tra un tick e l'altro (diagnostica per il CSV intervalli)
+  // (parte della SPI di PoolController: una politica esterna la compila ad ogni tick)
+  public static final class ControllerMemory {
+    public double lastPredReject = Double.NaN;
+    public int    lastPredN      = 0;
+    public int    lastCandidates = 0; // totali provati all'ultimo tick
+  }
+
+  /**
+   * Esegue (o riprende) la run fino alla fine degli arrivi.
+   * @return false se la sorgente non ha arrivi
+   */
+  static boolean simulate(SimRun r) throws Exception {
+    final ModelOris2_fase4.GspnModel model = r.model;
+    final Random rng = r.rng;
+    final ControllerMemory ctl = r.ctl;
+    final PoolController policy = r.controller();
+    final ThreadMXBean cpu = ManagementFactory.getThreadMXBean();
+    final boolean cpuTiming = r.cpuTiming && cpu.isCurrentThreadCpuTimeSupported();
+
+    // Arrivi: CSV, binario o generati al volo; in memoria solo l'orizzonte di look-ahead
+    ArrivalSource source = ArrivalSource.open(r.arrivalsPath);
+    final long arrivalsHint = source.sizeHint();
+    if (!r.quiet)
+      System.out.println("[info] file arrivi: " + r.arrivalsPath + " | "
+          + ((arrivalsHint >= 0) ? "letti " + arrivalsHint + " arrivi" : "sorgente in streaming"));
+    ArrivalSource.LookAhead ahead = new ArrivalSource.LookAhead(source);
+    for (long k = 0; k < r.processed; k++) {
+      if (ahead.poll() == null) { source.close(); throw new IOException("Sorgente più corta del checkpoint: " + r.arrivalsPath); }
+    }
+    final Arrival first = ahead.peek();
+    if (first == null && !r.started) { source.close(); return false; }
+
+    final boolean fresh = !r.started;
+    if (fresh) {
+      r.started       = true;
+      r.clock         = first.time;
+      r.nextControl   = ceilToStep(r.clock, r.controlSec);
+      r.lastT         = r.clock;
+      r.intervalStart = first.time;
+      r.nextCheckpoint = first.time + r.checkpointSec;
+    }
+
+    // scrittura asincrona: formattazione su buffer riusati, I/O su thread dedicato
+    try (source;
+         AsyncCsvWriter csvIntervals = openIntervals(r);
+         AsyncCsvWriter csvSummary   = new AsyncCsvWriter(r.summaryFile());
+         AsyncCsvWriter csvDebug     = !r.debugOn ? null : (r.resumeDebug >= 0)
+             ? AsyncCsvWriter.resume(r.debugFile(), r.resumeDebug) : new AsyncCsvWriter(r.debugFile());
+         TraceRecorder  trace        = !r.traceOn ? null : (r.resumeTrace >= 0)
+             ? TraceRecorder.resume(r.traceFile(), r.resumeTrace)
+             : new TraceRecorder(r.traceFile(), r.clock, stateVector(model))) {
+
+      if (r.resumeIntervals < 0 && r.rotation == null) csvIntervals.line(INTERVALS_HEADER);
+      csvSummary.line("total_time_s,rejections,rejection_rate,idle_mean");
+      if (csvDebug != null && r.resumeDebug < 0) csvDebug.line("time|event"); // header debug umano
+
+      for (Arrival ev; (ev = ahead.peek()) != null; ) {
+        final long i = r.processed;
+
+        // Checkpoint tra due arrivi: uscite su disco, poi snapshot dello stato
+        if (r.checkpointSec > 0 && r.clock >= r.nextCheckpoint) {
+          csvIntervals.flush();
+          if (csvDebug != null) csvDebug.flush();
+          if (trace != null) trace.flush();
+          while (r.nextCheckpoint <= r.clock) r.nextCheckpoint += r.checkpointSec;
+          SimCheckpoint.write(r, CHECKPOINT_FILE, csvIntervals.position(),
+              (csvDebug != null) ? csvDebug.position() : -1,
+              (trace != null) ? trace.records() : -1);
+        }
 
         // Controller può “scattare” più volte prima del prossimo arrivo
-        while (nextControl <= ev.time) {
-          Step s = advanceModelAndIntegrateIdle(model, rng, clock, nextControl, csvDebug, debugLog < DEBUG_MAX);
-          idleSum      += s.idleArea;
-          intervalIdle += s.idleArea;
-          simTime      += s.dt;
-          clock         = nextControl;
-
-          // Decido il totale target in base alla modalità
-          int targetTotal;
-          switch (currentMode) {
-            case DEFAULT -> targetTotal = chooseMinReplicas(model, nextControl, HORIZON_SEC, arrivals, i, rng);
-            case CUSTOM  -> targetTotal = chooseMinReplicas(model, nextControl, horizonSec, arrivals, i, rng);
-            case NO_FUTURE -> {
-              int busyNow = countBusy(model);
-              int poolNow = getTokens(model, "Pool");
-              targetTotal = Math.max(POOL_MIN, busyNow + poolNow);
-              lastPredReject = Double.NaN;
-              lastPredN = 0;
-            }
-            default -> targetTotal = countBusy(model);
+        while (r.nextControl <= ev.time) {
+          Step s = advance(r, r.nextControl, csvDebug, trace);
+          r.idleSum      += s.idleArea;
+          r.intervalIdle += s.idleArea;
+          r.simTime      += s.dt;
+          r.clock         = r.nextControl;
+
+          // Decido il totale target con la politica della run
+          long decisionStart = System.nanoTime();
+          long cpuStart = cpuTiming ? cpu.getCurrentThreadCpuTime() : 0L;
+          SimEvents.ControlTick tick = new SimEvents.ControlTick();
+          tick.begin();
+          final double now = r.nextControl;
+          int targetTotal = policy.target(PoolController.State.of(model, now),
+              sec -> Collections.unmodifiableList(ahead.window(now, now + sec)), rng, ctl);
+          if (cpuTiming) {
+            if (r.decisions == r.decisionCpuNs.length)
+              r.decisionCpuNs = Arrays.copyOf(r.decisionCpuNs, Math.max(256, 2 * r.decisions));
+            r.decisionCpuNs[r.decisions++] = cpu.getCurrentThreadCpuTime() - cpuStart;
           }
 
           // Applico: Pool = clamp(targetTotal - busy, [POOL_MIN, POOL_MAX])
           int busyNow  = countBusy(model);
           int needPool = Math.max(0, targetTotal - busyNow);
           needPool = Math.max(POOL_MIN, Math.min(POOL_MAX, needPool));
-          setTokens(model, "Pool", needPool);
+          if (trace != null) trace.pool(r.nextControl, needPool - model.marking.getTokens(model.pool));
+          model.marking.setTokens(model.pool, needPool);
+          r.metrics.decision(System.nanoTime() - decisionStart, ctl.lastCandidates);
+          r.metrics.gauges(needPool, busyNow);
+          tick.end();
+          if (tick.shouldCommit()) {
+            tick.mode = r.modeName();
+            tick.simTime = r.nextControl;
+            tick.candidates = ctl.lastCandidates;
+            tick.chosenTotal = targetTotal;
+            tick.pool = needPool;
+            tick.busy = busyNow;
+            tick.predictedReject = ctl.lastPredReject;
+            tick.horizonArrivals = ctl.lastPredN;
+            tick.commit();
+          }
 
-          lastTargetTot = targetTotal;
-          lastApplyTime = nextControl;
+          r.lastTargetTot = targetTotal;
+          r.lastApplyTime = r.nextControl;
 
-          int poolNow = getTokens(model, "Pool");
-          writeIntervalRow(csvIntervals, intervalStart, nextControl,
-              poolNow, lastTargetTot, lastApplyTime,
-              intervalArr, intervalRej, intervalIdle,
-              lastPredReject, lastPredN);
+          int poolNow = model.marking.getTokens(model.pool);
+          writeIntervalRow(csvIntervals, r.intervalStart, r.nextControl,
+              poolNow, r.lastTargetTot, r.lastApplyTime,
+              r.intervalArr, r.intervalRej, r.intervalIdle,
+              ctl.lastPredReject, ctl.lastPredN);
+          r.intervalsTotal++;
+          if (r.intervalRej <= SLO_REJECT * r.intervalArr) r.intervalsMet++;
 
           // reset intervallo e pianifica prossimo controllo
-          intervalStart = nextControl;
-          intervalArr   = 0;
-          intervalRej   = 0;
-          intervalIdle  = 0.0;
+          r.intervalStart = r.nextControl;
+          r.intervalArr   = 0;
+          r.intervalRej   = 0;
+          r.intervalIdle  = 0.0;
 
-          nextControl += controlSec;
+          r.nextControl += r.controlSec;
         }
 
-        // Avanza fino all’arrivo
-        Step s = advanceModelAndIntegrateIdle(model, rng, clock, ev.time, csvDebug, debugLog < DEBUG_MAX);
-        idleSum      += s.idleArea;
-        intervalIdle += s.idleArea;
-        simTime      += s.dt;
-        clock         = ev.time;
+        // Avanza fino all’arrivo (consumato dal buffer solo ora: serviva al look-ahead)
+        ahead.poll();
+        r.processed++;
+        r.lastT = ev.time;
+        Step s = advance(r, ev.time, csvDebug, trace);
+        r.idleSum      += s.idleArea;
+        r.intervalIdle += s.idleArea;
+        r.simTime      += s.dt;
+        r.clock         = ev.time;
 
         // Inject arrivo: ritorna la fase (1..4) se accettato, 0 se rejection
         int acceptedPhase = injectRequest(model, ev.cls, rng);
         if (acceptedPhase == 0) {
-          totalRejects++;
-          intervalRej++;
+          r.totalRejects++;
+          r.intervalRej++;
+          if (trace != null) trace.reject(ev.time, ev.cls);
+        } else {
+          if (trace != null) trace.accept(ev.time, ev.cls, acceptedPhase);
         }
-        intervalArr++;
+        r.metrics.arrival(ev.cls, acceptedPhase > 0);
+        r.metrics.gauges(model.marking.getTokens(model.pool), countBusy(model));
+        r.intervalArr++;
 
         // Log per primi 20 eventi (stato completo all’arrivo)
-        if (debugLog < DEBUG_MAX) {
-          int pool = getTokens(model,"Pool");
-          int f1   = getTokens(model,"Ph1");
-          int f2   = getTokens(model,"Ph2");
-          int f3   = getTokens(model,"Ph3");
-          int f4   = getTokens(model,"Ph4");
+        if (r.debugLog < DEBUG_MAX) {
+          String state = stateText(stateVector(model));
           if (acceptedPhase > 0) {
             writeDebug(csvDebug, ev.time,
-              String.format(Locale.US,
-                "arrivo classe=%d: accettato in Ph%d; stato corrente: Pool=%d, Ph1=%d, Ph2=%d, Ph3=%d, Ph4=%d",
-                ev.cls, acceptedPhase, pool, f1, f2, f3, f4));
+              "arrivo classe=" + ev.cls + ": accettato in Ph" + acceptedPhase + "; stato corrente: " + state);
           } else {
             writeDebug(csvDebug, ev.time,
-              String.format(Locale.US,
-                "arrivo classe=%d: RIFIUTATO; stato corrente: Pool=%d, Ph1=%d, Ph2=%d, Ph3=%d, Ph4=%d",
-                ev.cls, pool, f1, f2, f3, f4));
+              "arrivo classe=" + ev.cls + ": RIFIUTATO; stato corrente: " + state);
           }
-          debugLog++;
-          if (debugLog == DEBUG_MAX) {
+          r.debugLog++;
+          if (r.debugLog == DEBUG_MAX) {
             writeDebug(csvDebug, ev.time, "== STOP DEBUG: raggiunti 20 eventi ==");
           }
         }
 
-        if ((i+1) % LOG_EVERY == 0) {
+        if (!r.quiet && (i+1) % LOG_EVERY == 0) {
           System.out.printf(Locale.US,
-              "[progress] %d/%d  t=%.3f  rej=%d  Pool=%d  busy=%d  mode=%s  targetTot=%d%n",
-              (i+1), arrivals.size(), ev.time, totalRejects,
-              getTokens(model,"Pool"), countBusy(model), currentMode, lastTargetTot);
+              "[progress] %d/%s  t=%.3f  rej=%d  Pool=%d  busy=%d  mode=%s  targetTot=%d%n",
+              (i+1), (arrivalsHint >= 0) ? String.valueOf(arrivalsHint) : "?", ev.time, r.totalRejects,
+              model.marking.getTokens(model.pool), countBusy(model), r.modeName(), r.lastTargetTot);
         }
       }
 
       // Chiudo ultimo intervallo
-      double lastT = arrivals.get(arrivals.size()-1).time;
-      int poolEnd  = getTokens(model,"Pool");
-      writeIntervalRow(csvIntervals, intervalStart, lastT,
-          poolEnd, lastTargetTot, lastApplyTime,
-          intervalArr, intervalRej, intervalIdle,
-          lastPredReject, lastPredN);
+      int poolEnd  = model.marking.getTokens(model.pool);
+      writeIntervalRow(csvIntervals, r.intervalStart, r.lastT,
+          poolEnd, r.lastTargetTot, r.lastApplyTime,
+          r.intervalArr, r.intervalRej, r.intervalIdle,
+          ctl.lastPredReject, ctl.lastPredN);
 
       // Metriche complessive
-      double idleMean = (simTime > 0) ? (idleSum / simTime) : 0.0;
-      double rejRate  = (double) totalRejects / arrivals.size();
-
-      System.out.println();
-      System.out.println("== RISULTATI TIMESERIES ==");
-      System.out.println("Tempo totale simulato: " + String.format(Locale.US,"%.3f", simTime) + " s");
-      System.out.println("Rejection totali:      " + totalRejects);
-      System.out.println("Rejection rate:        " + String.format(Locale.US,"%.6f", rejRate));
-      System.out.println("Idle medio (Pool):     " + String.format(Locale.US,"%.3f", idleMean));
+      r.idleMean = (r.simTime > 0) ? (r.idleSum / r.simTime) : 0.0;
+      r.rejRate  = (double) r.totalRejects / r.processed;
+
+      if (!r.quiet) {
+        System.out.println();
+        System.out.println("== RISULTATI TIMESERIES ==");
+        System.out.println("Tempo totale simulato: " + String.format(Locale.US,"%.3f", r.simTime) + " s");
+        System.out.println("Rejection totali:      " + r.totalRejects);
+        System.out.println("Rejection rate:        " + String.format(Locale.US,"%.6f", r.rejRate));
+        System.out.println("Idle medio (Pool):     " + String.format(Locale.US,"%.3f", r.idleMean));
+      }
 
-      csvSummary.printf(Locale.US, "%.3f,%d,%.6f,%.3f%n", simTime, totalRejects, rejRate, idleMean);
+      csvSummary.num(r.simTime, 3).ch(',').num(r.totalRejects).ch(',')
+                .num(r.rejRate, 6).ch(',').num(r.idleMean, 3).endRow();
     }
-
-    System.out.println("CSV scritto: " + summaryFile);
-    System.out.println("CSV per intervalli: " + intervalsFile);
-    System.out.println("CSV debug: timeseries_debug.csv");
+    // riassunti per i plot dal CSV intervalli ormai completo
+    if (r.digestOn) IntervalDigest.write(r.intervalsFile());
+    return true;
   }
 
   //                    Controller
 
   /**
-   * Sceglie il totale minimo (busy+pool) tale che, simulando i prossimi
-   * 'horizon' secondi con totale costante, la rejection prevista <= SLO_REJECT.
+   * Sceglie il totale minimo (busy+pool) tale che, simulando gli arrivi
+   * dell'orizzonte con totale costante, la rejection prevista <= SLO_REJECT
+   * (arrivi dal trace o previsti dai rate stimati, es. ControllerService).
    */
   static int chooseMinReplicas(
       ModelOris2_fase4.GspnModel model,
       double now,
-      double horizon,
-      List<Arrival> allArrivals,
-      int currentIdx,
-      Random rng
-  ){
-    int poolNow = getTokens(model,"Pool");
-    int f1 = getTokens(model,"Ph1"), f2 = getTokens(model,"Ph2"),
-        f3 = getTokens(model,"Ph3"), f4 = getTokens(model,"Ph4");
-    int busyNow = f1 + f2 + f3 + f4;
+      List<Arrival> future,
+      Random rng,
+      ControllerMemory mem
+  ) {
+    TempState cur = new TempState(now, model.marking.getTokens(model.pool), phaseTokens(model), bphDiv(model));
+    return chooseMinReplicas(cur, future, readEntryProbs(model), rng, mem);
+  }
+
+  /** Ricerca del totale minimo a partire da uno stato già estratto (es. tenant di MultiPoolSimulator). */
+  static int chooseMinReplicas(
+      TempState cur,
+      List<Arrival> future,
+      EntryProb entryProb,
+      Random rng,
+      ControllerMemory mem
+  ) {
+    int busyNow = cur.busy();
 
-    double end = now + horizon;
-    List<Arrival> future = sliceArrivals(allArrivals, now, end, currentIdx);
     int n = future.size();
     if (n == 0) {
-      lastPredN      = 0;
-      lastPredReject = 0.0;
+      mem.lastPredN      = 0;
+      mem.lastPredReject = 0.0;
+      mem.lastCandidates = 0;
       return Math.max(POOL_MIN, busyNow);
     }
 
-    EntryProb entryProb = readEntryProbs(model);
-
     int lowerTot = Math.max(busyNow, POOL_MIN);
     int upperTot = Math.max(lowerTot, busyNow + POOL_MAX);
 
+    mem.lastCandidates = 0;
     for (int targetTot = lowerTot; targetTot <= upperTot; targetTot++) {
-      TempState s = new TempState(now, poolNow, f1, f2, f3, f4);
+      mem.lastCandidates++;
+      SimEvents.HorizonSimulation hs = new SimEvents.HorizonSimulation();
+      hs.begin();
+      TempState s = cur.copy();
       s.pool = Math.max(0, targetTot - s.busy());
       int rej = simulateHorizon(s, future, targetTot, entryProb, rng);
+      hs.end();
+      if (hs.shouldCommit()) {
+        hs.targetTotal = targetTot;
+        hs.arrivals = n;
+        hs.rejections = rej;
+        hs.commit();
+      }
       double rate = (double) rej / n;
       if (rate <= SLO_REJECT) {
-        lastPredN      = n;
-        lastPredReject = rate;
+        mem.lastPredN      = n;
+        mem.lastPredReject = rate;
         return targetTot;
       }
     }
 
-    lastPredN      = n;
-    lastPredReject = 1.0;
+    mem.lastPredN      = n;
+    mem.lastPredReject = 1.0;
     return upperTot;
   }
 
@@ -357,16 +581,11 @@ boolean sceltaValida = false;
       int needPool = Math.max(0, targetTot - s.busy());
       s.pool = Math.min(POOL_MAX, needPool);
 
-      double[] p = (a.cls == 1) ? prob.c1 : (a.cls == 2) ? prob.c2 : prob.c3;
       if (s.pool <= 0) {
         rejects++;
       } else {
         s.pool--;
-        int ph = pickPhaseIndex(p, rng);
-        if      (ph == 1) s.ph1++;
-        else if (ph == 2) s.ph2++;
-        else if (ph == 3) s.ph3++;
-        else              s.ph4++;
+        s.ph[prob.of(a.cls).sample(rng)]++;
       }
       s.time = a.time;
     }
@@ -378,63 +597,65 @@ boolean sceltaValida = false;
   static final class TempState {
     double time;
     int pool;
-    int ph1, ph2, ph3, ph4;
-    TempState(double t, int pool, int ph1, int ph2, int ph3, int ph4){
-      this.time=t; this.pool=pool; this.ph1=ph1; this.ph2=ph2; this.ph3=ph3; this.ph4=ph4;
+    final int[] ph; // Ph1..PhM
+    final int bph;  // BphDiv del modello da cui è estratto
+    TempState(double t, int pool, int[] ph, int bph){
+      this.time=t; this.pool=pool; this.ph=ph; this.bph=bph;
     }
-    int busy(){ return ph1+ph2+ph3+ph4; }
+    int busy(){ int b = 0; for (int x : ph) b += x; return b; }
+    TempState copy(){ return new TempState(time, pool, ph.clone(), bph); }
   }
 
+  // Tabelle alias per classe, condivise col modello (ricostruite solo dopo setWeights)
   static final class EntryProb {
-    final double[] c1 = new double[5];
-    final double[] c2 = new double[5];
-    final double[] c3 = new double[5];
+    final AliasTable[] byClass; // classe c -> byClass[c-1]
+    EntryProb(AliasTable[] byClass){ this.byClass = byClass; }
+    AliasTable of(int cls){ return byClass[(cls >= 1 && cls <= byClass.length) ? cls - 1 : 0]; }
   }
 
   static EntryProb readEntryProbs(ModelOris2_fase4.GspnModel model){
-    EntryProb ep = new EntryProb();
-    double[] p1 = classEntryProbs(model, 1);
-    double[] p2 = classEntryProbs(model, 2);
-    double[] p3 = classEntryProbs(model, 3);
-    System.arraycopy(p1,0,ep.c1,0,5);
-    System.arraycopy(p2,0,ep.c2,0,5);
-    System.arraycopy(p3,0,ep.c3,0,5);
-    return ep;
-  }
-
-  static int pickPhaseIndex(double[] probs, Random rng){
-    double u = rng.nextDouble();
-    double c1 = probs[1];
-    double c2 = c1 + probs[2];
-    double c3 = c2 + probs[3];
-    if (u < c1) return 1;
-    if (u < c2) return 2;
-    if (u < c3) return 3;
-    return 4;
+    AliasTable[] tabs = new AliasTable[model.classes];
+    for (int c = 1; c <= model.classes; c++) tabs[c - 1] = ModelOris2_fase4.entryTable(model, c);
+    return new EntryProb(tabs);
+  }
+
+  // Gara dei completamenti Ph1..PhM: foglia k-1 = k*Phk/BphDiv
+  static SumTree phaseRates(int[] ph, int bph){
+    SumTree race = new SumTree(ph.length);
+    for (int k = 0; k < ph.length; k++) race.set(k, ((k + 1.0) * ph[k]) / bph);
+    return race;
+  }
+
+  /**
+   * Completamento della foglia ev: Ph(ev+1) -> Ph(ev+2), o Pool dopo l'ultima fase.
+   * @return fase di arrivo (1..M), 0 = Pool, -1 se la fase era vuota
+   */
+  static int completePhase(SumTree race, int[] ph, int ev, int bph){
+    if (ph[ev] <= 0) return -1;
+    ph[ev]--;
+    race.set(ev, ((ev + 1.0) * ph[ev]) / bph);
+    if (ev + 1 == ph.length) return 0;
+    ph[ev + 1]++;
+    race.set(ev + 1, ((ev + 2.0) * ph[ev + 1]) / bph);
+    return ev + 2;
   }
 
   static void advanceTempByExponentials(TempState s, double dt, Random rng){
     if (dt <= 0) return;
     double t = 0.0;
-    final int bph = Math.max(1, (bphDivCached != null ? bphDivCached : 10));
+    final int bph = s.bph;
+
+    SumTree race = phaseRates(s.ph, bph);
 
     while (true) {
-      double r1 = (s.ph1 > 0) ? (1.0 * s.ph1) / bph : 0.0;
-      double r2 = (s.ph2 > 0) ? (2.0 * s.ph2) / bph : 0.0;
-      double r3 = (s.ph3 > 0) ? (3.0 * s.ph3) / bph : 0.0;
-      double r4 = (s.ph4 > 0) ? (4.0 * s.ph4) / bph : 0.0;
-      double R = r1 + r2 + r3 + r4;
+      double R = race.total();
       if (R <= 0.0) { s.time += (dt - t); return; }
 
       double tau = drawExp(R, rng);
       if (t + tau >= dt) { s.time += (dt - t); return; }
 
       t += tau;
-      int ev = pickWeightedIndex(new double[]{r1, r2, r3, r4}, rng);
-      if (ev == 0 && s.ph1 > 0) { s.ph1--; s.ph2++; }
-      else if (ev == 1 && s.ph2 > 0) { s.ph2--; s.ph3++; }
-      else if (ev == 2 && s.ph3 > 0) { s.ph3--; s.ph4++; }
-      else if (ev == 3 && s.ph4 > 0) { s.ph4--; s.pool++; }
+      if (completePhase(race, s.ph, race.sample(rng.nextDouble()), bph) == 0) s.pool++;
     }
   }
 
@@ -446,29 +667,32 @@ boolean sceltaValida = false;
     Step(double idleArea, double dt){ this.idleArea = idleArea; this.dt = dt; }
   }
 
+  // Avanzamento della run da r.clock a t1 con lo stepper scelto (advanceMode)
+  static Step advance(SimRun r, double t1, AsyncCsvWriter debugLog, TraceRecorder trace){
+    boolean debugOn = r.debugLog < DEBUG_MAX;
+    if (t1 <= r.clock) return new Step(0.0, 0.0);
+    if (r.stepper != null) return r.stepper.advance(r.model, r.clock, t1, debugLog, debugOn, trace);
+    if (r.tauLeap != null) return r.tauLeap.advance(r.model, r.rng, r.clock, t1, debugLog, debugOn, trace);
+    return advanceModelAndIntegrateIdle(r.model, r.rng, r.clock, t1, debugLog, debugOn, trace, r.metrics);
+  }
+
+  /** Loop esatto evento per evento; metrics null = nessun conteggio degli eventi. */
   static Step advanceModelAndIntegrateIdle(
       ModelOris2_fase4.GspnModel model, Random rng,
       double t0, double t1,
-      PrintWriter debugLog, boolean debugOn
+      AsyncCsvWriter debugLog, boolean debugOn, TraceRecorder trace, SimMetrics metrics
   ){
     if (t1 <= t0) return new Step(0.0, 0.0);
 
     double t = t0;
     double idleArea = 0.0;
-    int pool = getTokens(model,"Pool");
-    final int bph = Math.max(1, getTokens(model,"BphDiv"));
+    int pool = model.marking.getTokens(model.pool);
+    final int bph = bphDiv(model);
+    final int[] ph = phaseTokens(model);
+    SumTree race = phaseRates(ph, bph);
 
     while (true) {
-      int ph1 = getTokens(model,"Ph1");
-      int ph2 = getTokens(model,"Ph2");
-      int ph3 = getTokens(model,"Ph3");
-      int ph4 = getTokens(model,"Ph4");
-
-      double r1 = (ph1 > 0) ? (1.0 * ph1) / bph : 0.0;
-      double r2 = (ph2 > 0) ? (2.0 * ph2) / bph : 0.0;
-      double r3 = (ph3 > 0) ? (3.0 * ph3) / bph : 0.0;
-      double r4 = (ph4 > 0) ? (4.0 * ph4) / bph : 0.0;
-      double R = r1 + r2 + r3 + r4;
+      double R = race.total();
 
       if (R <= 0.0) { // nessun completamento possibile
         idleArea += pool * (t1 - t);
@@ -485,70 +709,128 @@ boolean sceltaValida = false;
       idleArea += pool * tau;
       t += tau;
 
-      int ev = pickWeightedIndex(new double[]{r1, r2, r3, r4}, rng);
-      if (ev == 0 && ph1 > 0) {
-        setTokens(model,"Ph1", ph1 - 1); setTokens(model,"Ph2", ph2 + 1);
-        if (debugOn) writeDebug(debugLog, t, "movimento: token spostato da Ph1 a Ph2");
-      } else if (ev == 1 && ph2 > 0) {
-        setTokens(model,"Ph2", ph2 - 1); setTokens(model,"Ph3", ph3 + 1);
-        if (debugOn) writeDebug(debugLog, t, "movimento: token spostato da Ph2 a Ph3");
-      } else if (ev == 2 && ph3 > 0) {
-        setTokens(model,"Ph3", ph3 - 1); setTokens(model,"Ph4", ph4 + 1);
-        if (debugOn) writeDebug(debugLog, t, "movimento: token spostato da Ph3 a Ph4");
-      } else if (ev == 3 && ph4 > 0) {
-        setTokens(model,"Ph4", ph4 - 1); setTokens(model,"Pool", pool + 1);
-        pool = pool + 1; // aggiorno locale
-        if (debugOn) writeDebug(debugLog, t, "movimento: token completato da Ph4 a Pool");
-      }
+      int ev = race.sample(rng.nextDouble());
+      int to = completePhase(race, ph, ev, bph);
+      if (to < 0) continue;
+      if (to == 0) pool++;
+      if (metrics != null) metrics.event();
+      if (trace != null) trace.move(t, ev + 1, to);
+      if (debugOn) writeDebug(debugLog, t, moveText(ev + 1, to));
     }
 
+    // Stato locale riportato nella marcatura una volta sola
+    for (int k = 0; k < ph.length; k++) model.marking.setTokens(model.ph[k], ph[k]);
+    model.marking.setTokens(model.pool, pool);
+
     return new Step(idleArea, t1 - t0);
   }
 
+  /**
+   * Avanzamento con GspnEngine sull'intera rete (dopo disableAutomaticArrivals):
+   * oltre a t1..tM evolvono workload (t35..t38) e variazione del mix
+   * (up12/up23/down21/down32, con le loro enabling function).
+   * Lo stato della rete vive nella Run; Pool/Ph1..PhM sono riallineati con la
+   * Marking del modello prima e dopo ogni avanzamento (inject e controller
+   * continuano a lavorare sulla Marking).
+   */
+  static final class NetStepper {
+    final String[] sync; // Pool, Ph1..PhM
+
+    final GspnEngine engine;
+    Random rng = new Random(778);
+    GspnEngine.Run run; // creata al primo avanzamento, al tempo iniziale della run
+    private final SimMetrics metrics;
+    final int[] syncIdx;
+    final int[] moveFrom, moveTo; // per transizione: fasi del movimento (0 = Pool), -1 se non è t1..tM
+    final IndexedNet.MarkingFn idle;
+
+    private AsyncCsvWriter dbg;
+    private boolean dbgOn;
+    private TraceRecorder trace;
+
+    NetStepper(ModelOris2_fase4.GspnModel model, SimMetrics metrics) {
+      this.metrics = metrics;
+      IndexedNet net = ModelTemplate.fase4(model.classes, model.phases).folded(model.marking);
+      engine = new GspnEngine(net);
+      sync = new String[model.phases + 1];
+      sync[0] = "Pool";
+      for (int k = 1; k <= model.phases; k++) sync[k] = "Ph" + k;
+      syncIdx = new int[sync.length];
+      for (int k = 0; k < sync.length; k++) syncIdx[k] = net.placeIndex(sync[k]);
+
+      int nt = net.transitionCount();
+      moveFrom = new int[nt];
+      moveTo   = new int[nt];
+      Arrays.fill(moveFrom, -1);
+      for (int ph = 1; ph <= model.phases; ph++) {
+        int t = net.transitionIndex("t" + ph);
+        moveFrom[t] = ph;
+        moveTo[t]   = (ph < model.phases) ? ph + 1 : 0;
+      }
+
+      final int pool = syncIdx[0];
+      idle = m -> m[pool];
+    }
+
+    Step advance(ModelOris2_fase4.GspnModel model, double t0, double t1,
+                 AsyncCsvWriter debugLog, boolean debugOn, TraceRecorder trace) {
+      if (run == null) run = engine.start(model.marking, t0, rng).listener(this::fired);
+      for (int k = 0; k < sync.length; k++) run.set(syncIdx[k], getTokens(model, sync[k]));
+      this.dbg = debugLog; this.dbgOn = debugOn; this.trace = trace;
+      double idleArea = run.advanceTo(t1, idle);
+      for (int k = 0; k < sync.length; k++) setTokens(model, sync[k], run.m[syncIdx[k]]);
+      return new Step(idleArea, t1 - t0);
+    }
+
+    // Checkpoint: RNG e calendario della Run (la marcatura dei posti sincronizzati è nel modello)
+    void writeState(DataOutput out) throws IOException {
+      SimCheckpoint.writeRandom(out, rng);
+      out.writeBoolean(run != null);
+      if (run != null) run.write(out);
+    }
+
+    void readState(DataInput in) throws IOException {
+      rng = SimCheckpoint.readRandom(in);
+      run = in.readBoolean() ? engine.resume(in, rng).listener(this::fired) : null;
+    }
+
+    private void fired(int t, double time, int[] m) {
+      int from = moveFrom[t];
+      if (from < 0) return;
+      int to = moveTo[t];
+      if (metrics != null) metrics.event();
+      if (trace != null) trace.move(time, from, to);
+      if (dbgOn) writeDebug(dbg, time, moveText(from, to));
+    }
+  }
+
   //                     Inject / probabilità ingresso
 
   /**
    * Prova a inserire una richiesta.
-   * @return fase di ingresso (1..4) se accettata, 0 se rifiutata
+   * @return fase di ingresso (1..M) se accettata, 0 se rifiutata
    */
   static int injectRequest(ModelOris2_fase4.GspnModel model, int cls, Random rng){
-    int pool = getTokens(model,"Pool");
+    int pool = model.marking.getTokens(model.pool);
     if (pool <= 0) return 0; // rejection
 
     int phase = chooseEntryPhase(model, cls, rng);
-    String dest = (phase==1)?"Ph1":(phase==2)?"Ph2":(phase==3)?"Ph3":"Ph4";
+    Place dest = model.ph[phase - 1];
 
-    setTokens(model,"Pool", pool-1);
-    setTokens(model, dest, getTokens(model,dest)+1);
+    model.marking.setTokens(model.pool, pool - 1);
+    model.marking.setTokens(dest, model.marking.getTokens(dest) + 1);
     return phase;
   }
 
   static int chooseEntryPhase(ModelOris2_fase4.GspnModel model, int cls, Random rng){
-    String p1="W11",p2="W12",p3="W13",p4="W14";
-    if (cls==2){ p1="W21"; p2="W22"; p3="W23"; p4="W24"; }
-    if (cls==3){ p1="W31"; p2="W32"; p3="W33"; p4="W34"; }
-    int w1=getTokens(model,p1), w2=getTokens(model,p2), w3=getTokens(model,p3), w4=getTokens(model,p4);
-    int sum = Math.max(1, w1+w2+w3+w4);
-    double u = rng.nextDouble();
-    double c1 = w1/(double)sum, c2 = c1 + w2/(double)sum, c3 = c2 + w3/(double)sum;
-    if (u < c1) return 1;
-    if (u < c2) return 2;
-    if (u < c3) return 3;
-    return 4;
-  }
-
-  static double[] classEntryProbs(ModelOris2_fase4.GspnModel model, int cls) {
-    String p1="W11",p2="W12",p3="W13",p4="W14";
-    if (cls==2){ p1="W21"; p2="W22"; p3="W23"; p4="W24"; }
-    if (cls==3){ p1="W31"; p2="W32"; p3="W33"; p4="W34"; }
-    int w1=getTokens(model,p1), w2=getTokens(model,p2), w3=getTokens(model,p3), w4=getTokens(model,p4);
-    double sum = Math.max(1, w1+w2+w3+w4);
-    return new double[]{0.0, w1/sum, w2/sum, w3/sum, w4/sum};
+    return ModelOris2_fase4.entryTable(model, cls).sample(rng) + 1;
   }
 
   //                           I/O + utilità
 
   static List<Arrival> readArrivalsCsv(String file) throws Exception {
+    SimEvents.ArrivalBatch batch = new SimEvents.ArrivalBatch();
+    batch.begin();
     List<Arrival> out = new ArrayList<>();
     try (BufferedReader br = new BufferedReader(new FileReader(file))) {
       String line = br.readLine(); // header
@@ -561,21 +843,18 @@ boolean sceltaValida = false;
       }
     }
     out.sort(Comparator.comparingDouble(a -> a.time));
-    return out;
-  }
-
-  static List<Arrival> sliceArrivals(List<Arrival> arr, double from, double to, int startIdx){
-    List<Arrival> out = new ArrayList<>();
-    for (int i = Math.max(0, startIdx); i < arr.size(); i++){
-      Arrival a = arr.get(i);
-      if (a.time < from) continue;
-      if (a.time >= to) break;
-      out.add(a);
+    batch.end();
+    if (batch.shouldCommit()) {
+      batch.source = file;
+      batch.arrivals = out.size();
+      batch.firstTime = out.isEmpty() ? 0.0 : out.get(0).time;
+      batch.lastTime  = out.isEmpty() ? 0.0 : out.get(out.size() - 1).time;
+      batch.commit();
     }
     return out;
   }
 
-  static void writeIntervalRow(PrintWriter csv,
+  static void writeIntervalRow(AsyncCsvWriter csv,
                                double tStart, double tEnd,
                                int poolNow, int targetTot, double effChangeTime,
                                int arrivals, int rejects, double idleIntegralInterval,
@@ -585,19 +864,22 @@ boolean sceltaValida = false;
     double idleMeanInt = (dt > 0) ? (idleIntegralInterval / dt) : 0.0;
     double rejRateInt  = (arrivals > 0) ? (double) rejects / arrivals : 0.0;
 
-    csv.printf(Locale.US,
-        "%.3f,%.3f,%d,%d,%.3f,%d,%d,%.6f,%.3f,%.6f,%d%n",
-        tStart, tEnd, poolNow, targetTot, effChangeTime,
-        arrivals, rejects, rejRateInt, idleMeanInt,
-        predRejAtTarget, predN);
+    // stesso formato di "%.3f,%.3f,%d,%d,%.3f,%d,%d,%.6f,%.3f,%.6f,%d%n"
+    csv.key(tStart).num(tStart, 3).ch(',').num(tEnd, 3).ch(',')
+       .num(poolNow).ch(',').num(targetTot).ch(',').num(effChangeTime, 3).ch(',')
+       .num(arrivals).ch(',').num(rejects).ch(',')
+       .num(rejRateInt, 6).ch(',').num(idleMeanInt, 3).ch(',')
+       .num(predRejAtTarget, 6).ch(',').num(predN).endRow();
   }
 
   static void disableAutomaticArrivals(ModelOris2_fase4.GspnModel model){
-    setTokens(model,"Rate1",0);
-    setTokens(model,"Rate2",0);
-    setTokens(model,"Rate3",0);
+    for (Place rate : model.rate) model.marking.setTokens(rate, 0);
     setTokens(model,"RateDiv",1);
-    bphDivCached = getTokens(model,"BphDiv");
+  }
+
+  // Divisore dei rate di fase (BphDiv >= 1)
+  static int bphDiv(ModelOris2_fase4.GspnModel model){
+    return Math.max(1, model.marking.getTokens(model.bphDiv));
   }
 
   static double ceilToStep(double t, double step){
@@ -606,7 +888,36 @@ boolean sceltaValida = false;
   }
 
   static int countBusy(ModelOris2_fase4.GspnModel model){
-    return getTokens(model,"Ph1")+getTokens(model,"Ph2")+getTokens(model,"Ph3")+getTokens(model,"Ph4");
+    int busy = 0;
+    for (Place p : model.ph) busy += model.marking.getTokens(p);
+    return busy;
+  }
+
+  // Ph1..PhM dalla marcatura
+  static int[] phaseTokens(ModelOris2_fase4.GspnModel model){
+    int[] ph = new int[model.phases];
+    for (int k = 0; k < ph.length; k++) ph[k] = model.marking.getTokens(model.ph[k]);
+    return ph;
+  }
+
+  // [Pool, Ph1..PhM]: stato della trace e del debug
+  static int[] stateVector(ModelOris2_fase4.GspnModel model){
+    int[] s = new int[model.phases + 1];
+    s[0] = model.marking.getTokens(model.pool);
+    for (int k = 1; k < s.length; k++) s[k] = model.marking.getTokens(model.ph[k - 1]);
+    return s;
+  }
+
+  // "Pool=.., Ph1=.., ..., PhM=.." (stesso testo per simulatore e TraceReplay)
+  static String stateText(int[] s){
+    StringBuilder sb = new StringBuilder("Pool=").append(s[0]);
+    for (int k = 1; k < s.length; k++) sb.append(", Ph").append(k).append('=').append(s[k]);
+    return sb.toString();
+  }
+
+  static String moveText(int from, int to){
+    return (to == 0) ? "movimento: token completato da Ph" + from + " a Pool"
+                     : "movimento: token spostato da Ph" + from + " a Ph" + to;
   }
 
   static int getTokens(ModelOris2_fase4.GspnModel model, String place){
@@ -621,16 +932,7 @@ boolean sceltaValida = false;
     return -Math.log(u) / rate;
   }
 
-  static int pickWeightedIndex(double[] w, Random rng){
-    double sum = 0.0; for (double v : w) sum += v;
-    if (sum <= 0.0) return 0;
-    double u = rng.nextDouble() * sum, acc = 0.0;
-    for (int i=0;i<w.length;i++){ acc += w[i]; if (u <= acc) return i; }
-    return w.length - 1;
-  }
-
-  // Debug CSV “time|message”
-  static void writeDebug(PrintWriter dbg, double t, String msg) {
-    if (dbg != null) dbg.printf(Locale.US, "%.3f|%s%n", t, msg);
+  static void writeDebug(AsyncCsvWriter dbg, double t, String msg) {
+    if (dbg != null) dbg.num(t, 3).ch('|').line(msg);
   }
 }
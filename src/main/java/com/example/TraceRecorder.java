@@ -0,0 +1,222 @@
+package com.example;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Trace binaria degli eventi del simulatore (tutta la run, non solo i primi 20).
+ *
+ * File: header con stato iniziale Pool, Ph1..PhM, poi record da
+ * RECORD_BYTES: tempo (double), tipo, due campi byte, delta (int).
+ * Header versione 1 (M = 4, HEADER_BYTES): magic, versione, t0, stato[5],
+ * riservato; versione 2 (altre M): magic, versione, t0, M, stato[M+1], riservato.
+ *  - EV_MOVE   : a = fase di partenza (1..M), b = fase di arrivo (0 = Pool)
+ *  - EV_ACCEPT : a = classe, b = fase di ingresso   (Pool-1, Ph[b]+1)
+ *  - EV_REJECT : a = classe
+ *  - EV_POOL   : delta = variazione di Pool decisa dal controller
+ *
+ * I record vanno in un ring buffer diretto preallocato diviso in segmenti;
+ * ogni segmento pieno è scritto da un thread dedicato (FileChannel) senza
+ * lock: il produttore si ferma solo se il ring è interamente da scrivere.
+ * Un solo produttore per istanza. Lettura e replay in TraceReplay.
+ *
+ * records() / flush() / resume() servono ai checkpoint: il file viene
+ * riaperto troncato al numero di record salvato e la trace prosegue.
+ */
+public final class TraceRecorder implements AutoCloseable {
+
+  static final int  MAGIC        = 0x54524331; // "TRC1"
+  static final int  VERSION      = 1;         // 4 fasi
+  static final int  VERSION_N    = 2;         // M fasi
+  static final int  HEADER_BYTES = 40;         // versione 1: magic, version, t0, stato[5], riservato
+  static final int  RECORD_BYTES = 16;
+
+  static final byte EV_MOVE   = 1;
+  static final byte EV_ACCEPT = 2;
+  static final byte EV_REJECT = 3;
+  static final byte EV_POOL   = 4;
+
+  static final int DEFAULT_SEGMENT_RECORDS = 4096;
+  static final int DEFAULT_SEGMENTS        = 16;
+
+  private final FileChannel channel;
+  private final ByteBuffer ring;
+  private final long capacity;
+  private final int segmentBytes;
+  private final Thread writer;
+  private final Thread producer;
+
+  private final long base;              // record già presenti (ripresa da checkpoint)
+  private long written;                 // byte prodotti (solo produttore)
+  private volatile long published;      // byte visibili al writer
+  private volatile long flushed;        // byte già su file
+  private volatile boolean closing;
+  private volatile IOException failure;
+  private boolean closed;
+
+  /** state = [Pool, Ph1..PhM] al tempo t0. */
+  public TraceRecorder(String file, double t0, int[] state) throws IOException {
+    this(file, t0, state, DEFAULT_SEGMENT_RECORDS, DEFAULT_SEGMENTS);
+  }
+
+  public TraceRecorder(String file, double t0, int[] state, int segmentRecords, int segments) throws IOException {
+    this(FileChannel.open(Path.of(file),
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING),
+        file, 0L, segmentRecords, segments);
+
+    int phases = state.length - 1;
+    ByteBuffer h = ByteBuffer.allocate(headerBytes(phases));
+    h.putInt(MAGIC).putInt((phases == 4) ? VERSION : VERSION_N).putDouble(t0);
+    if (phases != 4) h.putInt(phases);
+    for (int k = 0; k <= phases; k++) h.putInt(state[k]);
+    h.putInt(0).flip();
+    while (h.hasRemaining()) channel.write(h);
+  }
+
+  static int headerBytes(int phases) {
+    return (phases == 4) ? HEADER_BYTES : 24 + 4 * (phases + 1);
+  }
+
+  /** Fasi M dichiarate nell'header (dopo magic e versione già letti). */
+  static int phases(int version, ByteBuffer afterT0) throws IOException {
+    if (version == VERSION) return 4;
+    if (version != VERSION_N) throw new IOException("Versione trace non supportata: " + version);
+    int phases = afterT0.getInt();
+    if (phases < 1 || phases > ModelOris2_fase4.MAX_PHASES) throw new IOException("Trace non valida (fasi): " + phases);
+    return phases;
+  }
+
+  /** Riapre una trace esistente troncata a 'records' record (da records() al checkpoint). */
+  public static TraceRecorder resume(String file, long records) throws IOException {
+    FileChannel ch = FileChannel.open(Path.of(file), StandardOpenOption.READ, StandardOpenOption.WRITE);
+    ByteBuffer h = ByteBuffer.allocate(20);
+    while (h.hasRemaining() && ch.read(h) >= 0) { }
+    h.flip();
+    if (h.remaining() < 20 || h.getInt() != MAGIC) {
+      ch.close();
+      throw new IOException("Trace non valida (magic): " + file);
+    }
+    int version = h.getInt();
+    h.getDouble();
+    int phases;
+    try {
+      phases = phases(version, h);
+    } catch (IOException e) {
+      ch.close();
+      throw e;
+    }
+    long size = headerBytes(phases) + records * RECORD_BYTES;
+    if (ch.size() < size) {
+      ch.close();
+      throw new IOException("Trace più corta del checkpoint: " + file + " (" + records + " record attesi)");
+    }
+    ch.truncate(size);
+    ch.position(size);
+    return new TraceRecorder(ch, file, records, DEFAULT_SEGMENT_RECORDS, DEFAULT_SEGMENTS);
+  }
+
+  private TraceRecorder(FileChannel channel, String file, long base, int segmentRecords, int segments) {
+    this.channel      = channel;
+    this.base         = base;
+    this.segmentBytes = Math.max(1, segmentRecords) * RECORD_BYTES;
+    this.capacity     = (long) segmentBytes * Math.max(2, segments);
+    this.ring         = ByteBuffer.allocateDirect((int) capacity);
+    this.producer     = Thread.currentThread();
+
+    this.writer = new Thread(this::drain, "trace-writer-" + Path.of(file).getFileName());
+    this.writer.setDaemon(true);
+    this.writer.start();
+  }
+
+  // ---------- Eventi ----------
+
+  public void move(double t, int fromPhase, int toPhase) { put(t, EV_MOVE, fromPhase, toPhase, 0); }
+  public void accept(double t, int cls, int phase)       { put(t, EV_ACCEPT, cls, phase, 0); }
+  public void reject(double t, int cls)                  { put(t, EV_REJECT, cls, 0, 0); }
+  public void pool(double t, int delta)                  { if (delta != 0) put(t, EV_POOL, 0, 0, delta); }
+
+  private void put(double t, byte type, int a, int b, int delta) {
+    while (written + RECORD_BYTES - flushed > capacity) {
+      if (failure != null) throw new UncheckedIOException(failure);
+      LockSupport.unpark(writer);
+      LockSupport.parkNanos(50_000L);
+    }
+    int i = (int) (written % capacity);
+    ring.putDouble(i, t);
+    ring.put(i + 8, type);
+    ring.put(i + 9, (byte) a);
+    ring.put(i + 10, (byte) b);
+    ring.put(i + 11, (byte) 0);
+    ring.putInt(i + 12, delta);
+    written += RECORD_BYTES;
+    if (written % segmentBytes == 0) {
+      published = written;
+      LockSupport.unpark(writer);
+    }
+  }
+
+  /** Record prodotti dall'inizio della trace (inclusi quelli ripresi). */
+  public long records() {
+    return base + written / RECORD_BYTES;
+  }
+
+  /** Attende che tutti i record prodotti siano scritti (anche il segmento parziale). */
+  public void flush() throws IOException {
+    published = written;
+    LockSupport.unpark(writer);
+    while (flushed < written) {
+      if (failure != null) throw failure;
+      LockSupport.parkNanos(50_000L);
+    }
+    if (failure != null) throw failure;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) return;
+    closed = true;
+    published = written;   // segmento parziale
+    closing = true;
+    LockSupport.unpark(writer);
+    try {
+      writer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      channel.close();
+    }
+    if (failure != null) throw failure;
+  }
+
+  // ---------- Thread di scrittura ----------
+
+  private void drain() {
+    ByteBuffer view = ring.duplicate();
+    while (true) {
+      long p = published, f = flushed;
+      if (p > f) {
+        int from = (int) (f % capacity);
+        int len  = (int) Math.min(p - f, capacity - from);
+        if (failure == null) {
+          try {
+            view.limit(from + len).position(from);
+            while (view.hasRemaining()) channel.write(view);
+          } catch (IOException e) {
+            failure = e;
+          }
+        }
+        flushed = f + len;
+        LockSupport.unpark(producer);
+      } else if (closing) {
+        if (published == f) return; // rilettura: close() pubblica prima di chiudere
+      } else {
+        LockSupport.parkNanos(1_000_000L);
+      }
+    }
+  }
+}
@@ -0,0 +1,165 @@
+package com.example;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+
+/**
+ * Lettura e replay della trace binaria scritta da TraceRecorder:
+ * - stateAt(t): stato Pool, Ph1..PhM dopo tutti gli eventi con tempo <= t
+ *   (ricerca binaria + snapshot ogni CHECKPOINT_EVERY eventi)
+ * - renderDebug(...): stesso formato "time|event" di timeseries_debug.csv
+ *
+ * Uso: TraceReplay [trace.bin] at <t>
+ *      TraceReplay [trace.bin] debug [maxArrivi] [out.csv]
+ */
+public final class TraceReplay {
+
+  static final int CHECKPOINT_EVERY = 1024;
+
+  // stato: [Pool, Ph1, ..., PhM]
+  static final int POOL = 0;
+
+  final double t0;
+  final int[] initial;
+  final int n;
+  final double[] time;
+  final byte[] type, a, b;
+  final int[] delta;
+  private final int[][] checkpoints; // stato dopo gli eventi [0, k*CHECKPOINT_EVERY)
+
+  private TraceReplay(double t0, int[] initial, int n) {
+    this.t0 = t0;
+    this.initial = initial;
+    this.n = n;
+    this.time  = new double[n];
+    this.type  = new byte[n];
+    this.a     = new byte[n];
+    this.b     = new byte[n];
+    this.delta = new int[n];
+    this.checkpoints = new int[n / CHECKPOINT_EVERY + 1][];
+  }
+
+  public static TraceReplay load(String file) throws IOException {
+    try (FileChannel ch = FileChannel.open(Path.of(file), StandardOpenOption.READ)) {
+      long size = ch.size();
+      if (size < 20 || size > Integer.MAX_VALUE)
+        throw new IOException("Trace non valida: " + file);
+      ByteBuffer buf = ByteBuffer.allocate((int) size);
+      while (buf.hasRemaining() && ch.read(buf) >= 0) { }
+      buf.flip();
+
+      if (buf.getInt() != TraceRecorder.MAGIC) throw new IOException("Trace non valida (magic): " + file);
+      int version = buf.getInt();
+      double t0 = buf.getDouble();
+      int phases = TraceRecorder.phases(version, buf);
+      int header = TraceRecorder.headerBytes(phases);
+      if (size < header) throw new IOException("Trace non valida: " + file);
+      int[] init = new int[phases + 1];
+      for (int k = 0; k <= phases; k++) init[k] = buf.getInt();
+      buf.getInt();
+
+      int n = (int) ((size - header) / TraceRecorder.RECORD_BYTES);
+      TraceReplay r = new TraceReplay(t0, init, n);
+      int[] s = init.clone();
+      for (int i = 0; i < n; i++) {
+        if (i % CHECKPOINT_EVERY == 0) r.checkpoints[i / CHECKPOINT_EVERY] = s.clone();
+        r.time[i]  = buf.getDouble();
+        r.type[i]  = buf.get();
+        r.a[i]     = buf.get();
+        r.b[i]     = buf.get();
+        buf.get();
+        r.delta[i] = buf.getInt();
+        r.apply(i, s);
+      }
+      if (n % CHECKPOINT_EVERY == 0) r.checkpoints[n / CHECKPOINT_EVERY] = s;
+      return r;
+    }
+  }
+
+  public int size() { return n; }
+
+  // Applica l'evento i allo stato s
+  void apply(int i, int[] s) {
+    switch (type[i]) {
+      case TraceRecorder.EV_MOVE   -> { s[a[i]]--; s[b[i]]++; }
+      case TraceRecorder.EV_ACCEPT -> { s[POOL]--; s[b[i]]++; }
+      case TraceRecorder.EV_POOL   -> s[POOL] += delta[i];
+      default -> { }
+    }
+  }
+
+  /** Stato [Pool, Ph1, ..., PhM] dopo tutti gli eventi con tempo <= t. */
+  public int[] stateAt(double t) {
+    // primo evento con tempo > t (i tempi sono non decrescenti)
+    int lo = 0, hi = n;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (time[mid] <= t) lo = mid + 1; else hi = mid;
+    }
+    int c = lo / CHECKPOINT_EVERY;
+    int[] s = checkpoints[c].clone();
+    for (int i = c * CHECKPOINT_EVERY; i < lo; i++) apply(i, s);
+    return s;
+  }
+
+  /**
+   * Scrive il debug leggibile "time|event" come timeseries_debug.csv.
+   * maxArrivals limita agli eventi fino al maxArrivals-esimo arrivo (con la
+   * riga di STOP, come DEBUG_MAX nel simulatore); <= 0 = tutta la run, con
+   * anche le variazioni di Pool del controller.
+   */
+  public void renderDebug(AsyncCsvWriter out, int maxArrivals) {
+    boolean all = maxArrivals <= 0;
+    int[] s = initial.clone();
+    int arrivals = 0;
+    out.line("time|event");
+    for (int i = 0; i < n; i++) {
+      apply(i, s);
+      String msg;
+      switch (type[i]) {
+        case TraceRecorder.EV_MOVE -> msg = TimeseriesSimulator.moveText(a[i], b[i]);
+        case TraceRecorder.EV_ACCEPT -> msg = "arrivo classe=" + a[i] + ": accettato in Ph" + b[i]
+            + "; stato corrente: " + TimeseriesSimulator.stateText(s);
+        case TraceRecorder.EV_REJECT -> msg = "arrivo classe=" + a[i] + ": RIFIUTATO; stato corrente: "
+            + TimeseriesSimulator.stateText(s);
+        case TraceRecorder.EV_POOL -> msg = all
+            ? String.format(Locale.US, "controller: Pool=%d (%+d)", s[0], delta[i])
+            : null;
+        default -> msg = null;
+      }
+      if (msg != null) TimeseriesSimulator.writeDebug(out, time[i], msg);
+
+      boolean arrival = type[i] == TraceRecorder.EV_ACCEPT || type[i] == TraceRecorder.EV_REJECT;
+      if (arrival && ++arrivals == maxArrivals) {
+        TimeseriesSimulator.writeDebug(out, time[i], "== STOP DEBUG: raggiunti " + maxArrivals + " eventi ==");
+        return;
+      }
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    int k = 0;
+    String file = "timeseries_trace.bin";
+    if (args.length > 0 && !args[0].equals("at") && !args[0].equals("debug")) file = args[k++];
+    TraceReplay r = load(file);
+    System.out.println("[info] trace: " + file + " | eventi " + r.size());
+
+    String cmd = (args.length > k) ? args[k++] : "debug";
+    if (cmd.equals("at")) {
+      double t = (args.length > k) ? Double.parseDouble(args[k]) : r.t0;
+      int[] s = r.stateAt(t);
+      System.out.printf(Locale.US, "t=%.3f  %s%n", t, TimeseriesSimulator.stateText(s));
+    } else {
+      int max = (args.length > k) ? Integer.parseInt(args[k++]) : 0;
+      String outFile = (args.length > k) ? args[k] : "timeseries_debug_replay.csv";
+      try (AsyncCsvWriter out = new AsyncCsvWriter(outFile)) {
+        r.renderDebug(out, max);
+      }
+      System.out.println("CSV debug (replay): " + outFile);
+    }
+  }
+}
@@ -0,0 +1,319 @@
+package com.example;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.SplittableRandom;
+
+import com.example.TimeseriesSimulator.Arrival;
+import com.example.TimeseriesSimulator.ControllerMemory;
+import com.example.TimeseriesSimulator.EntryProb;
+import com.example.TimeseriesSimulator.TempState;
+
+/**
+ * Ensemble di traiettorie di predizione in forma structure-of-arrays: Pool,
+ * Ph1..Ph4, totale target e rejection di ogni traiettoria in array primitivi
+ * (double, valori interi esatti: così tutto sta in lane da 64 bit), più uno
+ * stato SplitMix64 per traiettoria.
+ *
+ * Tutte le traiettorie partono dallo stesso stato e vedono gli stessi arrivi:
+ * tra un arrivo e il successivo ogni traiettoria fa la sua gara di
+ * esponenziali (clock locale nel kernel), agli arrivi sono di nuovo allineate.
+ * Ogni traiettoria porta con sé l'hazard integrato residuo (Exp(1)) fino al
+ * prossimo completamento: a un arrivo il residuo si consuma a rate R e si
+ * riscala sul nuovo rate (assenza di memoria), senza estrarre di nuovo.
+ * Il kernel vettoriale (EnsembleVectorKernel, jdk.incubator.vector) avanza
+ * SPECIES.length() traiettorie alla volta con maschere; è compilato solo col
+ * profilo Maven 'vector' e richiede java --add-modules jdk.incubator.vector.
+ * Altrimenti si usa il kernel scalare, con lo stesso RNG e la stessa
+ * aritmetica; la scelta è scritta nel log alla prima costruzione.
+ *
+ * Uso: TrajectoryEnsemble bench [traiettorie] [giri] [arrivalRateDiv]
+ */
+public final class TrajectoryEnsemble {
+
+  static final long GAMMA = 0x9E3779B97F4A7C15L;
+
+  /**
+   * Orizzonte intero su tutte le traiettorie: per ogni arrivo k, gara di
+   * esponenziali per gap[k] secondi poi ingresso con soglie q[cls[k]].
+   * Ogni blocco di traiettorie resta nei registri per tutto l'orizzonte.
+   */
+  interface Kernel {
+    String name();
+    int lanes(); // traiettorie per passo: la capacità ne è multipla
+    void horizon(TrajectoryEnsemble e, double[] gap, int[] cls, double[][] q, double invBph);
+  }
+
+  final int size, capacity;
+  final double[] pool, ph1, ph2, ph3, ph4, target, rejects;
+  final long[] rng;
+  private final Kernel kernel;
+
+  public TrajectoryEnsemble(int size, long seed, boolean vector) {
+    if (size <= 0) throw new IllegalArgumentException("Ensemble vuoto");
+    Kernel k = vector ? vectorKernel() : null;
+    this.kernel = (k != null) ? k : new ScalarKernel();
+    int lanes = kernel.lanes();
+    this.size = size;
+    this.capacity = (size + lanes - 1) / lanes * lanes;
+    pool = new double[capacity];
+    ph1 = new double[capacity]; ph2 = new double[capacity];
+    ph3 = new double[capacity]; ph4 = new double[capacity];
+    target = new double[capacity];
+    rejects = new double[capacity];
+    rng = new long[capacity];
+    SplittableRandom sr = new SplittableRandom(seed);
+    for (int i = 0; i < capacity; i++) rng[i] = sr.nextLong();
+  }
+
+  public String kernelName() { return kernel.name(); }
+
+  // Kernel vettoriale (senza stato) risolto una volta per JVM
+  private static Kernel vectorKernel;
+  private static boolean vectorResolved;
+
+  /** Kernel vettoriale se modulo e classe sono disponibili, altrimenti null; l'esito va nel log. */
+  static synchronized Kernel vectorKernel() {
+    if (vectorResolved) return vectorKernel;
+    vectorResolved = true;
+    String why = null;
+    if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+      why = "modulo jdk.incubator.vector non caricato (java --add-modules jdk.incubator.vector)";
+    } else {
+      try {
+        vectorKernel = (Kernel) Class.forName("com.example.EnsembleVectorKernel").getDeclaredConstructor().newInstance();
+      } catch (ClassNotFoundException e) {
+        why = "EnsembleVectorKernel non compilato (profilo Maven 'vector')";
+      } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+        Throwable c = (e.getCause() != null) ? e.getCause() : e;
+        why = "kernel vettoriale non disponibile: " + c;
+      }
+    }
+    System.out.println((vectorKernel != null)
+        ? "[info] ensemble: kernel " + vectorKernel.name()
+        : "[info] ensemble: kernel scalare, " + why);
+    return vectorKernel;
+  }
+
+  // Le traiettorie hanno quattro colonne di fase (ph1..ph4)
+  static boolean supports(int phases) { return phases == 4; }
+
+  /** Tutte le traiettorie (anche quelle di riempimento) allo stato s, rejection azzerate. */
+  public void reset(TempState s) {
+    if (!supports(s.ph.length))
+      throw new IllegalArgumentException("Ensemble solo per modelli a 4 fasi, non " + s.ph.length);
+    for (int i = 0; i < capacity; i++) {
+      pool[i] = s.pool;
+      ph1[i] = s.ph[0]; ph2[i] = s.ph[1]; ph3[i] = s.ph[2]; ph4[i] = s.ph[3];
+      rejects[i] = 0.0;
+    }
+  }
+
+  public void target(int lane, int targetTot) { target[lane] = targetTot; }
+
+  /** Orizzonte da 'now' sugli arrivi dati, come TimeseriesSimulator.simulateHorizon per ogni traiettoria. */
+  public void simulateHorizon(double now, List<Arrival> future, EntryProb prob, int bph) {
+    double[][] q = new double[prob.byClass.length][];
+    for (int c = 0; c < q.length; c++) q[c] = cumulative(prob.byClass[c]);
+    int n = future.size();
+    double[] gap = new double[n];
+    int[] cls = new int[n];
+    double t = now;
+    for (int k = 0; k < n; k++) {
+      Arrival a = future.get(k);
+      gap[k] = Math.max(0.0, a.time - t);
+      cls[k] = (a.cls >= 1 && a.cls <= q.length) ? a.cls - 1 : 0;
+      t = Math.max(t, a.time);
+    }
+    kernel.horizon(this, gap, cls, q, 1.0 / Math.max(1, bph));
+  }
+
+  // soglie cumulative della fase d'ingresso (1..3; oltre = Ph4)
+  static double[] cumulative(AliasTable p) {
+    double q1 = p.probability(0), q2 = q1 + p.probability(1), q3 = q2 + p.probability(2);
+    return new double[]{ q1, q2, q3 };
+  }
+
+  /**
+   * Rejection medie per ogni totale in [lowerTot, upperTot], 'reps' traiettorie
+   * ciascuno: traiettoria = (totale - lowerTot) * reps + replica.
+   */
+  public double[] rejectRates(TempState cur, List<Arrival> future, EntryProb prob,
+                              int lowerTot, int upperTot, int reps) {
+    int m = upperTot - lowerTot + 1;
+    if (m * reps > size) throw new IllegalArgumentException("Ensemble troppo piccolo: " + size + " < " + m * reps);
+    reset(cur);
+    for (int i = 0; i < capacity; i++) target[i] = lowerTot + Math.min(m - 1, i / reps);
+    simulateHorizon(cur.time, future, prob, cur.bph);
+    double[] out = new double[m];
+    int n = Math.max(1, future.size());
+    for (int k = 0; k < m; k++) {
+      double s = 0.0;
+      for (int r = 0; r < reps; r++) s += rejects[k * reps + r];
+      out[k] = s / reps / n;
+    }
+    return out;
+  }
+
+  /**
+   * Variante di TimeseriesSimulator.chooseMinReplicas a repliche: tutti i
+   * candidati valutati insieme, si sceglie il minimo con rejection media <= SLO.
+   */
+  public int chooseMinReplicas(TempState cur, List<Arrival> future, EntryProb prob, int reps,
+                               ControllerMemory mem) {
+    int busy = cur.busy();
+    int n = future.size();
+    int lowerTot = Math.max(busy, TimeseriesSimulator.POOL_MIN);
+    int upperTot = Math.max(lowerTot, busy + TimeseriesSimulator.POOL_MAX);
+    if (n == 0) {
+      mem.lastPredN = 0; mem.lastPredReject = 0.0; mem.lastCandidates = 0;
+      return Math.max(TimeseriesSimulator.POOL_MIN, busy);
+    }
+    double[] rate = rejectRates(cur, future, prob, lowerTot, upperTot, reps);
+    mem.lastPredN = n;
+    mem.lastCandidates = rate.length;
+    for (int k = 0; k < rate.length; k++) {
+      if (rate[k] <= TimeseriesSimulator.SLO_REJECT) { mem.lastPredReject = rate[k]; return lowerTot + k; }
+    }
+    mem.lastPredReject = rate[rate.length - 1];
+    return upperTot;
+  }
+
+  // ---------- RNG per traiettoria (SplitMix64) ----------
+
+  static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+
+  // uniforme in (0,1): mai 0 (log finito) né 1 (tau > 0)
+  static double unit(long z) {
+    return ((z >>> 11) + 0.5) * 0x1.0p-53;
+  }
+
+  // ---------- Kernel scalare ----------
+
+  static final class ScalarKernel implements Kernel {
+    public String name() { return "scalare"; }
+    public int lanes() { return 1; }
+
+    public void horizon(TrajectoryEnsemble e, double[] gap, int[] cls, double[][] q, double invBph) {
+      final double poolMax = TimeseriesSimulator.POOL_MAX;
+      for (int i = 0; i < e.capacity; i++) {
+        double p1 = e.ph1[i], p2 = e.ph2[i], p3 = e.ph3[i], p4 = e.ph4[i], pool = e.pool[i];
+        double tgt = e.target[i], rej = e.rejects[i];
+        long s = e.rng[i] + GAMMA;
+        double h = -Math.log(unit(mix(s)));   // hazard integrato residuo fino al prossimo completamento
+        for (int k = 0; k < gap.length; k++) {
+          // gara dei completamenti per gap[k]
+          double dt = gap[k], t = 0.0;
+          while (true) {
+            double r = (p1 + p2 * 2.0 + p3 * 3.0 + p4 * 4.0) * invBph;
+            double tn = t + h / r;                      // r == 0: infinito
+            if (!(tn < dt)) { h = Math.max(0.0, h - r * (dt - t)); break; }
+            t = tn;
+            s += GAMMA;
+            double u = unit(mix(s)) * r;
+            double c1 = p1 * invBph, c2 = c1 + p2 * (2.0 * invBph), c3 = c2 + p3 * (3.0 * invBph);
+            if      (u < c1)  { p1--; p2++; }
+            else if (u < c2)  { p2--; p3++; }
+            else if (u < c3)  { p3--; p4++; }
+            else if (p4 > 0)  { p4--; pool++; }
+            s += GAMMA;
+            h = -Math.log(unit(mix(s)));
+          }
+
+          // arrivo: Pool riallineato al target, poi ingresso o rejection
+          pool = Math.min(poolMax, Math.max(0.0, tgt - (p1 + p2 + p3 + p4)));
+          if (pool <= 0.0) { rej++; continue; }
+          pool--;
+          s += GAMMA;
+          double u = unit(mix(s));
+          double[] c = q[cls[k]];
+          if      (u < c[0]) p1++;
+          else if (u < c[1]) p2++;
+          else if (u < c[2]) p3++;
+          else               p4++;
+        }
+        e.ph1[i] = p1; e.ph2[i] = p2; e.ph3[i] = p3; e.ph4[i] = p4; e.pool[i] = pool;
+        e.rejects[i] = rej;
+        e.rng[i] = s;
+      }
+    }
+  }
+
+  // ---------- Bench ----------
+
+  public static void main(String[] args) throws Exception {
+    if (args.length == 0 || !args[0].equals("bench")) {
+      System.err.println("Uso: TrajectoryEnsemble bench [traiettorie] [giri] [arrivalRateDiv]");
+      System.exit(2);
+    }
+    int lanes = (args.length > 1) ? Integer.parseInt(args[1]) : 8192;
+    int rounds = (args.length > 2) ? Integer.parseInt(args[2]) : 20;
+    int div    = (args.length > 3) ? Integer.parseInt(args[3]) : 2;
+
+    ModelOris2_fase4.GspnModel model = ModelTemplate.fase4().instance();
+    TimeseriesSimulator.disableAutomaticArrivals(model);
+    EntryProb prob = TimeseriesSimulator.readEntryProbs(model);
+    int bph = TimeseriesSimulator.bphDiv(model);
+
+    // orizzonte di 10 s con carico alto, stato intermedio
+    double now = 100.0;
+    List<Arrival> future;
+    try (ArrivalSource src = ArrivalSource.generator(
+        ArrivalGenerator.Scenario.defaults().arrivalRateDiv(div).duration(now + TimeseriesSimulator.HORIZON_SEC))) {
+      future = new ArrivalSource.LookAhead(src).window(now, now + TimeseriesSimulator.HORIZON_SEC);
+    }
+    TempState cur = new TempState(now, 2, new int[]{ 4, 2, 4, 2 }, bph);
+    int lower = Math.max(cur.busy(), TimeseriesSimulator.POOL_MIN);
+    int upper = cur.busy() + TimeseriesSimulator.POOL_MAX;
+    int m = upper - lower + 1;
+    int reps = Math.max(1, lanes / m);
+    int traj = m * reps;
+    System.out.printf(Locale.US, "[bench] %d arrivi nell'orizzonte, %d candidati x %d repliche = %d traiettorie, %d giri%n",
+        future.size(), m, reps, traj, rounds);
+
+    // A: una traiettoria alla volta (TempState + simulateHorizon)
+    double[] refRate = new double[m];
+    Random rng = new Random(1);
+    long best = Long.MAX_VALUE;
+    for (int r = 0; r < rounds; r++) {
+      long t0 = System.nanoTime();
+      double[] acc = new double[m];
+      for (int k = 0; k < m; k++) {
+        for (int j = 0; j < reps; j++) {
+          TempState s = cur.copy();
+          s.pool = Math.max(0, lower + k - s.busy());
+          acc[k] += TimeseriesSimulator.simulateHorizon(s, future, lower + k, prob, rng);
+        }
+      }
+      best = Math.min(best, System.nanoTime() - t0);
+      if (r == rounds - 1) for (int k = 0; k < m; k++) refRate[k] = acc[k] / reps / future.size();
+    }
+    double objRate = traj / (best / 1e9);
+    System.out.printf(Locale.US, "%-22s %,14.0f traiettorie/s%n", "TempState (oggetti)", objRate);
+
+    double[][] rates = new double[2][];
+    for (int v = 0; v < 2; v++) {
+      TrajectoryEnsemble e = new TrajectoryEnsemble(traj, 42L, v == 1);
+      if (v == 1 && e.kernel instanceof ScalarKernel) break; // motivo già nel log di vectorKernel()
+      best = Long.MAX_VALUE;
+      for (int r = 0; r < rounds; r++) {
+        long t0 = System.nanoTime();
+        rates[v] = e.rejectRates(cur, future, prob, lower, upper, reps);
+        best = Math.min(best, System.nanoTime() - t0);
+      }
+      double rate = traj / (best / 1e9);
+      System.out.printf(Locale.US, "%-22s %,14.0f traiettorie/s  (x%.1f)%n", "SoA " + e.kernelName(), rate, rate / objRate);
+    }
+
+    System.out.println("totale  rej(TempState)  rej(SoA scalare)  rej(SoA vettoriale)");
+    for (int k = 0; k < m; k += Math.max(1, m / 8)) {
+      System.out.printf(Locale.US, "%6d  %14.4f  %16.4f  %19s%n", lower + k, refRate[k], rates[0][k],
+          (rates[1] != null) ? String.format(Locale.US, "%.4f", rates[1][k]) : "-");
+    }
+  }
+}
@@ -0,0 +1,209 @@
+package com.example;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Stima statistica del transitorio (statistical model checking) di una GSPN:
+ * - traiettorie indipendenti simulate in parallelo dalla marcatura iniziale
+ * - reward campionati sulla griglia 0, step, ..., tEnd
+ * - media e semi-ampiezza dell'intervallo di confidenza al 95% per punto
+ *
+ * Usato al posto di GSPNTransient quando lo spazio degli stati stimato
+ * (estimateStates) supera la soglia dell'analisi esatta.
+ */
+public final class TransientEstimator {
+
+  static final double Z95 = 1.959964;
+
+  private final IndexedNet net;
+  private long trajectories = 100_000;
+  private long seed         = 777L;
+  private int  parallelism  = Runtime.getRuntime().availableProcessors();
+
+  public TransientEstimator(IndexedNet net) {
+    this.net = net;
+  }
+
+  public TransientEstimator trajectories(long n) { this.trajectories = Math.max(2, n); return this; }
+  public TransientEstimator seed(long s)         { this.seed = s; return this; }
+  public TransientEstimator parallelism(int p)   { this.parallelism = Math.max(1, p); return this; }
+
+  // Medie e semi-ampiezze IC95 per [punto temporale][reward]
+  public static final class Result {
+    public final double[][] mean;
+    public final double[][] halfWidth;
+    public final long       trajectories;
+    public final double     seconds;
+    Result(double[][] mean, double[][] halfWidth, long trajectories, double seconds) {
+      this.mean = mean; this.halfWidth = halfWidth;
+      this.trajectories = trajectories; this.seconds = seconds;
+    }
+  }
+
+  public Result estimate(int[] m0, double tEnd, double step, IndexedNet.MarkingFn... rewards) {
+    final int points = (int) Math.round(tEnd / step) + 1;
+    final int nr = rewards.length;
+
+    int chunks = (int) Math.min(trajectories, parallelism * 8L);
+    SplittableRandom master = new SplittableRandom(seed);
+    List<SplittableRandom> streams = new ArrayList<>(chunks);
+    for (int c = 0; c < chunks; c++) streams.add(master.split());
+
+    long t0 = System.nanoTime();
+    List<Callable<double[][]>> tasks = new ArrayList<>();
+    for (int c = 0; c < chunks; c++) {
+      final long count = trajectories / chunks + ((c < trajectories % chunks) ? 1 : 0);
+      final SplittableRandom rng = streams.get(c);
+      tasks.add(() -> {
+        double[][] acc = new double[2][points * nr]; // somma, somma dei quadrati
+        Trajectory tr = new Trajectory(rng);
+        for (long k = 0; k < count; k++) tr.run(m0, step, points, rewards, acc);
+        return acc;
+      });
+    }
+
+    double[] sum = new double[points * nr], sq = new double[points * nr];
+    ForkJoinPool pool = new ForkJoinPool(parallelism);
+    try {
+      for (Future<double[][]> f : pool.invokeAll(tasks)) {
+        double[][] a = f.get();
+        for (int i = 0; i < sum.length; i++) { sum[i] += a[0][i]; sq[i] += a[1][i]; }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException re) throw re;
+      throw new IllegalStateException(e.getCause());
+    } finally {
+      pool.shutdown();
+    }
+
+    double n = trajectories;
+    double[][] mean = new double[points][nr], hw = new double[points][nr];
+    for (int i = 0; i < points; i++) {
+      for (int r = 0; r < nr; r++) {
+        double s = sum[i * nr + r], q = sq[i * nr + r];
+        double mu  = s / n;
+        double var = Math.max(0.0, (q - s * mu) / (n - 1));
+        mean[i][r] = mu;
+        hw[i][r]   = Z95 * Math.sqrt(var / n);
+      }
+    }
+    return new Result(mean, hw, trajectories, (System.nanoTime() - t0) / 1e9);
+  }
+
+  // ---------- Singola traiettoria (gara di esponenziali + immediate) ----------
+
+  private final class Trajectory {
+    final SplittableRandom rng;
+    final int    nt = net.transitionCount();
+    final int[]  m  = new int[net.placeCount()];
+    final double[] r = new double[nt];
+
+    Trajectory(SplittableRandom rng) { this.rng = rng; }
+
+    void run(int[] m0, double step, int points, IndexedNet.MarkingFn[] rewards, double[][] acc) {
+      System.arraycopy(m0, 0, m, 0, m.length);
+      settle();
+      int nr = rewards.length;
+      double t = 0.0;
+      int next = 0; // prossimo punto di griglia da registrare
+
+      while (next < points) {
+        double total = 0.0;
+        for (int k = 0; k < nt; k++) {
+          r[k] = (!net.immediate[k] && net.isEnabled(k, m)) ? net.rate(k, m) : 0.0;
+          total += r[k];
+        }
+        double tNext = (total > 0.0)
+            ? t - Math.log(1.0 - rng.nextDouble()) / total
+            : Double.POSITIVE_INFINITY;
+
+        // la marcatura corrente vale fino a tNext
+        while (next < points && next * step <= tNext) {
+          int base = next * nr;
+          for (int q = 0; q < nr; q++) {
+            double v = rewards[q].eval(m);
+            acc[0][base + q] += v;
+            acc[1][base + q] += v * v;
+          }
+          next++;
+        }
+        if (next >= points) return;
+
+        net.fire(pick(r, total), m);
+        settle();
+        t = tNext;
+      }
+    }
+
+    // Spara immediate (priorità massima, scelta per peso) finché la marcatura è vanishing
+    void settle() {
+      for (int depth = 0; depth <= ReachabilityExplorer.MAX_VANISHING_DEPTH; depth++) {
+        int best = Integer.MIN_VALUE;
+        double total = 0.0;
+        for (int k = 0; k < nt; k++) {
+          r[k] = 0.0;
+          if (!net.immediate[k] || !net.isEnabled(k, m)) continue;
+          if (net.priority[k] > best) { best = net.priority[k]; total = 0.0; }
+          if (net.priority[k] == best) { r[k] = net.rate(k, m); total += r[k]; }
+        }
+        if (best == Integer.MIN_VALUE) return;
+        for (int k = 0; k < nt; k++) if (net.immediate[k] && net.priority[k] != best) r[k] = 0.0;
+        net.fire(pick(r, total), m);
+      }
+      throw new IllegalStateException("Ciclo di transizioni immediate in simulazione");
+    }
+
+    int pick(double[] w, double total) {
+      double u = rng.nextDouble() * total, acc = 0.0;
+      int last = -1;
+      for (int k = 0; k < w.length; k++) {
+        if (w[k] <= 0.0) continue;
+        acc += w[k];
+        last = k;
+        if (u < acc) return k;
+      }
+      return last;
+    }
+  }
+
+  // ---------- Stima della dimensione dello spazio degli stati ----------
+
+  /**
+   * Stima (per eccesso) del numero di stati tangibili: se ogni transizione
+   * conserva il numero totale di token sui posti che cambiano, gli stati sono
+   * le distribuzioni di T token su quelli che non alimentano immediate:
+   * C(T+k-1, k-1). Altrimenti -1 (stima non disponibile).
+   */
+  public static double estimateStates(IndexedNet net, int[] m0) {
+    boolean[] varying = new boolean[net.placeCount()];
+    for (int t = 0; t < net.transitionCount(); t++) {
+      int d = 0;
+      for (int w : net.deltaW[t]) d += w;
+      if (d != 0) return -1;
+      for (int p : net.deltaP[t]) varying[p] = true;
+    }
+    boolean[] vanishingOnly = new boolean[net.placeCount()];
+    for (int t = 0; t < net.transitionCount(); t++)
+      if (net.immediate[t]) for (int p : net.preP[t]) vanishingOnly[p] = true;
+
+    int tokens = 0, k = 0;
+    for (int p = 0; p < net.placeCount(); p++) {
+      if (!varying[p]) continue;
+      tokens += m0[p];
+      if (!vanishingOnly[p]) k++;
+    }
+    // C(tokens + k - 1, k - 1) in double
+    double c = 1.0;
+    for (int i = 1; i < k; i++) c = c * (tokens + i) / i;
+    return c;
+  }
+}
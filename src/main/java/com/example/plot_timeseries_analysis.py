@@ -34,13 +34,15 @@ def load_sli() -> pd.DataFrame:
             print(f"[warn] impossibile leggere {f}: {e}")
     return pd.DataFrame(rows)
 
-def load_intervals() -> dict:
+def load_intervals(skip=()) -> dict:
     files = list(BASE.glob("timeseries_intervals_*.csv"))
     data = {}
     if not files:
         print("[info] Nessun timeseries_intervals_*.csv trovato, salto i plot per intervallo.")
         return data
     for f in files:
+        if mode_from_name(f) in skip:
+            continue
         try:
             df = pd.read_csv(f)
             if df.empty:
@@ -52,6 +54,47 @@ def load_intervals() -> dict:
             print(f"[warn] impossibile leggere {f}: {e}")
     return data
 
+def load_lttb() -> dict:
+    """Serie già ridotte dal simulatore (timeseries_lttb_*.csv): mode -> {serie: DataFrame t,value}."""
+    data = {}
+    for f in BASE.glob("timeseries_lttb_*.csv"):
+        try:
+            df = pd.read_csv(f)
+            if df.empty:
+                continue
+            data[mode_from_name(f)] = {name: g for name, g in df.groupby("series")}
+        except Exception as e:
+            print(f"[warn] impossibile leggere {f}: {e}")
+    return data
+
+def load_agg(max_rows: int = 5000) -> dict:
+    """Per modalità il livello timeseries_agg_*_<L>s.csv più fine con al più max_rows bucket."""
+    best = {}
+    for f in BASE.glob("timeseries_agg_*_*s.csv"):
+        m = re.search(r"_(\d+)s$", f.stem)
+        if not m:
+            continue
+        level = int(m.group(1))
+        mode = mode_from_name(Path(f.stem[: m.start()]))
+        try:
+            with open(f, "r", encoding="utf-8") as fh:
+                rows = sum(1 for _ in fh) - 1
+        except OSError:
+            continue
+        if rows <= 0 or rows > max_rows:
+            continue
+        if mode not in best or level < best[mode][0]:
+            best[mode] = (level, f)
+    data = {}
+    for mode, (level, f) in best.items():
+        try:
+            df = pd.read_csv(f)
+            df["t_mid"] = (df["t_start"] + df["t_end"]) / 2.0
+            data[mode] = (level, df)
+        except Exception as e:
+            print(f"[warn] impossibile leggere {f}: {e}")
+    return data
+
 # plots (SLI & intervals)
 
 def plot_sli(sli: pd.DataFrame):
@@ -77,8 +120,9 @@ def plot_sli(sli: pd.DataFrame):
     fig2.savefig(OUT / "sli_idle_mean.png", dpi=150)
     plt.close(fig2)
 
-def plot_intervals(data: dict):
-    if not data:
+def plot_intervals(data: dict, lttb: dict = None):
+    lttb = lttb or {}
+    if not data and not lttb:
         return
     series_to_plot = [
         ("pool_now", "Pool over time", "pool_now", "intervals_pool.png"),
@@ -89,8 +133,12 @@ def plot_intervals(data: dict):
     for col, title, ylab, fname in series_to_plot:
         fig = plt.figure(figsize=(9,5))
         plotted_any = False
+        for mode, series in lttb.items():
+            if col in series:
+                plt.plot(series[col]["t"], series[col]["value"], label=mode)
+                plotted_any = True
         for mode, df in data.items():
-            if col not in df.columns or "t_mid" not in df.columns:
+            if mode in lttb or col not in df.columns or "t_mid" not in df.columns:
                 continue
             plt.plot(df["t_mid"], df[col], label=mode)
             plotted_any = True
@@ -105,6 +153,30 @@ def plot_intervals(data: dict):
         plt.close(fig)
 
 
+def plot_agg(agg: dict):
+    """Banda min-max e p95 per bucket, media come linea (un plot per metrica)."""
+    if not agg:
+        return
+    metrics = [
+        ("pool", "Pool per bucket", "agg_pool.png"),
+        ("target", "Target per bucket", "agg_target.png"),
+        ("rej_rate", "Rejection rate per intervallo, per bucket", "agg_rej.png"),
+        ("idle", "Idle per bucket", "agg_idle.png"),
+    ]
+    for key, title, fname in metrics:
+        fig = plt.figure(figsize=(9,5))
+        for mode, (level, df) in agg.items():
+            line, = plt.plot(df["t_mid"], df[f"{key}_mean"], label=f"{mode} (media, bucket {level}s)")
+            plt.fill_between(df["t_mid"], df[f"{key}_min"], df[f"{key}_max"], color=line.get_color(), alpha=0.15)
+            plt.plot(df["t_mid"], df[f"{key}_p95"], color=line.get_color(), linestyle=":", linewidth=0.8)
+        plt.xlabel("time (s)")
+        plt.ylabel(key)
+        plt.title(title + " (banda min-max, p95 tratteggiato)")
+        plt.legend()
+        fig.savefig(OUT / fname, dpi=150)
+        plt.close(fig)
+
+
 def parse_debug(path: Path):
     if not path.exists():
         print("[info] timeseries_debug.csv non trovato, salto i plot di debug.")
@@ -215,9 +287,11 @@ def plot_debug_moves_timeline(df_moves: pd.DataFrame, out_path: Path):
 if __name__ == "__main__":
     # SLI / intervals
     sli = load_sli()
-    data = load_intervals()
+    lttb = load_lttb()
+    data = load_intervals(skip=lttb.keys())  # CSV completo solo se manca la serie ridotta
     plot_sli(sli)
-    plot_intervals(data)
+    plot_intervals(data, lttb)
+    plot_agg(load_agg())
 
     # Debug
     df_snap, df_moves = parse_debug(BASE / "timeseries_debug.csv")
@@ -0,0 +1,124 @@
+package com.example;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Kernel vettoriale di TrajectoryEnsemble: stesse operazioni del kernel scalare
+ * su SPECIES.length() traiettorie per volta. Le traiettorie che escono dalla
+ * gara (prossimo completamento oltre dt) sono spente nella maschera, con il
+ * residuo di hazard consumato, e il loro RNG non avanza più; il blocco passa
+ * all'arrivo quando la maschera è vuota.
+ *
+ * Sorgente separato (src/vector/java), compilato solo col profilo Maven
+ * 'vector' che aggiunge jdk.incubator.vector; caricato via reflection da
+ * TrajectoryEnsemble.vectorKernel(), quindi senza il modulo (o senza il
+ * profilo) la classe non viene mai risolta e resta il kernel scalare.
+ */
+final class EnsembleVectorKernel implements TrajectoryEnsemble.Kernel {
+
+  static final VectorSpecies<Double> D = DoubleVector.SPECIES_PREFERRED;
+  static final VectorSpecies<Long>   L = LongVector.SPECIES_PREFERRED;
+
+  EnsembleVectorKernel() {
+    // rng (long) e stato (double) avanzano con la stessa maschera: stesse lane
+    if (L.length() != D.length())
+      throw new IllegalStateException("Lane diverse: double x" + D.length() + ", long x" + L.length());
+  }
+
+  public String name() { return "vettoriale x" + D.length(); }
+
+  public int lanes() { return D.length(); }
+
+  private static LongVector mix(LongVector z) {
+    z = z.lanewise(VectorOperators.XOR, z.lanewise(VectorOperators.LSHR, 30)).mul(0xBF58476D1CE4E5B9L);
+    z = z.lanewise(VectorOperators.XOR, z.lanewise(VectorOperators.LSHR, 27)).mul(0x94D049BB133111EBL);
+    return z.lanewise(VectorOperators.XOR, z.lanewise(VectorOperators.LSHR, 31));
+  }
+
+  private static DoubleVector unit(LongVector z) {
+    DoubleVector hi = (DoubleVector) z.lanewise(VectorOperators.LSHR, 11).convert(VectorOperators.L2D, 0);
+    return hi.add(0.5).mul(0x1.0p-53);
+  }
+
+  public void horizon(TrajectoryEnsemble e, double[] gap, int[] cls, double[][] q, double invBph) {
+    final double inv2 = 2.0 * invBph, inv3 = 3.0 * invBph;
+    final double poolMax = TimeseriesSimulator.POOL_MAX;
+    for (int i = 0; i < e.capacity; i += D.length()) {
+      DoubleVector p1 = DoubleVector.fromArray(D, e.ph1, i);
+      DoubleVector p2 = DoubleVector.fromArray(D, e.ph2, i);
+      DoubleVector p3 = DoubleVector.fromArray(D, e.ph3, i);
+      DoubleVector p4 = DoubleVector.fromArray(D, e.ph4, i);
+      DoubleVector pool = DoubleVector.fromArray(D, e.pool, i);
+      DoubleVector tgt = DoubleVector.fromArray(D, e.target, i);
+      DoubleVector rej = DoubleVector.fromArray(D, e.rejects, i);
+      LongVector s = LongVector.fromArray(L, e.rng, i).add(TrajectoryEnsemble.GAMMA);
+      DoubleVector h = unit(mix(s)).lanewise(VectorOperators.LOG).neg();
+
+      for (int k = 0; k < gap.length; k++) {
+        // gara dei completamenti per gap[k]
+        double dt = gap[k];
+        DoubleVector t = DoubleVector.zero(D);
+        VectorMask<Double> act = D.maskAll(true);
+        while (true) {
+          DoubleVector r = p1.add(p2.mul(2.0)).add(p3.mul(3.0)).add(p4.mul(4.0)).mul(invBph);
+          DoubleVector tn = t.add(h.div(r));
+          VectorMask<Double> ev = act.and(tn.compare(VectorOperators.LT, dt));
+          VectorMask<Double> fin = act.andNot(ev);
+          h = h.blend(h.sub(r.mul(t.neg().add(dt))).max(0.0), fin);
+          act = ev;
+          if (!act.anyTrue()) break;
+          t = t.blend(tn, act);
+
+          s = s.add(TrajectoryEnsemble.GAMMA, act.cast(L));
+          DoubleVector u = unit(mix(s)).mul(r);
+          DoubleVector c1 = p1.mul(invBph);
+          DoubleVector c2 = c1.add(p2.mul(inv2));
+          DoubleVector c3 = c2.add(p3.mul(inv3));
+          VectorMask<Double> lt1 = u.compare(VectorOperators.LT, c1);
+          VectorMask<Double> lt2 = u.compare(VectorOperators.LT, c2);
+          VectorMask<Double> lt3 = u.compare(VectorOperators.LT, c3);
+          VectorMask<Double> m1 = act.and(lt1);
+          VectorMask<Double> m2 = act.and(lt2).andNot(lt1);
+          VectorMask<Double> m3 = act.and(lt3).andNot(lt2);
+          VectorMask<Double> m4 = act.andNot(lt3).and(p4.compare(VectorOperators.GT, 0.0));
+          p1 = p1.sub(1.0, m1);
+          p2 = p2.add(1.0, m1).sub(1.0, m2);
+          p3 = p3.add(1.0, m2).sub(1.0, m3);
+          p4 = p4.add(1.0, m3).sub(1.0, m4);
+          pool = pool.add(1.0, m4);
+
+          s = s.add(TrajectoryEnsemble.GAMMA, act.cast(L));
+          h = h.blend(unit(mix(s)).lanewise(VectorOperators.LOG).neg(), act);
+        }
+
+        // arrivo: Pool riallineato al target, poi ingresso o rejection
+        pool = tgt.sub(p1.add(p2).add(p3).add(p4)).max(0.0).min(poolMax);
+        VectorMask<Double> acc = pool.compare(VectorOperators.GT, 0.0);
+        rej = rej.add(1.0, acc.not());
+        pool = pool.sub(1.0, acc);
+        s = s.add(TrajectoryEnsemble.GAMMA, acc.cast(L));
+        DoubleVector u = unit(mix(s));
+        double[] c = q[cls[k]];
+        VectorMask<Double> lt1 = u.compare(VectorOperators.LT, c[0]);
+        VectorMask<Double> lt2 = u.compare(VectorOperators.LT, c[1]);
+        VectorMask<Double> lt3 = u.compare(VectorOperators.LT, c[2]);
+        p1 = p1.add(1.0, acc.and(lt1));
+        p2 = p2.add(1.0, acc.and(lt2).andNot(lt1));
+        p3 = p3.add(1.0, acc.and(lt3).andNot(lt2));
+        p4 = p4.add(1.0, acc.andNot(lt3));
+      }
+
+      p1.intoArray(e.ph1, i);
+      p2.intoArray(e.ph2, i);
+      p3.intoArray(e.ph3, i);
+      p4.intoArray(e.ph4, i);
+      pool.intoArray(e.pool, i);
+      rej.intoArray(e.rejects, i);
+      s.intoArray(e.rng, i);
+    }
+  }
+}